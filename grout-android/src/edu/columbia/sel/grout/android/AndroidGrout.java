@@ -0,0 +1,73 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.android;
+
+import java.io.File;
+
+import edu.columbia.sel.grout.Grout;
+import edu.columbia.sel.grout.util.Log;
+
+import org.osmdroid.util.BoundingBoxE6;
+
+import android.os.Environment;
+
+/**
+ * Grout set up for an Android app: tiles are saved under the osmdroid folder on external storage, listeners are
+ * called on the main thread, log messages go to logcat, and regions can be given as osmdroid bounding boxes.
+ */
+public class AndroidGrout extends Grout {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Where osmdroid looks for offline tiles
+	private static final String DEFAULT_ROOT_DIR = Environment.getExternalStorageDirectory().toString()
+			+ File.separator + "osmdroid";
+
+	static {
+		Log.setSink(new AndroidLogSink());
+	}
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public AndroidGrout() {
+		super();
+		this.useAndroidDefaults();
+	}
+
+	public AndroidGrout(Double north, Double south, Double east, Double west) {
+		super(north, south, east, west);
+		this.useAndroidDefaults();
+	}
+
+	public AndroidGrout(BoundingBoxE6 bb) {
+		super();
+		this.setBoundingBox(bb);
+		this.useAndroidDefaults();
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public void setBoundingBox(BoundingBoxE6 bb) {
+		this.setBoundingBox(bb.getLatNorthE6() / 1E6, bb.getLatSouthE6() / 1E6, bb.getLonEastE6() / 1E6,
+				bb.getLonWestE6() / 1E6);
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	private void useAndroidDefaults() {
+		this.setRootDownloadDir(DEFAULT_ROOT_DIR);
+		this.setEventDispatcher(new HandlerEventDispatcher());
+	}
+}
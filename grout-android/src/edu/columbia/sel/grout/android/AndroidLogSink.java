@@ -0,0 +1,22 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.android;
+
+import edu.columbia.sel.grout.util.Log;
+
+/**
+ * Sends the library's log messages to logcat.
+ */
+public class AndroidLogSink implements Log.Sink {
+	public void log(final int pPriority, final String pTag, final String pMessage, final Throwable pThrowable) {
+		// Log's priorities have the same values as android.util.Log's
+		final String message = (pThrowable != null)
+				? pMessage + '\n' + android.util.Log.getStackTraceString(pThrowable) : pMessage;
+		android.util.Log.println(pPriority, pTag, message);
+	}
+}
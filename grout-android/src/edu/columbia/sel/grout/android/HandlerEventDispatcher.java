@@ -0,0 +1,52 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.android;
+
+import edu.columbia.sel.grout.event.EventDispatcher;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Delivers events on an Android {@link Looper}, by default the main one, so listeners can touch the UI directly.
+ */
+public class HandlerEventDispatcher implements EventDispatcher {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final Handler mHandler;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public HandlerEventDispatcher() {
+		this(new Handler(Looper.getMainLooper()));
+	}
+
+	public HandlerEventDispatcher(final Handler pHandler) {
+		this.mHandler = pHandler;
+	}
+
+	// ===========================================================
+	// Methods from/for SuperClass/Interfaces
+	// ===========================================================
+
+	public void dispatch(final Runnable pEvent) {
+		this.mHandler.post(pEvent);
+	}
+
+	public void dispatchDelayed(final Runnable pEvent, final long pDelayMillis) {
+		this.mHandler.postDelayed(pEvent, pDelayMillis);
+	}
+
+	public void shutdown() {
+		// the looper belongs to the application
+	}
+}
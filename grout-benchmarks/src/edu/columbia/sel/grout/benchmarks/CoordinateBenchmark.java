@@ -0,0 +1,134 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.columbia.sel.grout.OSMTileInfo;
+import edu.columbia.sel.grout.TileCursor;
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.region.CorridorRegion;
+import edu.columbia.sel.grout.util.TileUtils;
+
+/**
+ * Converting coordinates to tiles, finding the tiles of a region, and enumerating them.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CoordinateBenchmark {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final int POINTS = 1024;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// Maximum zoom of the enumerated region, around New York; each level has about four times the tiles of the last
+	@Param({ "12", "14", "16" })
+	public int maxZoom;
+
+	private final double[] mLatitudes = new double[POINTS];
+	private final double[] mLongitudes = new double[POINTS];
+	private int mNext = 0;
+
+	private TileRange mRange;
+
+	// A 500 m corridor along the Hudson from Manhattan to Albany
+	private final CorridorRegion mCorridor = new CorridorRegion(new double[] { 40.70, -74.02, 40.90, -73.93, 41.30,
+			-73.96, 41.70, -73.94, 42.10, -73.91, 42.65, -73.75 }, 500);
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(42);
+		for (int i = 0; i < POINTS; i++) {
+			mLatitudes[i] = random.nextDouble() * 170 - 85;
+			mLongitudes[i] = random.nextDouble() * 360 - 180;
+		}
+		mRange = TileRange.fromBoundingBox(41, 40, -73, -74, 8, maxZoom);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public OSMTileInfo coordinatesToTile() {
+		final int i = mNext++ & (POINTS - 1);
+		return TileUtils.getMapTileFromCoordinates(mLatitudes[i], mLongitudes[i], 16);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public TileRange rangeFromBoundingBox() {
+		return TileRange.fromBoundingBox(41, 40, -73, -74, 8, maxZoom);
+	}
+
+	/**
+	 * Find the tiles a corridor touches, up to maxZoom.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public TileRange rangeFromCorridor() {
+		return TileRange.fromRegion(mCorridor, 8, maxZoom);
+	}
+
+	/**
+	 * Walk every tile of the region, as the download producer does.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void enumerateRange(final Blackhole pBlackhole) {
+		final TileCursor cursor = mRange.cursor();
+		while (cursor.hasNext()) {
+			pBlackhole.consume(cursor.next());
+		}
+	}
+
+	/**
+	 * Map tiles to their ordinals and back, as the journal and validator index do for every tile.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public long ordinalRoundTrip() {
+		final long ordinal = (mNext++ & 0x7FFFFFFFL) % mRange.size();
+		return mRange.indexOf(mRange.keyAt(ordinal));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String keyToString() {
+		return TileKey.toString(TileKey.pack(16, mNext++ & 0xFFFF, 24000));
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.columbia.sel.grout.DownloadManager;
+import edu.columbia.sel.grout.Grout;
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.event.EventDispatcher;
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+import edu.columbia.sel.grout.http.UrlConnectionTileClient;
+import edu.columbia.sel.grout.sink.TileSink;
+
+/**
+ * Download throughput, in tiles per second, against a tile server running in the same process that answers every
+ * request after a fixed latency. Tiles are thrown away, so only fetching and scheduling are measured.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DownloadBenchmark {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Zoom 8 to 13 around New York
+	private static final int TILES = 992;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// How long the server takes to answer each request
+	@Param({ "0", "5", "50" })
+	public int latencyMillis;
+
+	@Param({ "8", "32" })
+	public int threads;
+
+	@Param({ "20000" })
+	public int tileBytes;
+
+	private HttpServer mServer;
+	private ExecutorService mServerThreads;
+	private String mURL;
+	private TileRange mRange;
+	private EventDispatcher mDispatcher;
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Setup
+	public void setUp() throws IOException {
+		final byte[] tile = SyntheticTiles.tileData(tileBytes);
+		final long latency = latencyMillis;
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mServer.createContext("/", new HttpHandler() {
+			public void handle(final HttpExchange pExchange) throws IOException {
+				try {
+					if (latency > 0) {
+						Thread.sleep(latency);
+					}
+					pExchange.getResponseHeaders().add("Content-Type", "image/png");
+					pExchange.sendResponseHeaders(200, tile.length);
+					final OutputStream body = pExchange.getResponseBody();
+					body.write(tile);
+					body.close();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					pExchange.close();
+				}
+			}
+		});
+		// a thread per connection, so the server is never the bottleneck
+		mServerThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(final Runnable pRunnable) {
+				final Thread thread = new Thread(pRunnable, "stub-tile-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mServer.setExecutor(mServerThreads);
+		mServer.start();
+
+		mURL = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/%d/%d/%d.png";
+		mRange = TileRange.fromBoundingBox(41, 40, -73, -74, 8, 13);
+		if (mRange.size() != TILES) {
+			throw new IllegalStateException("Expected " + TILES + " tiles, got " + mRange.size());
+		}
+		mDispatcher = new ExecutorEventDispatcher();
+	}
+
+	@TearDown
+	public void tearDown() {
+		mServer.stop(0);
+		mServerThreads.shutdownNow();
+		mDispatcher.shutdown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(TILES)
+	public long download() throws InterruptedException {
+		final DiscardingSink sink = new DiscardingSink();
+		final QuietGrout grout = new QuietGrout();
+		final DownloadManager dm = new DownloadManager(grout, Collections.singletonList(mURL), sink,
+				threads, new UrlConnectionTileClient(threads), mDispatcher, 1000);
+		dm.addAll(mRange);
+		grout.mComplete.await();
+		if (dm.getDownloadedCount() != TILES) {
+			throw new IllegalStateException("Downloaded " + dm.getDownloadedCount() + " of " + TILES + " tiles");
+		}
+		return sink.mBytes;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Counts the bytes of the tiles it is given and keeps none of them.
+	 */
+	private static class DiscardingSink implements TileSink {
+		private volatile long mBytes = 0;
+
+		public boolean contains(final long pKey) {
+			return false;
+		}
+
+		public synchronized void put(final long pKey, final byte[] pData) {
+			mBytes += pData.length;
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Grout that only waits for the download to complete; its own handlers would check and clean up a temp folder.
+	 */
+	private static class QuietGrout extends Grout {
+		final CountDownLatch mComplete = new CountDownLatch(1);
+
+		@Override
+		public void onTilesDownloaded(final int pCount) {
+		}
+
+		@Override
+		public void onFetchingComplete() {
+			mComplete.countDown();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.columbia.sel.grout.util.DbCreator;
+import edu.columbia.sel.grout.util.FolderZipper;
+import edu.columbia.sel.grout.util.GemfWriter;
+
+/**
+ * Packaging a folder of downloaded tiles into a zip file, an SQLite database and a GEMF archive.
+ *
+ * Each run packages the whole folder once. The folders are built on first use and kept in the temp directory; the
+ * largest holds a million files, so it needs a few gigabytes of disk and a while to build.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PackagingBenchmark {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	@Param({ "10000", "100000", "1000000" })
+	public int tiles;
+
+	// Small, so the largest folder stays within reach of a build server's disk
+	@Param({ "1024" })
+	public int tileBytes;
+
+	private File mFolder;
+	private File mDestination;
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mFolder = SyntheticTiles.folder(tiles, tileBytes);
+	}
+
+	@Setup(Level.Iteration)
+	public void createDestination() throws IOException {
+		mDestination = File.createTempFile("grout-package", null);
+		mDestination.delete();
+	}
+
+	@TearDown(Level.Iteration)
+	public void deleteDestination() {
+		mDestination.delete();
+		// GEMF archives over the part size limit continue in destination-1, destination-2, ...
+		for (int i = 1; new File(mDestination.getPath() + "-" + i).delete(); i++) {
+		}
+	}
+
+	@Benchmark
+	public File zip() {
+		FolderZipper.zipFolderToFile(mDestination, mFolder);
+		return mDestination;
+	}
+
+	@Benchmark
+	public File sqlite() throws Exception {
+		DbCreator.putFolderToDb(mDestination, mFolder);
+		return mDestination;
+	}
+
+	@Benchmark
+	public File gemf() throws IOException {
+		GemfWriter.writeFolder(mDestination, mFolder);
+		return mDestination;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Made-up tiles for the benchmarks: image data that looks like a PNG to the cache verifier and compresses about as
+ * badly as one, and folders of such tiles laid out the way a download leaves them.
+ */
+public final class SyntheticTiles {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final String PROVIDER = "Synthetic";
+
+	// Zoom level the tiles of a synthetic folder are at; deep enough for a million tiles in one block
+	public static final int ZOOM = 16;
+
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final byte[] PNG_TRAILER = { 0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82 };
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private SyntheticTiles() {
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @param pBytes size of the tile, at least 20
+	 * @return a PNG signature and trailer around random bytes.
+	 */
+	public static byte[] tileData(final int pBytes) {
+		final byte[] data = new byte[Math.max(pBytes, PNG_SIGNATURE.length + PNG_TRAILER.length)];
+		new Random(pBytes).nextBytes(data);
+		System.arraycopy(PNG_SIGNATURE, 0, data, 0, PNG_SIGNATURE.length);
+		System.arraycopy(PNG_TRAILER, 0, data, data.length - PNG_TRAILER.length, PNG_TRAILER.length);
+		return data;
+	}
+
+	/**
+	 * A folder of tiles laid out as provider/zoom/x/y.png.tile, filling a rectangle as close to square as the
+	 * count allows. Building a large folder takes a while, so it is kept in the temp directory and reused by later
+	 * runs.
+	 *
+	 * @param pTiles
+	 * @param pTileBytes
+	 * @return the provider folder, holding the zoom folder.
+	 * @throws IOException
+	 */
+	public static File folder(final int pTiles, final int pTileBytes) throws IOException {
+		final File root = new File(System.getProperty("java.io.tmpdir"), "grout-benchmarks" + File.separator
+				+ "tiles-" + pTiles + "-" + pTileBytes);
+		final File provider = new File(root, PROVIDER);
+		// written last, so an interrupted build is started over
+		final File marker = new File(root, "complete");
+		if (marker.exists()) {
+			return provider;
+		}
+
+		final byte[] data = tileData(pTileBytes);
+		final int width = width(pTiles);
+		final int height = pTiles / width;
+		for (int x = 0; x < width; x++) {
+			final File column = new File(provider, ZOOM + File.separator + x);
+			if (!column.isDirectory() && !column.mkdirs()) {
+				throw new IOException("Could not create " + column);
+			}
+			for (int y = 0; y < height; y++) {
+				final FileOutputStream out = new FileOutputStream(new File(column, y + ".png.tile"));
+				try {
+					out.write(data);
+				} finally {
+					out.close();
+				}
+			}
+		}
+		if (!marker.createNewFile() && !marker.exists()) {
+			throw new IOException("Could not create " + marker);
+		}
+		return provider;
+	}
+
+	/**
+	 * @return the largest divisor of the count that is no larger than its square root, so the tiles fill a whole
+	 *         rectangle.
+	 */
+	private static int width(final int pTiles) {
+		for (int width = (int) Math.sqrt(pTiles); width > 1; width--) {
+			if (pTiles % width == 0) {
+				return width;
+			}
+		}
+		return 1;
+	}
+}
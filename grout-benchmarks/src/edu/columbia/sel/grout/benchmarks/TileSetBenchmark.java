@@ -0,0 +1,87 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.TileSet;
+import edu.columbia.sel.grout.region.CorridorRegion;
+
+/**
+ * Set operations on regions of over a million tiles, as used to leave already cached tiles out of a download.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TileSetBenchmark {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// Zoom 8 to 17 around New York: about 1.4 million tiles
+	private TileSet mRegion;
+
+	// A 2 km corridor up the Hudson
+	private TileSet mCorridor;
+
+	// A million random tiles at zoom 16, as a browsed cache would hold
+	private TileSet mScattered;
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Setup
+	public void setUp() {
+		mRegion = TileSet.of(TileRange.fromBoundingBox(42, 40, -72, -75, 8, 17));
+		mCorridor = TileSet.of(TileRange.fromRegion(new CorridorRegion(new double[] { 40.70, -74.02, 41.30, -73.96,
+				42.65, -73.75 }, 2000), 8, 17));
+		final Random random = new Random(42);
+		mScattered = new TileSet();
+		for (int i = 0; i < 1000000; i++) {
+			mScattered.add(TileKey.pack(16, 19000 + random.nextInt(1000), 24000 + random.nextInt(1000)));
+		}
+	}
+
+	@Benchmark
+	public TileSet fromRange() {
+		return TileSet.of(TileRange.fromBoundingBox(42, 40, -72, -75, 8, 17));
+	}
+
+	@Benchmark
+	public TileSet regionMinusCorridor() {
+		return mRegion.difference(mCorridor);
+	}
+
+	@Benchmark
+	public TileSet regionAndScattered() {
+		return mRegion.intersection(mScattered);
+	}
+
+	@Benchmark
+	public TileRange toTileRange() {
+		return mRegion.difference(mCorridor).toTileRange();
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adaptive limit on the number of tile fetches in flight.
+ *
+ * The limit follows an AIMD rule driven by what the server tells us: every fetch that completes without trouble adds
+ * roughly one permit per round of requests, while a fetch that fails with a server-side error or times out, or recent
+ * latency rising well above its long-term average, cuts the limit by a constant factor (at most once per round trip).
+ * Comparing averages rather than single fetches keeps the mix of fast cache hits and slow misses that tile servers
+ * produce from reading as congestion. Fast tile servers are driven up to the ceiling; slow or overloaded ones settle at
+ * whatever they can sustain.
+ */
+public class ConcurrencyLimiter {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int DEFAULT_INITIAL_LIMIT = 4;
+
+	// Multiplicative decrease applied when the server shows signs of overload
+	private static final double BACKOFF_RATIO = 0.7;
+
+	// Recent latency above this multiple of the long-term latency counts as congestion
+	private static final double LATENCY_TOLERANCE = 2.0;
+
+	// Weight of a new sample in the recent and long-term latency averages, as shifts: 1/2^3 and 1/2^7
+	private static final int RECENT_SHIFT = 3;
+	private static final int BASELINE_SHIFT = 7;
+
+	private static final int HISTORY_SIZE = 128;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final int mMinLimit;
+	private final int mMaxLimit;
+	private final Permits mPermits;
+
+	private volatile int mLimit;
+
+	// Guarded by this
+	private double mEstimate;
+	private long mRecentLatencyNanos = 0;
+	private long mBaselineLatencyNanos = 0;
+	private long mLastDecreaseNanos = 0;
+	private final long[] mHistoryTimes = new long[HISTORY_SIZE];
+	private final int[] mHistoryLimits = new int[HISTORY_SIZE];
+	private long mHistoryCount = 0;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public ConcurrencyLimiter(final int pMaxLimit) {
+		this(1, pMaxLimit, Math.min(DEFAULT_INITIAL_LIMIT, pMaxLimit));
+	}
+
+	public ConcurrencyLimiter(final int pMinLimit, final int pMaxLimit, final int pInitialLimit) {
+		this.mMinLimit = Math.max(1, pMinLimit);
+		this.mMaxLimit = Math.max(this.mMinLimit, pMaxLimit);
+		this.mLimit = Math.max(this.mMinLimit, Math.min(pInitialLimit, this.mMaxLimit));
+		this.mEstimate = this.mLimit;
+		this.mPermits = new Permits(this.mLimit);
+		record(this.mLimit);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the current number of fetches allowed in flight.
+	 */
+	public int getLimit() {
+		return this.mLimit;
+	}
+
+	public int getMinLimit() {
+		return mMinLimit;
+	}
+
+	public int getMaxLimit() {
+		return mMaxLimit;
+	}
+
+	/**
+	 * @return the number of fetches currently holding a permit.
+	 */
+	public int getInFlight() {
+		return Math.max(0, this.mLimit - this.mPermits.availablePermits());
+	}
+
+	/**
+	 * @return the most recent limit changes, oldest first.
+	 */
+	public synchronized List<LimitChange> getHistory() {
+		final int count = (int) Math.min(this.mHistoryCount, HISTORY_SIZE);
+		final List<LimitChange> history = new ArrayList<LimitChange>(count);
+		for (long i = this.mHistoryCount - count; i < this.mHistoryCount; i++) {
+			final int slot = (int) (i % HISTORY_SIZE);
+			history.add(new LimitChange(this.mHistoryTimes[slot], this.mHistoryLimits[slot]));
+		}
+		return history;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Wait for a permit to start a fetch.
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		this.mPermits.acquire();
+	}
+
+	/**
+	 * Take a permit to start a fetch if one is free.
+	 * @return true if a permit was taken.
+	 */
+	public boolean tryAcquire() {
+		return this.mPermits.tryAcquire();
+	}
+
+	/**
+	 * Return a permit and feed the outcome of the fetch back into the limit.
+	 *
+	 * @param pLatencyNanos how long the fetch took
+	 * @param pDropped true if the fetch failed in a way that suggests the server is overloaded
+	 */
+	public void release(final long pLatencyNanos, final boolean pDropped) {
+		this.mPermits.release();
+		adjust(pLatencyNanos, pDropped);
+	}
+
+	/**
+	 * Return a permit for a fetch that never started, without feeding anything back into the limit.
+	 */
+	public void cancel() {
+		this.mPermits.release();
+	}
+
+	private synchronized void adjust(final long pLatencyNanos, final boolean pDropped) {
+		// single slow fetches are common and mean little; a sustained rise in latency means the queue is building
+		if (this.mBaselineLatencyNanos == 0) {
+			this.mRecentLatencyNanos = this.mBaselineLatencyNanos = Math.max(1, pLatencyNanos);
+		} else {
+			this.mRecentLatencyNanos += (pLatencyNanos - this.mRecentLatencyNanos) >> RECENT_SHIFT;
+			this.mBaselineLatencyNanos += (pLatencyNanos - this.mBaselineLatencyNanos) >> BASELINE_SHIFT;
+		}
+
+		final long now = System.nanoTime();
+		final boolean congested = pDropped
+				|| this.mRecentLatencyNanos > this.mBaselineLatencyNanos * LATENCY_TOLERANCE;
+		if (congested) {
+			// one decrease per round trip, otherwise a burst of failures collapses the limit to the minimum
+			if (now - this.mLastDecreaseNanos < pLatencyNanos) {
+				return;
+			}
+			this.mLastDecreaseNanos = now;
+			this.mEstimate = Math.max(this.mMinLimit, this.mEstimate * BACKOFF_RATIO);
+		} else {
+			this.mEstimate = Math.min(this.mMaxLimit, this.mEstimate + 1.0 / this.mEstimate);
+		}
+
+		final int limit = (int) this.mEstimate;
+		if (limit != this.mLimit) {
+			final int delta = limit - this.mLimit;
+			this.mLimit = limit;
+			if (delta > 0) {
+				this.mPermits.release(delta);
+			} else {
+				this.mPermits.reducePermits(-delta);
+			}
+			record(limit);
+		}
+	}
+
+	private synchronized void record(final int pLimit) {
+		final int slot = (int) (this.mHistoryCount % HISTORY_SIZE);
+		this.mHistoryTimes[slot] = System.currentTimeMillis();
+		this.mHistoryLimits[slot] = pLimit;
+		this.mHistoryCount++;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * A change of the concurrency limit at a point in time.
+	 */
+	public static class LimitChange {
+		public final long timeMillis;
+		public final int limit;
+
+		public LimitChange(long pTimeMillis, int pLimit) {
+			timeMillis = pTimeMillis;
+			limit = pLimit;
+		}
+	}
+
+	/**
+	 * Semaphore whose permit count can be lowered while permits are held.
+	 */
+	private static class Permits extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		Permits(final int pPermits) {
+			super(pPermits);
+		}
+
+		@Override
+		protected void reducePermits(final int pReduction) {
+			super.reducePermits(pReduction);
+		}
+	}
+}
@@ -0,0 +1,891 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.columbia.sel.grout.event.CoalescingProgressDispatcher;
+import edu.columbia.sel.grout.event.EventDispatcher;
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+import edu.columbia.sel.grout.event.FetchingErrorEvent;
+import edu.columbia.sel.grout.http.TileHttpClient;
+import edu.columbia.sel.grout.http.TileResponse;
+import edu.columbia.sel.grout.http.UrlConnectionTileClient;
+import edu.columbia.sel.grout.sink.AsyncTileSink;
+import edu.columbia.sel.grout.sink.DirectoryTileSink;
+import edu.columbia.sel.grout.sink.SinkFailedException;
+import edu.columbia.sel.grout.sink.TileSink;
+import edu.columbia.sel.grout.util.Log;
+import edu.columbia.sel.grout.util.TilePackageReader;
+
+/**
+ * Downloads tiles with a fixed set of long-lived workers pulling from a bounded queue.
+ *
+ * The number of workers is the ceiling on concurrent fetches, independent of the number of tiles; the
+ * {@link HostPool} spreads the fetches across the tile server's mirrors, and each mirror's
+ * {@link ConcurrencyLimiter} decides how many of them may actually fetch from it at once. Producers calling add() are held
+ * back while the queue is full, so memory use stays flat no matter how large the region is.
+ */
+public class DownloadManager {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+	private final String TAG = this.getClass().getCanonicalName();
+
+	// Queue slots per worker; enough to keep every worker busy without buffering the whole region
+	private static final int QUEUE_SLOTS_PER_WORKER = 4;
+
+	// Upper bound on how long an idle worker or a blocked producer parks before checking again
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private Grout mGrout;
+
+	private final TileQueue mQueue;
+
+	private final Thread[] mWorkers;
+
+	// Workers that have not exited yet; the last one out closes the sink
+	private final AtomicInteger mRunningWorkers = new AtomicInteger();
+
+	// Tiles that have been added but not yet finished (queued, in flight, or waiting to be retried)
+	private final AtomicInteger mOutstanding = new AtomicInteger();
+
+	private volatile boolean mInputFinished = false;
+
+	// Producer threads started by addAll() that are still queuing tiles; input is finished once the last one is done
+	private final AtomicInteger mProducers = new AtomicInteger();
+
+	private volatile boolean mStopped = false;
+
+	// Set by whoever reports the end of the download, so it is reported exactly once
+	private final AtomicBoolean mFinished = new AtomicBoolean();
+
+	// Set once the sink has failed for good, which ends the download
+	private final AtomicBoolean mSinkFailed = new AtomicBoolean();
+
+	// The tile server's mirrors, each with its own concurrency limit
+	private final HostPool mHosts;
+	private final TileSink mSink;
+
+	private final TileHttpClient mHttpClient;
+
+	private final RetryScheduler mRetries = new RetryScheduler();
+
+	// Tiles already stored by an earlier run, by ordinal within mJournalRange; null if the sink is not resumable
+	private TileJournal mJournal;
+	private TileRange mJournalRange;
+
+	// True if the sink reports stored tiles through a commit callback rather than when put() returns
+	private boolean mJournalOnCommit = false;
+
+	// Validators of stored tiles, by ordinal within mValidatorRange; null if they are not kept
+	private ValidatorIndex mValidators;
+	private TileRange mValidatorRange;
+
+	// Validators of tiles that have been put but not yet committed
+	private final ConcurrentMap<Long, TileResponse> mPendingValidators = new ConcurrentHashMap<Long, TileResponse>();
+
+	// Fetch stored tiles again, conditionally, instead of skipping them
+	private volatile boolean mRefresh = false;
+
+	// Package a delta is built against, its tiles, and the time they were fetched; null if not building a delta
+	private TilePackageReader mBase;
+	private TileSet mBaseTiles;
+	private long mBaseModifiedSince;
+
+	// What became of the tiles so far, and how long fetching and storing them took
+	private final DownloadStats mStats;
+
+	// Job-wide limits on requests and bytes per second, on top of any per-host ones; null for no limit
+	private volatile RateLimiter mRequestRate;
+	private volatile RateLimiter mByteRate;
+
+	// Tiles that were given up on
+	private final Queue<FetchingErrorEvent> mDeadLetters = new ConcurrentLinkedQueue<FetchingErrorEvent>();
+
+	// Delivers events to Grout, off the workers' threads
+	private final EventDispatcher mDispatcher;
+	// Whether the dispatcher was created here, and so is shut down here once the download is over
+	private final boolean mOwnsDispatcher;
+
+	// Finished tiles, reported to Grout in batches
+	private final CoalescingProgressDispatcher mProgress;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public DownloadManager(Grout tp, String pBaseURL, final String pDestinationURL,
+			final int mThreads) {
+		this(tp, pBaseURL, new DirectoryTileSink(pDestinationURL), mThreads,
+				new UrlConnectionTileClient(Math.min(mThreads, UrlConnectionTileClient.getPlatformKeepAliveLimit())));
+	}
+
+	public DownloadManager(Grout tp, String pBaseURL, final TileSink pSink,
+			final int mThreads, final TileHttpClient pHttpClient) {
+		this(tp, Collections.singletonList(pBaseURL), pSink, mThreads, pHttpClient);
+	}
+
+	/**
+	 * @param tp
+	 * @param pBaseURLs URL templates of the tile server's mirrors; tiles are spread across all of them
+	 * @param pSink
+	 * @param mThreads number of workers, the ceiling on concurrent fetches across all hosts
+	 * @param pHttpClient
+	 */
+	public DownloadManager(Grout tp, List<String> pBaseURLs, final TileSink pSink,
+			final int mThreads, final TileHttpClient pHttpClient) {
+		this(tp, pBaseURLs, pSink, mThreads, pHttpClient, new ExecutorEventDispatcher(),
+				CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS, true);
+	}
+
+	/**
+	 * @param tp
+	 * @param pBaseURLs URL templates of the tile server's mirrors; tiles are spread across all of them
+	 * @param pSink
+	 * @param mThreads number of workers, the ceiling on concurrent fetches across all hosts
+	 * @param pHttpClient
+	 * @param pDispatcher delivers events to Grout; left running once the download is over
+	 * @param pProgressIntervalMillis minimum time between two progress events
+	 */
+	public DownloadManager(Grout tp, List<String> pBaseURLs, final TileSink pSink,
+			final int mThreads, final TileHttpClient pHttpClient, final EventDispatcher pDispatcher,
+			final long pProgressIntervalMillis) {
+		this(tp, pBaseURLs, pSink, mThreads, pHttpClient, pDispatcher, pProgressIntervalMillis, false);
+	}
+
+	private DownloadManager(Grout tp, List<String> pBaseURLs, final TileSink pSink,
+			final int mThreads, final TileHttpClient pHttpClient, final EventDispatcher pDispatcher,
+			final long pProgressIntervalMillis, final boolean pOwnsDispatcher) {
+
+		this.mGrout = tp;
+		this.mHttpClient = pHttpClient;
+		Log.d(TAG, "BASE URLS: " + pBaseURLs);
+		this.mHosts = new HostPool(pBaseURLs, mThreads);
+		this.mSink = pSink;
+		this.mQueue = new TileQueue(mThreads * QUEUE_SLOTS_PER_WORKER);
+		this.mStats = new DownloadStats(this.mQueue, this.mRetries);
+
+		this.mDispatcher = pDispatcher;
+		this.mOwnsDispatcher = pOwnsDispatcher;
+		this.mProgress = new CoalescingProgressDispatcher(pDispatcher, pProgressIntervalMillis,
+				new CoalescingProgressDispatcher.Listener() {
+					public void onProgress(final int pTiles) {
+						mGrout.onTilesDownloaded(pTiles);
+					}
+				});
+
+		if (pSink instanceof DirectoryTileSink) {
+			((DirectoryTileSink) pSink).setCommitListener(new DirectoryTileSink.CommitListener() {
+				public void onCommitted(final long pKey) {
+					if (mJournalOnCommit) {
+						onTileCommitted(pKey);
+					}
+				}
+
+				public void onCommitFailed(final long pKey, final IOException pError) {
+					onTileCommitFailed(pKey, pError);
+				}
+			});
+		} else if (pSink instanceof AsyncTileSink) {
+			((AsyncTileSink) pSink).setFailureListener(new AsyncTileSink.FailureListener() {
+				public void onCommitFailed(final long pKey, final IOException pError) {
+					onTileCommitFailed(pKey, pError);
+				}
+			});
+		}
+
+		this.mWorkers = new Thread[mThreads];
+		this.mRunningWorkers.set(mThreads);
+		for (int i = 0; i < mThreads; i++) {
+			this.mWorkers[i] = new Thread(new DownloadWorker(), "grout-download-" + i);
+			this.mWorkers[i].setDaemon(true);
+			this.mWorkers[i].start();
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * Record stored tiles in a journal, and skip the tiles it already holds, so that an interrupted download can be
+	 * resumed. Must be called before any tiles are added; the journal is closed along with the sink.
+	 * @param pJournal
+	 * @param pRange the range the journal's ordinals refer to
+	 */
+	public void setJournal(final TileJournal pJournal, final TileRange pRange) {
+		this.mJournal = pJournal;
+		this.mJournalRange = pRange;
+		// tiles in a folder only count as stored once their data is synced and renamed into place; a folder whose
+		// data is left to write-back was asked not to pay for that, and is trusted when put() returns
+		this.mJournalOnCommit = this.mSink instanceof DirectoryTileSink
+				&& ((DirectoryTileSink) this.mSink).isSyncData();
+	}
+
+	public TileJournal getJournal() {
+		return this.mJournal;
+	}
+
+	/**
+	 * Record the ETag and Last-Modified time of every fetched tile, so that a refresh only downloads the tiles that
+	 * have changed. Must be called before any tiles are added; the index is closed along with the sink.
+	 * @param pValidators
+	 * @param pRange the range the index's ordinals refer to
+	 */
+	public void setValidatorIndex(final ValidatorIndex pValidators, final TileRange pRange) {
+		this.mValidators = pValidators;
+		this.mValidatorRange = pRange;
+	}
+
+	/**
+	 * In refresh mode, tiles that are already stored are requested again with their validators instead of being
+	 * skipped; the server then only sends the ones that have changed. Must be set before any tiles are added.
+	 * @param pRefresh
+	 */
+	public void setRefresh(final boolean pRefresh) {
+		this.mRefresh = pRefresh;
+	}
+
+	public boolean isRefresh() {
+		return this.mRefresh;
+	}
+
+	/**
+	 * Build a delta against an existing package, so the sink receives the missing tiles and the changed ones. Tiles
+	 * the package holds are fetched with If-Modified-Since its time, and left out if the server answers 304 or sends
+	 * the same bytes the package holds; servers that ignore conditional requests, or a package whose time was lost in
+	 * a copy, cost bandwidth but do not bloat the delta. Must be called before any tiles are added; the set must not
+	 * change while the download runs. The reader is closed once the download is over.
+	 * @param pBase the base package, open
+	 * @param pTiles the tiles in the base package
+	 */
+	public void setBase(final TilePackageReader pBase, final TileSet pTiles) {
+		this.mBase = pBase;
+		this.mBaseTiles = pTiles;
+		this.mBaseModifiedSince = pBase.getLastModified();
+	}
+
+	/**
+	 * @return the number of stored tiles that a refresh downloaded again because they changed.
+	 */
+	public int getChangedCount() {
+		return (int) this.mStats.getChangedCount();
+	}
+
+	/**
+	 * @return the number of stored tiles that a refresh found unchanged.
+	 */
+	public int getUnchangedCount() {
+		return (int) this.mStats.getUnchangedCount();
+	}
+
+	/**
+	 * @return live metrics of the download, which can be read at any time while it runs.
+	 */
+	public DownloadStats getStats() {
+		return this.mStats;
+	}
+
+	/**
+	 * @return the number of tiles fetched and stored, including stored tiles that a refresh found changed.
+	 */
+	public long getDownloadedCount() {
+		return this.mStats.getDownloadedCount();
+	}
+
+	/**
+	 * @return the number of tiles that were already stored and not fetched again.
+	 */
+	public long getSkippedCount() {
+		return this.mStats.getSkippedCount();
+	}
+
+	/**
+	 * @return the number of tiles that were given up on.
+	 */
+	public long getFailedCount() {
+		return this.mStats.getFailedCount();
+	}
+
+	/**
+	 * @return the number of failed fetches that were scheduled to be tried again.
+	 */
+	public long getRetriedCount() {
+		return this.mStats.getRetriedCount();
+	}
+
+	/**
+	 * @return the number of bytes received in tile responses.
+	 */
+	public long getBytesDownloaded() {
+		return this.mStats.getBytes();
+	}
+
+	/**
+	 * @return the number of tiles that are done with, one way or another: downloaded, found unchanged, skipped or
+	 *         given up on.
+	 */
+	public long getCompletedCount() {
+		return this.mStats.getCompletedCount();
+	}
+
+	/**
+	 * Queue a tile for download, blocking while the queue is full.
+	 * @param pKey packed {@link TileKey}
+	 * @throws InterruptedException
+	 */
+	public void add(final long pKey) throws InterruptedException {
+		this.mOutstanding.incrementAndGet();
+		this.mRetries.onTileAdded();
+		int idle = 0;
+		while (!this.mQueue.offer(pKey)) {
+			if (this.mStopped) {
+				this.mOutstanding.decrementAndGet();
+				return;
+			}
+			if (Thread.interrupted()) {
+				this.mOutstanding.decrementAndGet();
+				throw new InterruptedException();
+			}
+			idle = backOff(idle);
+		}
+	}
+
+	public void add(final OSMTileInfo pTileInfo) throws InterruptedException {
+		add(TileKey.fromTileInfo(pTileInfo));
+	}
+
+	/**
+	 * Queue every tile in the range for download from a producer thread, then signal that input is finished once no
+	 * other producer is still running. Returns immediately; tiles are generated lazily as the workers make room in
+	 * the queue.
+	 * @param pRange
+	 */
+	public void addAll(final TileRange pRange) {
+		this.mProducers.incrementAndGet();
+		final Thread producer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					final TileCursor cursor = pRange.cursor();
+					final boolean journaled = mJournal != null && mJournalRange == pRange && !mRefresh;
+					while (cursor.hasNext() && !mStopped) {
+						// finished tiles are skipped here, so they never take up a queue slot
+						if (journaled && mJournal.isComplete(cursor.ordinal())) {
+							cursor.next();
+							mStats.onSkipped();
+							mProgress.add(1);
+							continue;
+						}
+						add(cursor.next());
+					}
+				} catch (final InterruptedException e) {
+					Log.i(TAG, "Tile producer interrupted.");
+				} finally {
+					if (mProducers.decrementAndGet() == 0) {
+						finish();
+					}
+				}
+			}
+		}, "grout-producer");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Signal that no more tiles will be added. Workers exit once the outstanding tiles are done.
+	 */
+	public void finish() {
+		this.mInputFinished = true;
+	}
+
+	/**
+	 * @return the number of tiles queued, in flight or waiting to be retried.
+	 */
+	public int getOutstandingCount() {
+		return this.mOutstanding.get();
+	}
+
+	/**
+	 * @return the limiter of the first host.
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return this.mHosts.getHosts().get(0).getLimiter();
+	}
+
+	/**
+	 * @return the sum of the hosts' current concurrency limits.
+	 */
+	public int getConcurrencyLimit() {
+		return this.mHosts.getLimit();
+	}
+
+	public HostPool getHostPool() {
+		return this.mHosts;
+	}
+
+	/**
+	 * Limit the whole job, across all hosts, to a request and byte rate. Workers waiting for their turn sleep.
+	 * @param pRequestsPerSecond 0 for no limit
+	 * @param pBytesPerSecond 0 for no limit
+	 */
+	public void setRateLimit(final double pRequestsPerSecond, final long pBytesPerSecond) {
+		this.mRequestRate = (pRequestsPerSecond > 0) ? new RateLimiter(pRequestsPerSecond) : null;
+		this.mByteRate = (pBytesPerSecond > 0) ? new RateLimiter(pBytesPerSecond) : null;
+	}
+
+	/**
+	 * Limit every host to a request and byte rate.
+	 * @param pRequestsPerSecond 0 for no limit
+	 * @param pBytesPerSecond 0 for no limit
+	 */
+	public void setHostRateLimit(final double pRequestsPerSecond, final long pBytesPerSecond) {
+		this.mHosts.setRateLimit(pRequestsPerSecond, pBytesPerSecond);
+	}
+
+	public RetryScheduler getRetryScheduler() {
+		return this.mRetries;
+	}
+
+	/**
+	 * @return the tiles that were given up on so far, with the reason for each.
+	 */
+	public List<FetchingErrorEvent> getDeadLetters() {
+		return new ArrayList<FetchingErrorEvent>(this.mDeadLetters);
+	}
+
+	public void cancel() {
+		stop();
+	}
+
+	/**
+	 * Kill the unused threads
+	 */
+	public void cleanUp() {
+		stop();
+	}
+
+	public void waitEmpty() throws InterruptedException {
+		int idle = 0;
+		while (!this.mQueue.isEmpty() && !this.mStopped) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			idle = backOff(idle);
+		}
+	}
+
+	/**
+	 * Wait for the workers to exit. Input is finished here unless addAll() is still queuing tiles, in which case it
+	 * finishes the input itself once the range is queued.
+	 */
+	public void waitFinished() throws InterruptedException {
+		if (this.mProducers.get() == 0) {
+			finish();
+		}
+		for (final Thread worker : this.mWorkers) {
+			worker.join();
+		}
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Stop the download for good once the sink can take no more tiles; the workers' exit reports it to Grout.
+	 */
+	private void onSinkFailed(final SinkFailedException pError) {
+		if (this.mSinkFailed.compareAndSet(false, true)) {
+			Log.e(TAG, "Tile sink failed, stopping: " + pError.getCause());
+			stop();
+		}
+	}
+
+	private void stop() {
+		this.mStopped = true;
+		for (final Thread worker : this.mWorkers) {
+			worker.interrupt();
+		}
+		this.mHttpClient.close();
+	}
+
+	/**
+	 * Called by the last worker to exit: close the sink, then tell Grout the download is complete unless it was
+	 * stopped early. If the sink failed or cannot be finished, Grout hears of the error and that the download stopped. A
+	 * dispatcher created by this DownloadManager is shut down once those last events are delivered.
+	 */
+	private void onWorkersFinished() {
+		if (!this.mFinished.compareAndSet(false, true)) {
+			return;
+		}
+		this.mStats.onFinished();
+		if (this.mBase != null) {
+			try {
+				this.mBase.close();
+			} catch (final IOException e) {
+				// only read from; nothing of the download is lost
+				Log.e(TAG, "Error closing delta base: " + e);
+			}
+		}
+		boolean packaged = !this.mSinkFailed.get();
+		try {
+			try {
+				this.mSink.close();
+			} finally {
+				try {
+					if (this.mValidators != null) {
+						this.mValidators.close();
+					}
+				} finally {
+					if (this.mJournal != null) {
+						this.mJournal.close();
+					}
+				}
+			}
+		} catch (final IOException e) {
+			Log.e(TAG, "Error closing tile sink: " + e);
+			packaged = false;
+		}
+		if (!packaged) {
+			this.mProgress.flush();
+			// the download is over either way; Grout has to hear that it stopped, or it would count as still running
+			this.mDispatcher.dispatch(new Runnable() {
+				public void run() {
+					mGrout.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.PACKAGING_FAILED));
+					mGrout.onFetchingStop();
+				}
+			});
+			releaseDispatcher();
+			return;
+		}
+		if (!this.mStopped) {
+			// the last batch of progress goes out before the completion event
+			this.mProgress.flush();
+			this.mDispatcher.dispatch(new Runnable() {
+				public void run() {
+					mGrout.onFetchingComplete();
+				}
+			});
+		}
+		releaseDispatcher();
+	}
+
+	/**
+	 * Shut down the dispatcher if it was created here, after the events already dispatched; its thread would
+	 * otherwise outlive the download.
+	 */
+	private void releaseDispatcher() {
+		if (this.mOwnsDispatcher) {
+			this.mDispatcher.dispatch(new Runnable() {
+				public void run() {
+					mDispatcher.shutdown();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Called once a tile's data is durably stored: only then are the journal and validators allowed to vouch for it.
+	 */
+	private void onTileCommitted(final long pKey) {
+		final TileResponse validators = this.mPendingValidators.remove(pKey);
+		if (validators != null) {
+			this.mValidators.put(this.mValidatorRange.indexOf(pKey), validators.etag, validators.lastModified);
+		}
+		final long ordinal = this.mJournalRange.indexOf(pKey);
+		if (ordinal >= 0) {
+			this.mJournal.markComplete(ordinal);
+		}
+	}
+
+	/**
+	 * Called when a tile that was counted as downloaded turns out not to be stored after all, because the sink could
+	 * not commit it after put() returned.
+	 */
+	private void onTileCommitFailed(final long pKey, final IOException pError) {
+		Log.e(TAG, "Error storing: '" + TileKey.toString(pKey) + "' : " + pError);
+		this.mPendingValidators.remove(pKey);
+		this.mStats.onCommitFailed();
+		deadLetter(pKey, FetchFailure.STORAGE_ERROR, 1);
+	}
+
+	/**
+	 * Give up on a tile and report it to Grout through the dispatcher.
+	 */
+	private void deadLetter(final long pKey, final FetchFailure pFailure, final int pAttempts) {
+		final FetchingErrorEvent fee = new FetchingErrorEvent(TileKey.toTileInfo(pKey), pFailure, pAttempts);
+		Log.e(TAG, "Giving up on: '" + TileKey.toString(pKey) + "' (" + pFailure + ")");
+		this.mDeadLetters.add(fee);
+		this.mDispatcher.dispatch(new Runnable() {
+			public void run() {
+				mGrout.onFetchingError(fee);
+			}
+		});
+	}
+
+	/**
+	 * Spin briefly, then park for progressively longer intervals, so waiting threads neither burn a core nor take a
+	 * lock.
+	 * @param pIdle number of consecutive unsuccessful attempts so far
+	 * @return the updated attempt count
+	 */
+	private static int backOff(final int pIdle) {
+		if (pIdle < 16) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(pIdle - 16, 14)));
+		}
+		return pIdle + 1;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	private class DownloadWorker implements Runnable {
+
+		// How long the server asked us to wait after the last failed fetch, as the minimum delay for its retry
+		private long mRetryAfterMillis = 0;
+
+		public void run() {
+			try {
+				work();
+			} finally {
+				if (mRunningWorkers.decrementAndGet() == 0) {
+					onWorkersFinished();
+				}
+			}
+		}
+
+		private void work() {
+			int idle = 0;
+			while (!mStopped && !Thread.currentThread().isInterrupted()) {
+				// tiles whose retry delay has passed go ahead of new ones
+				long tile = mRetries.pollDue();
+				if (tile == TileQueue.EMPTY) {
+					tile = mQueue.poll();
+				}
+				if (tile == TileQueue.EMPTY) {
+					if (mInputFinished && mOutstanding.get() == 0) {
+						return;
+					}
+					idle = backOff(idle);
+					continue;
+				}
+				idle = 0;
+
+				final FetchFailure failure = download(tile);
+				if (failure == null) {
+					mRetries.onSuccess(tile);
+					mOutstanding.decrementAndGet();
+				} else {
+					final int attempts = mRetries.getAttempts(tile) + 1;
+					mStats.onError(failure);
+					if (mRetries.schedule(tile, failure, mRetryAfterMillis)) {
+						mStats.onRetried();
+					} else {
+						deadLetter(tile, failure, attempts);
+						mStats.onFailed();
+						mOutstanding.decrementAndGet();
+						notifyTileDone();
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return null if the tile was stored, otherwise the reason it could not be.
+		 */
+		private FetchFailure download(final long pKey) {
+			mRetryAfterMillis = 0;
+			final long ordinal = (mJournal != null) ? mJournalRange.indexOf(pKey) : -1;
+			boolean stored;
+			if (ordinal >= 0) {
+				// the journal only holds tiles that were completely written; anything else is fetched again
+				stored = mJournal.isComplete(ordinal);
+				// a new journal has no record of a cache filled before it existed; fall back to the sink once
+				if (!stored && mJournal.isNew() && mSink.contains(pKey)) {
+					mJournal.markComplete(ordinal);
+					stored = true;
+				}
+			} else {
+				// without a journal the sink says what is stored; setRefresh(true) fetches stored tiles again
+				stored = mSink.contains(pKey);
+			}
+			if (stored && !mRefresh) {
+				mStats.onSkipped();
+				notifyTileDone();
+				return null;
+			}
+			// a tile of the base package only goes into the delta if it changed
+			final boolean inBase = !stored && mBaseTiles != null && mBaseTiles.contains(pKey);
+
+			// a stored tile is only sent again if it changed since its validators were recorded
+			final long validatorOrdinal = (mValidators != null) ? mValidatorRange.indexOf(pKey) : -1;
+			String etag = null;
+			long lastModified = 0;
+			if (stored && validatorOrdinal >= 0) {
+				etag = mValidators.getETag(validatorOrdinal);
+				lastModified = mValidators.getLastModified(validatorOrdinal);
+			} else if (inBase) {
+				lastModified = mBaseModifiedSince;
+			}
+
+			// wait for a host with a free permit; a retried tile starts looking at a different host
+			final int attempt = mRetries.getAttempts(pKey);
+			final HostPool.Host host;
+			try {
+				host = mHosts.acquire(pKey, attempt);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return FetchFailure.NETWORK_ERROR;
+			}
+			final String finalURL = host.getURL(pKey);
+
+			// sleep through any pause the host asked for and until the request and byte rates allow another fetch
+			try {
+				host.awaitTurn();
+				final RateLimiter requests = mRequestRate;
+				if (requests != null) {
+					requests.acquire();
+				}
+				final RateLimiter bytes = mByteRate;
+				if (bytes != null) {
+					bytes.acquire(0);
+				}
+			} catch (final InterruptedException e) {
+				host.cancel();
+				Thread.currentThread().interrupt();
+				return FetchFailure.NETWORK_ERROR;
+			}
+
+			final TileResponse response;
+			final long start = System.nanoTime();
+			mStats.onFetchStarted();
+			try {
+				response = (etag != null || lastModified > 0) ? mHttpClient.fetch(finalURL, etag, lastModified)
+						: mHttpClient.fetch(finalURL);
+			} catch (final IOException e) {
+				mStats.onFetchFinished(System.nanoTime() - start, 0, 0, 0);
+				final FetchFailure failure = FetchFailure.fromException(e);
+				host.release(System.nanoTime() - start, failure);
+				Log.e(TAG, "Error downloading: '" + TileKey.toString(pKey) + "' from URL: " + finalURL + " : " + e);
+				return failure;
+			}
+			mStats.onFetchFinished(System.nanoTime() - start, response.connectNanos, response.firstByteNanos,
+					response.transferNanos);
+			chargeBytes(host, response);
+			if ((stored || inBase) && response.isNotModified()) {
+				host.release(System.nanoTime() - start, null);
+				mStats.onUnchanged();
+				notifyTileDone();
+				return null;
+			}
+			if (!response.isSuccessful()) {
+				final FetchFailure failure = FetchFailure.fromStatus(response.code);
+				host.release(System.nanoTime() - start, failure);
+				if (response.isTooManyRequests() || response.retryAfterMillis > 0) {
+					mRetryAfterMillis = (response.retryAfterMillis > 0) ? response.retryAfterMillis
+							: HostPool.DEFAULT_TOO_MANY_REQUESTS_PAUSE_MILLIS;
+					host.pause(mRetryAfterMillis);
+				}
+				Log.e(TAG, "Error downloading: '" + TileKey.toString(pKey) + "' from URL: " + finalURL
+						+ " : HTTP " + response.code);
+				return failure;
+			}
+			host.release(System.nanoTime() - start, null);
+			if (inBase && matchesBase(pKey, response.data)) {
+				mStats.onUnchanged();
+				notifyTileDone();
+				return null;
+			}
+
+			if (validatorOrdinal >= 0 && mJournalOnCommit) {
+				final TileResponse validators = new TileResponse();
+				validators.etag = response.etag;
+				validators.lastModified = response.lastModified;
+				mPendingValidators.put(pKey, validators);
+			}
+			final long writeStart = System.nanoTime();
+			try {
+				mSink.put(pKey, response.data);
+				mStats.onDiskWrite(System.nanoTime() - writeStart);
+			} catch (final SinkFailedException e) {
+				mPendingValidators.remove(pKey);
+				onSinkFailed(e);
+				return FetchFailure.SINK_FAILED;
+			} catch (final IOException e) {
+				mPendingValidators.remove(pKey);
+				Log.e(TAG, "Error storing: '" + TileKey.toString(pKey) + "' : " + e);
+				return FetchFailure.STORAGE_ERROR;
+			}
+			if (!mJournalOnCommit) {
+				if (validatorOrdinal >= 0) {
+					mValidators.put(validatorOrdinal, response.etag, response.lastModified);
+				}
+				if (ordinal >= 0) {
+					mJournal.markComplete(ordinal);
+				}
+			}
+			mStats.onDownloaded();
+			if (stored || inBase) {
+				mStats.onChanged();
+			}
+
+			notifyTileDone();
+			return null;
+		}
+
+		/**
+		 * @return whether the base package holds the tile with exactly this data; the reader is shared by the workers.
+		 */
+		private boolean matchesBase(final long pKey, final byte[] pData) {
+			final byte[] base;
+			try {
+				synchronized (mBase) {
+					base = mBase.getTile(pKey);
+				}
+			} catch (final IOException e) {
+				Log.e(TAG, "Error reading '" + TileKey.toString(pKey) + "' from delta base: " + e);
+				return false;
+			}
+			return Arrays.equals(base, pData);
+		}
+
+		private void chargeBytes(final HostPool.Host pHost, final TileResponse pResponse) {
+			final long length = (pResponse.data != null) ? pResponse.data.length : 0;
+			mStats.onBytes(length);
+			pHost.chargeBytes(length);
+			final RateLimiter bytes = mByteRate;
+			if (bytes != null) {
+				bytes.charge(length);
+			}
+		}
+
+		private void notifyTileDone() {
+			mProgress.add(1);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live metrics of one download job, kept up to date by its {@link DownloadManager} and readable from any thread while
+ * the job runs.
+ *
+ * Besides what became of the tiles, it times every fetch in phases, each in its own {@link LatencyHistogram}:
+ * connecting (which includes the DNS lookup, and is close to nothing when a kept-alive connection is reused), waiting
+ * for the first byte of the response, transferring the rest, and writing the tile to the sink. A slow job can thus
+ * be blamed on the network, the server, or the disk. Errors are counted by cause for every failed attempt, including
+ * those that were retried.
+ */
+public class DownloadStats {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final long mStartNanos = System.nanoTime();
+	private volatile long mEndNanos = 0;
+
+	// What became of the tiles
+	private final StripedCounter mDownloaded = new StripedCounter();
+	private final StripedCounter mSkipped = new StripedCounter();
+	private final StripedCounter mFailed = new StripedCounter();
+	private final StripedCounter mRetried = new StripedCounter();
+	private final StripedCounter mBytes = new StripedCounter();
+
+	// Stored tiles that a refresh found changed or unchanged
+	private final StripedCounter mChanged = new StripedCounter();
+	private final StripedCounter mUnchanged = new StripedCounter();
+
+	private final LatencyHistogram mConnect = new LatencyHistogram();
+	private final LatencyHistogram mFirstByte = new LatencyHistogram();
+	private final LatencyHistogram mTransfer = new LatencyHistogram();
+	private final LatencyHistogram mDiskWrite = new LatencyHistogram();
+	private final LatencyHistogram mFetch = new LatencyHistogram();
+
+	// Failed attempts, by FetchFailure ordinal
+	private final AtomicLongArray mErrors = new AtomicLongArray(FetchFailure.values().length);
+
+	private final AtomicInteger mInFlight = new AtomicInteger();
+
+	private final TileQueue mQueue;
+	private final RetryScheduler mRetries;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	DownloadStats(final TileQueue pQueue, final RetryScheduler pRetries) {
+		this.mQueue = pQueue;
+		this.mRetries = pRetries;
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the number of tiles fetched and stored, including stored tiles that a refresh found changed.
+	 */
+	public long getDownloadedCount() {
+		return this.mDownloaded.sum();
+	}
+
+	/**
+	 * @return the number of tiles that were already stored and not fetched again.
+	 */
+	public long getSkippedCount() {
+		return this.mSkipped.sum();
+	}
+
+	/**
+	 * @return the number of tiles that were given up on.
+	 */
+	public long getFailedCount() {
+		return this.mFailed.sum();
+	}
+
+	/**
+	 * @return the number of failed fetches that were scheduled to be tried again.
+	 */
+	public long getRetriedCount() {
+		return this.mRetried.sum();
+	}
+
+	public long getChangedCount() {
+		return this.mChanged.sum();
+	}
+
+	public long getUnchangedCount() {
+		return this.mUnchanged.sum();
+	}
+
+	/**
+	 * @return the number of tiles that are done with, one way or another: downloaded, found unchanged, skipped or
+	 *         given up on.
+	 */
+	public long getCompletedCount() {
+		return this.mDownloaded.sum() + this.mUnchanged.sum() + this.mSkipped.sum() + this.mFailed.sum();
+	}
+
+	/**
+	 * @return the number of bytes received in tile responses.
+	 */
+	public long getBytes() {
+		return this.mBytes.sum();
+	}
+
+	/**
+	 * @return the time since the job started, or how long it took if it has finished, in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		final long end = (this.mEndNanos != 0) ? this.mEndNanos : System.nanoTime();
+		return TimeUnit.NANOSECONDS.toMillis(end - this.mStartNanos);
+	}
+
+	/**
+	 * @return the average download rate since the job started.
+	 */
+	public double getBytesPerSecond() {
+		final long millis = getElapsedMillis();
+		return (millis > 0) ? getBytes() * 1000.0 / millis : 0;
+	}
+
+	/**
+	 * @return the average rate at which tiles were downloaded since the job started.
+	 */
+	public double getTilesPerSecond() {
+		final long millis = getElapsedMillis();
+		return (millis > 0) ? getDownloadedCount() * 1000.0 / millis : 0;
+	}
+
+	/**
+	 * @return the number of fetches in progress.
+	 */
+	public int getInFlight() {
+		return this.mInFlight.get();
+	}
+
+	/**
+	 * @return the number of tiles waiting for a worker, including those waiting to be retried.
+	 */
+	public int getQueueDepth() {
+		return this.mQueue.size() + this.mRetries.size();
+	}
+
+	/**
+	 * @return time from starting a fetch until connected.
+	 */
+	public LatencyHistogram getConnectLatency() {
+		return this.mConnect;
+	}
+
+	/**
+	 * @return time from connected until the first byte of the response.
+	 */
+	public LatencyHistogram getFirstByteLatency() {
+		return this.mFirstByte;
+	}
+
+	/**
+	 * @return time from the first to the last byte of the response.
+	 */
+	public LatencyHistogram getTransferLatency() {
+		return this.mTransfer;
+	}
+
+	/**
+	 * @return time to hand a tile to the sink.
+	 */
+	public LatencyHistogram getDiskWriteLatency() {
+		return this.mDiskWrite;
+	}
+
+	/**
+	 * @return time of whole fetches, from the request until the response has been read.
+	 */
+	public LatencyHistogram getFetchLatency() {
+		return this.mFetch;
+	}
+
+	/**
+	 * @param pFailure
+	 * @return the number of attempts that failed for the given reason.
+	 */
+	public long getErrorCount(final FetchFailure pFailure) {
+		return this.mErrors.get(pFailure.ordinal());
+	}
+
+	/**
+	 * @return the number of failed attempts by reason, leaving out reasons that never occurred.
+	 */
+	public Map<FetchFailure, Long> getErrors() {
+		final Map<FetchFailure, Long> errors = new EnumMap<FetchFailure, Long>(FetchFailure.class);
+		for (final FetchFailure failure : FetchFailure.values()) {
+			final long count = this.mErrors.get(failure.ordinal());
+			if (count > 0) {
+				errors.put(failure, count);
+			}
+		}
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return "downloaded=" + getDownloadedCount() + " skipped=" + getSkippedCount() + " failed=" + getFailedCount()
+				+ " retried=" + getRetriedCount() + " bytes=" + getBytes()
+				+ String.format(" rate=%.0fB/s %.1ftiles/s", getBytesPerSecond(), getTilesPerSecond())
+				+ " inFlight=" + getInFlight() + " queued=" + getQueueDepth() + " errors=" + getErrors()
+				+ "\n  connect: " + this.mConnect + "\n  firstByte: " + this.mFirstByte + "\n  transfer: "
+				+ this.mTransfer + "\n  diskWrite: " + this.mDiskWrite + "\n  fetch: " + this.mFetch;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	void onDownloaded() {
+		this.mDownloaded.increment();
+	}
+
+	void onSkipped() {
+		this.mSkipped.increment();
+	}
+
+	void onFailed() {
+		this.mFailed.increment();
+	}
+
+	/**
+	 * A downloaded tile could not be stored after all.
+	 */
+	void onCommitFailed() {
+		this.mDownloaded.add(-1);
+		this.mFailed.increment();
+	}
+
+	void onRetried() {
+		this.mRetried.increment();
+	}
+
+	void onChanged() {
+		this.mChanged.increment();
+	}
+
+	void onUnchanged() {
+		this.mUnchanged.increment();
+	}
+
+	void onBytes(final long pBytes) {
+		this.mBytes.add(pBytes);
+	}
+
+	void onError(final FetchFailure pFailure) {
+		this.mErrors.incrementAndGet(pFailure.ordinal());
+	}
+
+	void onFetchStarted() {
+		this.mInFlight.incrementAndGet();
+	}
+
+	/**
+	 * @param pFetchNanos time of the whole fetch
+	 * @param pConnectNanos the phases as measured by the HTTP client; 0 for phases it did not measure
+	 * @param pFirstByteNanos
+	 * @param pTransferNanos
+	 */
+	void onFetchFinished(final long pFetchNanos, final long pConnectNanos, final long pFirstByteNanos,
+			final long pTransferNanos) {
+		this.mInFlight.decrementAndGet();
+		this.mFetch.record(pFetchNanos);
+		if (pConnectNanos > 0) {
+			this.mConnect.record(pConnectNanos);
+		}
+		if (pFirstByteNanos > 0) {
+			this.mFirstByte.record(pFirstByteNanos);
+		}
+		if (pTransferNanos > 0) {
+			this.mTransfer.record(pTransferNanos);
+		}
+	}
+
+	void onDiskWrite(final long pNanos) {
+		this.mDiskWrite.record(pNanos);
+	}
+
+	void onFinished() {
+		if (this.mEndNanos == 0) {
+			this.mEndNanos = System.nanoTime();
+		}
+	}
+}
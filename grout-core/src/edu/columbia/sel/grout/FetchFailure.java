@@ -0,0 +1,57 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Why a single tile could not be fetched, and whether trying again can help.
+ */
+public enum FetchFailure {
+	/** The server answered 4xx: the tile does not exist or we are not allowed to have it. */
+	CLIENT_ERROR(false),
+	/** The server answered 5xx, or asked us to slow down. */
+	SERVER_ERROR(true),
+	/** Connecting or reading timed out. */
+	TIMEOUT(true),
+	/** Any other network failure: DNS, refused or reset connections, truncated responses. */
+	NETWORK_ERROR(true),
+	/** The tile was fetched but could not be stored. */
+	STORAGE_ERROR(true),
+	/** The sink failed for good and takes no more tiles; the download stops. */
+	SINK_FAILED(false);
+
+	private final boolean mRetryable;
+
+	private FetchFailure(final boolean pRetryable) {
+		this.mRetryable = pRetryable;
+	}
+
+	public boolean isRetryable() {
+		return mRetryable;
+	}
+
+	/**
+	 * @param pCode HTTP status code of an unsuccessful response
+	 * @return FetchFailure
+	 */
+	public static FetchFailure fromStatus(final int pCode) {
+		if (pCode == 408) {
+			return TIMEOUT;
+		}
+		if (pCode == 429 || pCode >= 500) {
+			return SERVER_ERROR;
+		}
+		return CLIENT_ERROR;
+	}
+
+	public static FetchFailure fromException(final IOException pException) {
+		return (pException instanceof SocketTimeoutException) ? TIMEOUT : NETWORK_ERROR;
+	}
+}
@@ -0,0 +1,1086 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.columbia.sel.grout.event.CoalescingProgressDispatcher;
+import edu.columbia.sel.grout.event.EventDispatcher;
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+import edu.columbia.sel.grout.event.FetchingErrorEvent;
+import edu.columbia.sel.grout.event.FetchingProgressEvent;
+import edu.columbia.sel.grout.event.FetchingStartEvent;
+import edu.columbia.sel.grout.http.TileHttpClient;
+import edu.columbia.sel.grout.http.UrlConnectionTileClient;
+import edu.columbia.sel.grout.region.Region;
+import edu.columbia.sel.grout.sink.AsyncTileSink;
+import edu.columbia.sel.grout.sink.DirectoryTileSink;
+import edu.columbia.sel.grout.sink.GemfTileSink;
+import edu.columbia.sel.grout.sink.MBTilesTileSink;
+import edu.columbia.sel.grout.sink.SqliteTileSink;
+import edu.columbia.sel.grout.sink.TileSink;
+import edu.columbia.sel.grout.sink.ZipTileSink;
+import edu.columbia.sel.grout.util.CacheInventory;
+import edu.columbia.sel.grout.util.DbCreator;
+import edu.columbia.sel.grout.util.DeleterListener;
+import edu.columbia.sel.grout.util.FolderDeleter;
+import edu.columbia.sel.grout.util.FolderZipper;
+import edu.columbia.sel.grout.util.GemfWriter;
+import edu.columbia.sel.grout.util.PackageMerger;
+import edu.columbia.sel.grout.util.TileCacheVerifier;
+import edu.columbia.sel.grout.util.TilePackageReader;
+import edu.columbia.sel.grout.util.Log;
+
+public class Grout implements TileFetchingListener {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+	private final String TAG = this.getClass().getCanonicalName();
+	
+	// Upper bound on concurrent fetches; the DownloadManager adapts the working value to the server's responses
+	private static final int DEFAULT_THREADCOUNT = 32;
+	
+	// By default we use the mapquest tile server (http://developer.mapquest.com/web/products/open/map)
+	// TODO: this tile server serves JPGs regardless of the .png extension... it works fine unless we try
+	// to archive the resulting files (known bug in osmdroid: https://github.com/osmdroid/osmdroid/issues/18)
+	private static final String DEFAULT_SERVER_URL = "http://otile{s}.mqcdn.com/tiles/1.0.0/map/";
+	private static final String[] DEFAULT_SERVER_SUBDOMAINS = { "1", "2", "3", "4" };
+	
+	// Subdomains substituted for {s} in a server URL, unless others are set
+	private static final String[] DEFAULT_SUBDOMAINS = { "a", "b", "c" };
+	
+	// Root directory to save files, unless another is set; on Android, AndroidGrout uses external storage instead
+	private static final String DEFAULT_ROOT_DIR = System.getProperty("user.home") + File.separator + "osmdroid";
+	
+	// Default maximum tiles
+	private static final int DEFAULT_MAX_TILES = 50000;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+	
+	private String mServerURL = null;
+	private List<String> mServerURLs = null;
+	private String[] mSubdomains = DEFAULT_SUBDOMAINS;
+	private String mRootDownloadDir = DEFAULT_ROOT_DIR;
+	private String mDestinationFile = null;
+	private String mTempFolder = "tiles" + File.separator + "OfflineTiles";
+	private String mFileAppendix = ".tile";
+	private Double mNorth = null;
+	private Double mSouth = null;
+	private Double mEast = null;
+	private Double mWest = null;
+	private Region mRegion = null;
+	private TileSet mTiles = null;
+	private String mDeltaBase = null;
+	private Integer mMaxZoom = 16;
+	private int mMinZoom = 8;
+	private int mThreadCount = DEFAULT_THREADCOUNT;
+	private int mMaxTiles = DEFAULT_MAX_TILES;
+	private boolean mRefresh = false;
+	private double mRequestsPerSecond = 0;
+	private long mBytesPerSecond = 0;
+	private double mHostRequestsPerSecond = 0;
+	private long mHostBytesPerSecond = 0;
+	private double mDeleteFilesPerSecond = 0;
+	private long mDeleteBytesPerSecond = 0;
+	private TileRange mTileRange;
+	private TilePackageReader mDeltaBaseReader;
+	private TileSet mDeltaBaseTiles;
+	private int mTotalExpected;
+	
+	private boolean mIsRunning = false;
+
+	// Whether the running download stores its tiles in the temp folder, which is then counted once it completes
+	private boolean mFetchingToTempFolder = false;
+	
+	private TileHttpClient mHttpClient;
+	private EventDispatcher mEventDispatcher;
+	private long mProgressIntervalMillis = CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS;
+	private TileFetchingListener mListener;
+	private DeleterListener mDeleterListener;
+	
+	private DownloadManager dm;
+	private FolderDeleter fd;
+	private CacheInventory mCacheInventory;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public Grout() {
+		Log.i(TAG, "++++++++++++ Creating Tile Packager");
+		this.setDefaultServer();
+	}
+
+	public Grout(Double north, Double south, Double east, Double west) {
+		this.mNorth = north;
+		this.mSouth = south;
+		this.mEast = east;
+		this.mWest = west;
+		this.setDefaultServer();
+	}
+
+	
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+	
+	public TileFetchingListener getTileFetchingListener() {
+		return mListener;
+	}
+
+	public void setTileFetchingListener(TileFetchingListener mListener) {
+		this.mListener = mListener;
+	}
+
+	/**
+	 * Set the thread the TileFetchingListener and DeleterListener are called on. By default it is a background thread;
+	 * AndroidGrout uses the main thread.
+	 * 
+	 * @param pDispatcher
+	 */
+	public void setEventDispatcher(EventDispatcher pDispatcher) {
+		this.mEventDispatcher = pDispatcher;
+	}
+
+	public EventDispatcher getEventDispatcher() {
+		if (this.mEventDispatcher == null) {
+			this.mEventDispatcher = new ExecutorEventDispatcher();
+		}
+		return this.mEventDispatcher;
+	}
+
+	/**
+	 * Set the minimum time between two progress events; tiles finished in between are reported together.
+	 * 
+	 * @param pMillis default is 100, i.e. at most 10 events per second
+	 */
+	public void setProgressInterval(long pMillis) {
+		this.mProgressIntervalMillis = pMillis;
+	}
+	
+	public DeleterListener getDeleterListener() {
+		return mDeleterListener;
+	}
+
+	public void setDeleterListener(DeleterListener deleterListener) {
+		this.mDeleterListener = deleterListener;
+	}
+
+	public TileHttpClient getHttpClient() {
+		return mHttpClient;
+	}
+
+	/**
+	 * Use a specific HTTP client for tile fetches. By default a {@link UrlConnectionTileClient} is used that allows
+	 * as many connections per host as the platform keeps alive (http.maxConnections, default 5), so that no
+	 * connection is closed after one tile; the other download threads wait for a free connection.
+	 * @param httpClient
+	 */
+	public void setHttpClient(TileHttpClient httpClient) {
+		this.mHttpClient = httpClient;
+	}
+
+	public void setBoundingBox(Double north, Double south, Double east, Double west) {
+		this.mNorth = north;
+		this.mSouth = south;
+		this.mEast = east;
+		this.mWest = west;
+	}
+
+	public Region getRegion() {
+		return this.mRegion;
+	}
+
+	/**
+	 * Download only the tiles that a region touches, such as a polygon or a corridor along a road, instead of the
+	 * whole bounding box. Set null to go back to the bounding box.
+	 * @param region
+	 */
+	public void setRegion(Region region) {
+		this.mRegion = region;
+	}
+
+	public TileSet getTiles() {
+		return this.mTiles;
+	}
+
+	/**
+	 * Download exactly these tiles, instead of those of the region or bounding box. Set operations make this the
+	 * place for selections such as a region's tiles minus those already cached:
+	 * <pre>
+	 * TileSet.of(TileRange.fromRegion(region, 8, 16)).difference(grout.getCachedTiles())
+	 * </pre>
+	 * Set null to go back to the region or bounding box.
+	 * @param tiles
+	 */
+	public void setTiles(TileSet tiles) {
+		this.mTiles = tiles;
+	}
+
+	/**
+	 * @return the first server URL template; it may contain a {s} subdomain placeholder.
+	 */
+	public String getServerURL() {
+		return this.mServerURL;
+	}
+
+	/**
+	 * Attempts to ensure proper format. The URL may contain a {s} placeholder, which is replaced by each of the
+	 * subdomains in turn to spread the download across the server's mirrors.
+	 * @param serverURL
+	 */
+	public void setServerURL(String serverURL) {
+		this.setServerURLs(Collections.singletonList(serverURL));
+	}
+
+	/**
+	 * Download from several mirrors of the same tile server, spreading tiles across them.
+	 * @param serverURLs
+	 */
+	public void setServerURLs(List<String> serverURLs) {
+		final List<String> templates = new ArrayList<String>(serverURLs.size());
+		for (String serverURL : serverURLs) {
+			templates.add(toServerTemplate(serverURL));
+		}
+		this.mServerURLs = templates;
+		this.mServerURL = templates.get(0);
+		this.mSubdomains = DEFAULT_SUBDOMAINS;
+	}
+
+	/**
+	 * @return one URL template per host, with any {s} placeholder expanded.
+	 */
+	public List<String> getServerURLs() {
+		final List<String> urls = new ArrayList<String>();
+		for (String template : this.mServerURLs) {
+			if (template.contains("{s}")) {
+				for (String subdomain : this.mSubdomains) {
+					urls.add(template.replace("{s}", subdomain));
+				}
+			} else {
+				urls.add(template);
+			}
+		}
+		return urls;
+	}
+
+	public String[] getSubdomains() {
+		return mSubdomains;
+	}
+
+	/**
+	 * Setting the server URL resets the subdomains to "a", "b", "c", so set them afterwards.
+	 * @param subdomains values substituted for {s} in the server URL, e.g. "1", "2", "3", "4"
+	 */
+	public void setSubdomains(String... subdomains) {
+		this.mSubdomains = subdomains;
+	}
+
+	public String getDestinationFile() {
+		return mDestinationFile;
+	}
+
+	public void setDestinationFile(String destinationFile) {
+		this.mDestinationFile = destinationFile;
+	}
+
+	public String getDeltaBase() {
+		return mDeltaBase;
+	}
+
+	/**
+	 * Build a delta package against an existing one instead of a full package: the destination file only receives
+	 * the tiles the base package is missing, and those the server now serves differently (asked for with
+	 * If-Modified-Since, and compared with the base's bytes). Devices holding the base package apply the delta with
+	 * {@link #mergeDelta(String, String)}.
+	 * Both files are relative to the root download dir and must be of the same format. Set null for a full package.
+	 * @param deltaBase
+	 */
+	public void setDeltaBase(String deltaBase) {
+		this.mDeltaBase = deltaBase;
+	}
+
+	public String getTempFolder() {
+		return mTempFolder;
+	}
+
+	public void setTempFolder(String tempFolder) {
+		this.mTempFolder = tempFolder;
+	}
+
+	public String getRootDownloadDir() {
+		return mRootDownloadDir;
+	}
+
+	public void setRootDownloadDir(String mRootDownloadDir) {
+		this.mRootDownloadDir = mRootDownloadDir;
+	}
+
+	public String getFileAppendix() {
+		return mFileAppendix;
+	}
+
+	public void setFileAppendix(String fileAppendix) {
+		this.mFileAppendix = fileAppendix;
+	}
+
+	public Double getNorth() {
+		return mNorth;
+	}
+
+	public void setNorth(Double north) {
+		this.mNorth = north;
+	}
+
+	public Double getSouth() {
+		return mSouth;
+	}
+
+	public void setSouth(Double south) {
+		this.mSouth = south;
+	}
+
+	public Double getEast() {
+		return mEast;
+	}
+
+	public void setEast(Double east) {
+		this.mEast = east;
+	}
+
+	public Double getWest() {
+		return mWest;
+	}
+
+	public void setWest(Double west) {
+		this.mWest = west;
+	}
+
+	public Integer getMaxzoom() {
+		return mMaxZoom;
+	}
+
+	public void setMaxzoom(Integer maxzoom) {
+		this.mMaxZoom = maxzoom;
+	}
+
+	public int getMinzoom() {
+		return mMinZoom;
+	}
+
+	public void setMinzoom(int minzoom) {
+		this.mMinZoom = minzoom;
+	}
+
+	/**
+	 * @return the limiter adapting the number of concurrent fetches from the first host of the current download, or
+	 *         null if no download has been started.
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return (dm != null) ? dm.getConcurrencyLimiter() : null;
+	}
+
+	/**
+	 * @return the hosts of the current download, with their limits and health, or null if no download has been
+	 *         started.
+	 */
+	public HostPool getHostPool() {
+		return (dm != null) ? dm.getHostPool() : null;
+	}
+
+	/**
+	 * @return the tiles the current download has given up on, or an empty list if no download has been started.
+	 */
+	public List<FetchingErrorEvent> getFailedTiles() {
+		return (dm != null) ? dm.getDeadLetters() : new ArrayList<FetchingErrorEvent>();
+	}
+
+	/**
+	 * @return live metrics of the current download: latency by phase, throughput and errors by cause; null if no
+	 *         download has been started.
+	 */
+	public DownloadStats getDownloadStats() {
+		return (dm != null) ? dm.getStats() : null;
+	}
+
+	public boolean isRefresh() {
+		return mRefresh;
+	}
+
+	/**
+	 * When refreshing, tiles that are already cached are checked with the server, which only sends the ones that have
+	 * changed since they were downloaded. Only applies to downloads into the temp folder.
+	 * @param refresh
+	 */
+	public void setRefresh(boolean refresh) {
+		this.mRefresh = refresh;
+	}
+
+	/**
+	 * Limit the whole download to a request and byte rate, for tile providers with usage policies. 429 responses
+	 * and Retry-After headers are honored regardless.
+	 * @param requestsPerSecond 0 for no limit
+	 * @param bytesPerSecond 0 for no limit
+	 */
+	public void setRateLimit(double requestsPerSecond, long bytesPerSecond) {
+		this.mRequestsPerSecond = requestsPerSecond;
+		this.mBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Limit each server host to a request and byte rate.
+	 * @param requestsPerSecond 0 for no limit
+	 * @param bytesPerSecond 0 for no limit
+	 */
+	public void setHostRateLimit(double requestsPerSecond, long bytesPerSecond) {
+		this.mHostRequestsPerSecond = requestsPerSecond;
+		this.mHostBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Limit how fast clearOfflineTiles() deletes the cached tiles, so the disk stays responsive meanwhile.
+	 * @param filesPerSecond 0 for no limit
+	 * @param bytesPerSecond 0 for no limit
+	 */
+	public void setDeleteRateLimit(double filesPerSecond, long bytesPerSecond) {
+		this.mDeleteFilesPerSecond = filesPerSecond;
+		this.mDeleteBytesPerSecond = bytesPerSecond;
+	}
+
+	public int getThreadCount() {
+		return mThreadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.mThreadCount = threadCount;
+	}
+	
+	/**
+	 * Combines root dir and temp folder
+	 * @return
+	 */
+	public String getFullTempPath() {
+		return this.mRootDownloadDir + File.separator + this.mTempFolder;
+	}
+	
+	/**
+	 * Combines root dir and destination file
+	 * @return
+	 */
+	public String getFullDestinationFilePath() {
+		return this.mRootDownloadDir + File.separator + this.mDestinationFile;
+	}
+
+	/**
+	 * Combines root dir and delta base
+	 * @return
+	 */
+	public String getFullDeltaBasePath() {
+		return this.mRootDownloadDir + File.separator + this.mDeltaBase;
+	}
+	
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Kick off the process of downloading tiles.
+	 */
+	public void run() {
+		// perform validity checks before attempting to download tiles
+		if (!isValidForDownload()) {
+			Log.e(TAG, "Select is invalid for download.");
+			return;
+		}
+
+		// build full paths using the specified root
+		String fullTempPath = getFullTempPath();
+
+//		// remove previously cached files
+//		// TODO: Make this an option, to delete tiles as part of fresh download?
+//		Log.i(TAG, "----------------------- DELETING TILES in " + fullTempPath);
+//		clearOfflineTiles();
+
+		// a delta is compared against the tiles of its base package, which must be read before anything is written
+		if (mDeltaBase != null && !readDeltaBase()) {
+			this.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.PACKAGING_FAILED));
+			return;
+		}
+
+		// if a destination file is specified, tiles are written straight into it; otherwise into the temp folder
+		final TileSink sink;
+		try {
+			sink = createTileSink(fullTempPath, getTilePathTemplate(mServerURL, mFileAppendix));
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not create " + getFullDestinationFilePath() + ": " + e);
+			closeDeltaBase();
+			this.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.PACKAGING_FAILED));
+			return;
+		}
+
+		// download tiles for selected region
+		Log.i(TAG, "----------------------- DOWNLOADING TILES in " + this.mTempFolder);
+		downloadTiles(getServerURLs(), sink, mThreadCount, mTileRange);
+	}
+	
+	/**
+	 * Cancel the current download.
+	 */
+	public void cancel() {
+		if (mIsRunning) {
+			mIsRunning = false;
+			dm.cancel();
+		}
+	}
+
+	/**
+	 * Check if the specified area is suitable for download, emitting error events. 
+	 * TODO: determine some maximum values for number of tiles.
+	 * 
+	 * @return
+	 */
+	public Boolean isValidForDownload() {
+
+		// check bounds
+		if (mTiles == null && mRegion == null && (mNorth == null || mSouth == null || mEast == null || mWest == null)) {
+			this.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.INVALID_REGION));
+			return false;
+		}
+		
+		// check if a download is already running
+		if (mIsRunning) {
+			Log.e(TAG, "Tile Packager is already running.");
+			this.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.ALREADY_RUNNING));
+			return false;
+		}
+	
+		// check if the region is within the maximum limit
+		if (!isWithinMaxRegionSize()) {
+			this.onFetchingError(new FetchingErrorEvent(FetchingErrorEvent.MAX_REGION_SIZE_EXCEEDED));
+			return false;
+		}
+		
+		return true;
+	}
+
+	/**
+	 * Check if the specified area contains fewer tiles than the specified max.
+	 * TODO: determine some reasonable maximum values for number of tiles.
+	 * 
+	 * @return
+	 */
+	public Boolean isWithinMaxRegionSize() {
+		// check that expected num tiles < max
+		if (mTiles != null) {
+			mTileRange = mTiles.toTileRange();
+		} else if (mRegion != null) {
+			mTileRange = TileRange.fromRegion(mRegion, mMinZoom, mMaxZoom);
+		} else {
+			mTileRange = TileRange.fromBoundingBox(mNorth, mSouth, mEast, mWest, mMinZoom, mMaxZoom);
+		}
+		final long expected = this.getExpectedFileCount(mTileRange);
+		if (expected > mMaxTiles) {
+			return false;
+		}
+		mTotalExpected = (int) expected;
+		
+		return true;
+	}
+	
+	/**
+	 * Check that the number of tiles downloaded matches the expected.
+	 * TODO: This method currently serves no practical purpose aside from debugging.
+	 */
+	private void checkFileExistence() {
+		String fullTempPath = getFullTempPath();
+	
+		// count files in the temp folder
+		Log.i(TAG, "-------------> Counting existing files ...");
+		int actualFileCount = countCachedTiles();
+		if (mTotalExpected == actualFileCount) {
+			Log.i(TAG, "-------------> SUCCESS! Total (" + actualFileCount + ") == Expected (" + mTotalExpected + ").");
+		} else {
+			Log.i(TAG, "-------------> FAIL! Total (" + actualFileCount + ") != Expected (" + mTotalExpected + ").");
+		}
+	}
+
+	/**
+	 * Generate a GEMF file from the downloaded tiles.
+	 * @param pTempFolder
+	 * @param pDestinationFile
+	 */
+	private void createGemfFile(final String pTempFolder, final String pDestinationFile) {
+		try {
+			Log.i(TAG, "Creating GEMF archive from " + mTempFolder + " to " + mDestinationFile + " ...");
+			GemfWriter.writeFolder(new File(pDestinationFile), new File(pTempFolder));
+			Log.i(TAG, " done.");
+		} catch (final Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Generate a Zip archive from the downloaded tiles.
+	 * @param pTempFolder
+	 * @param pDestinationFile
+	 */
+	private void createZipFile(final String pTempFolder, final String pDestinationFile) {
+		try {
+			Log.i(TAG, "Zipping files to " + pDestinationFile + " ...");
+			FolderZipper.zipFolderToFile(new File(pDestinationFile), new File(pTempFolder));
+			Log.i(TAG, " done.");
+		} catch (final Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Generate a SQLite store for the downloaded tiles
+	 * TODO: This needs to be tested.
+	 * @param pTempFolder
+	 * @param pDestinationFile
+	 */
+	private void createDb(final String pTempFolder, final String pDestinationFile) {
+		try {
+			Log.i(TAG, "Putting files into db : " + pDestinationFile + " ...");
+			DbCreator.putFolderToDb(new File(pDestinationFile), new File(pTempFolder));
+			Log.i(TAG, " done.");
+		} catch (final Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Deletes all cached tiles.
+	 */
+	public void clearOfflineTiles() {
+		String fullTempPath = getFullTempPath();
+		Log.i(TAG, "-------------> CLEARING OFFLINE TILES in " + fullTempPath);
+		// the journal would otherwise claim the deleted tiles are still there
+		getJournalFile().delete();
+		getValidatorFile().delete();
+		getManifestFile().delete();
+		fd = new FolderDeleter(new File(fullTempPath), this.mDeleterListener, getEventDispatcher());
+		fd.setRateLimit(mDeleteFilesPerSecond, mDeleteBytesPerSecond);
+		fd.start();
+	}
+
+	/**
+	 * Stop deleting the cached tiles. The temp folder has already been cleared for new downloads; the tiles that
+	 * were not deleted yet are picked up by the next clearOfflineTiles().
+	 */
+	public void cancelClearOfflineTiles() {
+		if (fd != null) {
+			fd.cancel();
+		}
+	}
+	
+	/**
+	 * Returns the number of cached tiles currently downloaded.
+	 * @return int
+	 */
+	public int countCachedTiles() {
+		Log.i(TAG, "-------------> Counting tiles in " + getFullTempPath());
+		return (int) getCacheInventory().getTileCount();
+	}
+
+	/**
+	 * Returns the set of cached tiles currently downloaded.
+	 * @return TileSet
+	 */
+	public TileSet getCachedTiles() {
+		return getCacheInventory().getTiles();
+	}
+
+	/**
+	 * Returns the up to date inventory of the cached tiles: their number, size and coverage by zoom level. Only the
+	 * folders that changed since the last call are listed again; the rest is kept in a manifest next to the temp
+	 * folder.
+	 * @return CacheInventory
+	 */
+	public synchronized CacheInventory getCacheInventory() {
+		final File folder = new File(getFullTempPath());
+		if (mCacheInventory == null || !mCacheInventory.getFolder().equals(folder)) {
+			mCacheInventory = new CacheInventory(folder, getManifestFile());
+		}
+		mCacheInventory.refresh();
+		return mCacheInventory;
+	}
+
+	private File getManifestFile() {
+		return new File(getFullTempPath() + ".manifest");
+	}
+	
+	/**
+	 * Checks the cached tiles for files that were not completely written, such as those left behind by a crash.
+	 * 
+	 * @param remove delete the torn files, so that the next download fetches them again
+	 * @return TileCacheVerifier.Result, or null if a download is running.
+	 */
+	public TileCacheVerifier.Result verifyCachedTiles(boolean remove) {
+		if (mIsRunning) {
+			Log.e(TAG, "Cannot verify cached tiles while downloading.");
+			return null;
+		}
+		String fullTempPath = getFullTempPath();
+		Log.i(TAG, "-------------> Verifying tiles in " + fullTempPath);
+		final TileCacheVerifier.Result result = TileCacheVerifier.verify(new File(fullTempPath), remove);
+		Log.i(TAG, "-------------> " + result.torn.size() + " of " + result.scanned + " files torn.");
+		if (result.removed > 0) {
+			// a fresh journal is seeded from the tiles that are left
+			getJournalFile().delete();
+		}
+		return result;
+	}
+	
+	/**
+	 * Public method for creating a Zip file from the cached tiles.
+	 */
+	public void createZipFile() {
+		Log.i(TAG, "-------------> Creating Zip");
+		this.createZipFile(getFullTempPath(), getFullDestinationFilePath());
+	}
+	
+	/**
+	 * Public method for creating a GEMF file from the cached tiles.
+	 */
+	public void createGemfFile() {
+		Log.i(TAG, "-------------> Creating GEMF");
+		this.createGemfFile(getFullTempPath(), getFullDestinationFilePath());
+	}
+	
+	/**
+	 * Public method for creating a SQLite store from the cached tiles.
+	 */
+	public void createDb() {
+		Log.i(TAG, "-------------> Creating DB");
+		this.createDb(getFullTempPath(), getFullDestinationFilePath());
+	}
+
+	/**
+	 * Apply a delta package to the package it was built against, writing the merged package to the destination file.
+	 * All three files are relative to the root download dir.
+	 * 
+	 * @param base
+	 * @param delta
+	 * @return the number of tiles in the merged package.
+	 * @throws IOException
+	 */
+	public long mergeDelta(String base, String delta) throws IOException {
+		Log.i(TAG, "-------------> Merging " + delta + " into " + base);
+		return PackageMerger.merge(new File(this.mRootDownloadDir, base), new File(this.mRootDownloadDir, delta),
+				new File(getFullDestinationFilePath()));
+	}
+
+	private void setDefaultServer() {
+		this.setServerURL(DEFAULT_SERVER_URL);
+		this.setSubdomains(DEFAULT_SERVER_SUBDOMAINS);
+	}
+
+	/**
+	 * Attempts to ensure proper format: appends the tile location to a bare server URL.
+	 * 
+	 * @param serverURL
+	 * @return String
+	 */
+	private static String toServerTemplate(String serverURL) {
+		if (serverURL.contains("%d/%d/%d")) {
+			// supplied serverURL appears to contain the tile formatting
+			return serverURL;
+		} else if (!serverURL.endsWith("/")) {
+			// the supplied URL doesn't have a trailing slash, add it before appending the tile location.
+			serverURL = serverURL + "/";
+		} 
+		// Append formattable tile location on URL
+		return serverURL + "%d/%d/%d.png";
+	}
+
+	/**
+	 * Builds the path of a tile relative to the tile folder, with zoom, x and y placeholders, e.g. "/%d/%d/%d.png.tile".
+	 * 
+	 * @param pBaseURL
+	 * @param pFileAppendix
+	 * @return String
+	 */
+	private String getTilePathTemplate(final String pBaseURL, final String pFileAppendix) {
+		return File.separator + "%d" + File.separator + "%d" + File.separator + "%d"
+				+ pBaseURL.substring(pBaseURL.lastIndexOf('.'))
+				+ pFileAppendix.replace(File.separator + File.separator, File.separator);
+	}
+
+	/**
+	 * Picks where downloaded tiles go, based on the destination file's extension: a zip, GEMF, MBTiles or SQLite
+	 * archive written as the tiles arrive, or the temp folder if there is no destination file.
+	 * 
+	 * @param pTempFolder
+	 * @param pTileTemplate
+	 * @return TileSink
+	 * @throws IOException
+	 */
+	private TileSink createTileSink(final String pTempFolder, final String pTileTemplate) throws IOException {
+		if (mDestinationFile == null) {
+			return new DirectoryTileSink(pTempFolder + pTileTemplate);
+		}
+		
+		final File destination = new File(getFullDestinationFilePath());
+		final String provider = new File(pTempFolder).getName();
+		if (mDestinationFile.endsWith(".zip")) {
+			// entries are named the way FolderZipper names the files of the temp folder
+			return new AsyncTileSink(new ZipTileSink(destination, File.separator + provider + pTileTemplate));
+		} else if (mDestinationFile.endsWith(".gemf")) {
+			return new AsyncTileSink(new GemfTileSink(destination, provider, mTileRange));
+		} else if (mDestinationFile.endsWith(".mbtiles")) {
+			final MBTilesTileSink sink = new MBTilesTileSink(destination);
+			sink.setMetadata("name", provider);
+			sink.setMetadata("type", "baselayer");
+			sink.setMetadata("version", "1.0");
+			sink.setMetadata("description", "Tiles from " + mServerURL);
+			if (mNorth != null && mSouth != null && mEast != null && mWest != null) {
+				sink.setMetadata("bounds", mWest + "," + mSouth + "," + mEast + "," + mNorth);
+			}
+			sink.setMetadata("minzoom", String.valueOf(mMinZoom));
+			sink.setMetadata("maxzoom", String.valueOf(mMaxZoom));
+			return new AsyncTileSink(sink);
+		} else {
+			return new AsyncTileSink(new SqliteTileSink(destination, provider));
+		}
+	}
+
+	/**
+	 * Kicks off the actual download of the tiles for the selected region.
+	 * 
+	 * @param pBaseURLs
+	 * @param pSink
+	 * @param pThreadCount
+	 * @param pRange
+	 */
+	private void downloadTiles(final List<String> pBaseURLs, final TileSink pSink, final int pThreadCount,
+			final TileRange pRange) {
+		
+		// Trigger start event
+		this.onFetchingStart(new FetchingStartEvent(this.mTotalExpected));
+
+		this.mFetchingToTempFolder = (mDestinationFile == null);
+
+		// TODO: Possible memory leak. The download manager probably shouldn't get reinstantiated each time. 
+		final TileHttpClient client = (mHttpClient != null) ? mHttpClient : new UrlConnectionTileClient(
+				Math.min(pThreadCount, UrlConnectionTileClient.getPlatformKeepAliveLimit()));
+		dm = new DownloadManager(this, pBaseURLs, pSink, pThreadCount, client, getEventDispatcher(),
+				mProgressIntervalMillis);
+		dm.setRateLimit(mRequestsPerSecond, mBytesPerSecond);
+		dm.setHostRateLimit(mHostRequestsPerSecond, mHostBytesPerSecond);
+
+		// Tiles in the temp folder survive an interrupted download, so resume from the journal of stored tiles
+		if (mDestinationFile == null) {
+			final TileJournal journal = openJournal(pRange);
+			if (journal != null) {
+				dm.setJournal(journal, pRange);
+			}
+			final ValidatorIndex validators = openValidatorIndex(pRange);
+			if (validators != null) {
+				dm.setValidatorIndex(validators, pRange);
+			}
+			dm.setRefresh(mRefresh);
+		}
+		if (mDeltaBaseReader != null) {
+			// the DownloadManager compares fetched tiles with the base's and closes it when done
+			dm.setBase(mDeltaBaseReader, mDeltaBaseTiles);
+			mDeltaBaseReader = null;
+		}
+
+		// Queue the tiles lazily; they are only generated as the workers make room for them
+		dm.addAll(pRange);
+	}
+
+	/**
+	 * Open the delta base package and read which tiles it holds; it stays open so the download can compare tiles
+	 * with it.
+	 * 
+	 * @return false if there is no destination file for the delta, or the base package cannot be read.
+	 */
+	private boolean readDeltaBase() {
+		final File base = new File(getFullDeltaBasePath());
+		if (mDestinationFile == null || base.equals(new File(getFullDestinationFilePath()))) {
+			Log.e(TAG, "A delta needs a destination file other than its base " + base);
+			return false;
+		}
+		try {
+			mDeltaBaseReader = TilePackageReader.open(base);
+			mDeltaBaseTiles = mDeltaBaseReader.getTiles();
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not read delta base " + base + ": " + e);
+			closeDeltaBase();
+			return false;
+		}
+		Log.i(TAG, "-------------> Building a delta against " + mDeltaBaseTiles.cardinality() + " tiles in " + base);
+		return true;
+	}
+
+	/**
+	 * Close the delta base package if no download took it over.
+	 */
+	private void closeDeltaBase() {
+		if (mDeltaBaseReader != null) {
+			try {
+				mDeltaBaseReader.close();
+			} catch (final IOException e) {
+				Log.e(TAG, "Could not close delta base: " + e);
+			}
+			mDeltaBaseReader = null;
+		}
+	}
+
+	/**
+	 * Open the journal of tiles stored in the temp folder, which sits next to the folder.
+	 * 
+	 * @param pRange
+	 * @return TileJournal, or null if it cannot be opened, in which case tiles are checked for on disk instead.
+	 */
+	private TileJournal openJournal(final TileRange pRange) {
+		final File file = getJournalFile();
+		file.getParentFile().mkdirs();
+		try {
+			final TileJournal journal = TileJournal.open(file, pRange);
+			Log.i(TAG, "-------------> Resuming: " + journal.getCompletedCount() + " of " + journal.getTileCount()
+					+ " tiles already stored.");
+			return journal;
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not open journal " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private File getJournalFile() {
+		return new File(getFullTempPath() + ".journal");
+	}
+
+	/**
+	 * Open the index of the validators of the tiles in the temp folder, which sits next to the folder.
+	 * 
+	 * @param pRange
+	 * @return ValidatorIndex, or null if it cannot be opened, in which case refreshes fetch every tile.
+	 */
+	private ValidatorIndex openValidatorIndex(final TileRange pRange) {
+		final File file = getValidatorFile();
+		file.getParentFile().mkdirs();
+		try {
+			return ValidatorIndex.open(file, pRange);
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not open validator index " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private File getValidatorFile() {
+		return new File(getFullTempPath() + ".validators");
+	}
+
+	/**
+	 * Given a range of tiles, how many tiles will we be downloading?
+	 * 
+	 * @param pRange
+	 * @return long Expected number of images.
+	 */
+	private long getExpectedFileCount(final TileRange pRange) {
+		return pRange.size();
+	}
+	
+	// ===========================================================
+	// Listener Implementations
+	// ===========================================================
+	
+	public void onTileDownloaded() {
+		this.onTilesDownloaded(1);
+	}
+
+	/**
+	 * Called by the DownloadManager, at a bounded rate, with the number of tiles finished since the last call. The
+	 * listener hears about each batch once; the progress it is given comes from the DownloadManager's counters, so
+	 * it is right however many calls were coalesced.
+	 * 
+	 * @param pCount
+	 */
+	public void onTilesDownloaded(int pCount) {
+		FetchingProgressEvent fpe = new FetchingProgressEvent();
+		this.onFetchingProgress(fpe);
+		if (mListener != null) {
+			mListener.onTileDownloaded();			
+		}
+	}
+
+	public void onFetchingStart(FetchingStartEvent fse) {
+		mIsRunning = true;
+		Log.i(TAG, "-----------> onFetchingStart: total: " + this.mTotalExpected);
+		fse.total = this.mTotalExpected;
+		if (mListener != null) {
+			mListener.onFetchingStart(fse);
+		}
+	}
+
+	public void onFetchingStop() {
+		mIsRunning = false;
+		if (mListener != null) {
+			mListener.onFetchingStop();
+		}
+		// cleanup DownloadManager
+		if (dm != null) {
+			dm.cleanUp();
+		}
+	}
+
+	/**
+	 * Called by the DownloadManager once every tile has been stored or given up on, and the destination file, if any,
+	 * has been finished.
+	 */
+	public void onFetchingComplete() {
+		// Let's check the number of files that have downloaded, unless they went somewhere else:
+		if (mFetchingToTempFolder) {
+			this.checkFileExistence();
+		}
+		if (mListener != null) {
+			mListener.onFetchingComplete();
+		}
+		this.onFetchingStop();
+	}
+
+	public void onFetchingProgress(FetchingProgressEvent fpe) {
+		fpe.total = this.mTotalExpected;
+		if (dm != null) {
+			fpe.completed = (int) Math.min(dm.getCompletedCount(), this.mTotalExpected);
+			fpe.downloaded = dm.getDownloadedCount();
+			fpe.skipped = dm.getSkippedCount();
+			fpe.failed = dm.getFailedCount();
+			fpe.retried = dm.getRetriedCount();
+			fpe.bytes = dm.getBytesDownloaded();
+			fpe.concurrencyLimit = dm.getConcurrencyLimit();
+			fpe.changed = dm.getChangedCount();
+			fpe.unchanged = dm.getUnchangedCount();
+		}
+		fpe.percent = (fpe.total > 0) ? (float)fpe.completed / (float)fpe.total : 1f;
+		if (mListener != null) {
+			mListener.onFetchingProgress(fpe);
+		}
+	}
+
+	public void onFetchingError(FetchingErrorEvent fee) {
+		if (mListener != null) {
+			mListener.onFetchingError(fee);
+		}
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+}
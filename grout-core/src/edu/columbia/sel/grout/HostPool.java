@@ -0,0 +1,366 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The mirrors of a tile server, for example otile1..4.mqcdn.com or {a,b,c}.tile.openstreetmap.org, that tiles are
+ * spread across.
+ *
+ * Every host has its own {@link ConcurrencyLimiter}, so each mirror is driven as hard as it alone can take and the
+ * total number of fetches in flight grows with the number of mirrors. A tile goes to a fixed host chosen from its
+ * coordinates, which keeps each mirror's cache warm, unless that host is busy or unhealthy, in which case the next
+ * host with a free permit takes it. A host that fails several fetches in a row is taken out of rotation for a while,
+ * for longer each time it keeps failing, and tried again afterwards; so is a host that answers 429 or sends a
+ * Retry-After header, for as long as it asked. Each host can also be held to a request and byte rate.
+ */
+public class HostPool {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Consecutive network or server failures after which a host is taken out of rotation
+	private static final int FAILURE_THRESHOLD = 3;
+
+	private static final long MIN_COOLDOWN_MILLIS = 1000;
+	private static final long MAX_COOLDOWN_MILLIS = 60 * 1000;
+
+	// How long a host that answers 429 without saying how long to wait is left alone
+	public static final long DEFAULT_TOO_MANY_REQUESTS_PAUSE_MILLIS = 1000;
+
+	// Longest wait for a permit while some host is in rotation; permits given back wake the waiters before that
+	private static final long MAX_WAIT_MILLIS = 1000;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final List<Host> mHosts;
+
+	// Threads waiting in acquire() for a permit, and the monitor they wait on
+	private final AtomicInteger mWaiters = new AtomicInteger();
+	private final Object mReleased = new Object();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * @param pTemplates one URL template per host, with zoom, x and y placeholders
+	 * @param pMaxPerHost ceiling on concurrent fetches from any one host
+	 */
+	public HostPool(final List<String> pTemplates, final int pMaxPerHost) {
+		if (pTemplates.isEmpty()) {
+			throw new IllegalArgumentException("No tile server URL");
+		}
+		final List<Host> hosts = new ArrayList<Host>(pTemplates.size());
+		for (final String template : pTemplates) {
+			hosts.add(new Host(this, template, new ConcurrencyLimiter(pMaxPerHost)));
+		}
+		this.mHosts = Collections.unmodifiableList(hosts);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public List<Host> getHosts() {
+		return mHosts;
+	}
+
+	public int size() {
+		return this.mHosts.size();
+	}
+
+	/**
+	 * Hold every host to the same request and byte rate.
+	 * @param pRequestsPerSecond 0 for no limit
+	 * @param pBytesPerSecond 0 for no limit
+	 */
+	public void setRateLimit(final double pRequestsPerSecond, final long pBytesPerSecond) {
+		for (final Host host : this.mHosts) {
+			host.setRateLimit(pRequestsPerSecond, pBytesPerSecond);
+		}
+	}
+
+	/**
+	 * @return the sum of the hosts' current concurrency limits.
+	 */
+	public int getLimit() {
+		int limit = 0;
+		for (final Host host : this.mHosts) {
+			limit += host.getLimiter().getLimit();
+		}
+		return limit;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Pick a host for a tile and take one of its permits, without waiting.
+	 *
+	 * @param pKey packed {@link TileKey}
+	 * @param pAttempt how many times the tile has been tried before; retries start at a different host
+	 * @return the host, which must be given back with {@link Host#release(long, FetchFailure)}, or null if no host
+	 *         can take a fetch right now.
+	 */
+	public Host tryAcquire(final long pKey, final int pAttempt) {
+		final int count = this.mHosts.size();
+		if (count == 1) {
+			// nowhere else to go, so a single host is used whatever its health
+			final Host host = this.mHosts.get(0);
+			return host.getLimiter().tryAcquire() ? host : null;
+		}
+		final int first = (int) (((long) TileKey.x(pKey) + TileKey.y(pKey) + pAttempt) % count);
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			final Host host = this.mHosts.get((first + i) % count);
+			if (host.isAvailable(now) && host.getLimiter().tryAcquire()) {
+				return host;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Pick a host for a tile and take one of its permits, waiting while no host can take a fetch: until a permit is
+	 * given back, or until the first host out of rotation or paused may be sent fetches again.
+	 *
+	 * @param pKey packed {@link TileKey}
+	 * @param pAttempt how many times the tile has been tried before; retries start at a different host
+	 * @return the host, which must be given back with {@link Host#release(long, FetchFailure)}.
+	 * @throws InterruptedException
+	 */
+	public Host acquire(final long pKey, final int pAttempt) throws InterruptedException {
+		Host host = tryAcquire(pKey, pAttempt);
+		if (host != null) {
+			return host;
+		}
+		synchronized (this.mReleased) {
+			// counted before trying again, so a permit given back from now on is sure to wake us
+			this.mWaiters.incrementAndGet();
+			try {
+				while ((host = tryAcquire(pKey, pAttempt)) == null) {
+					this.mReleased.wait(getWaitMillis());
+				}
+			} finally {
+				this.mWaiters.decrementAndGet();
+			}
+		}
+		return host;
+	}
+
+	/**
+	 * @return how long acquire() may wait before a host comes back into rotation, in milliseconds.
+	 */
+	private long getWaitMillis() {
+		final long now = System.currentTimeMillis();
+		long earliest = Long.MAX_VALUE;
+		for (final Host host : this.mHosts) {
+			earliest = Math.min(earliest, host.getAvailableAt());
+		}
+		if (earliest <= now || this.mHosts.size() == 1) {
+			// a host is in rotation but busy, so only a permit given back helps
+			return MAX_WAIT_MILLIS;
+		}
+		return earliest - now;
+	}
+
+	/**
+	 * Wake the threads waiting in acquire(), if any, after a permit was given back.
+	 */
+	private void onPermitReleased() {
+		if (this.mWaiters.get() > 0) {
+			synchronized (this.mReleased) {
+				this.mReleased.notifyAll();
+			}
+		}
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * One mirror: its URL template, concurrency limit and health.
+	 */
+	public static class Host {
+		private final HostPool mPool;
+		private final String mTemplate;
+		private final String mName;
+		private final ConcurrencyLimiter mLimiter;
+
+		// Guarded by this
+		private int mConsecutiveFailures = 0;
+		private long mCooldownMillis = MIN_COOLDOWN_MILLIS;
+		private volatile long mUnavailableUntil = 0;
+
+		// Set when the host asks us to back off; unlike mUnavailableUntil it holds even when the host is the only one
+		private volatile long mPausedUntil = 0;
+
+		private volatile RateLimiter mRequestRate;
+		private volatile RateLimiter mByteRate;
+
+		private volatile long mFetched = 0;
+		private volatile long mFailed = 0;
+
+		Host(final HostPool pPool, final String pTemplate, final ConcurrencyLimiter pLimiter) {
+			this.mPool = pPool;
+			this.mTemplate = pTemplate;
+			this.mLimiter = pLimiter;
+			String name;
+			try {
+				name = new URL(pTemplate).getHost();
+			} catch (final MalformedURLException e) {
+				name = pTemplate;
+			}
+			this.mName = name;
+		}
+
+		public String getTemplate() {
+			return mTemplate;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public ConcurrencyLimiter getLimiter() {
+			return mLimiter;
+		}
+
+		public long getFetchedCount() {
+			return mFetched;
+		}
+
+		public long getFailedCount() {
+			return mFailed;
+		}
+
+		/**
+		 * @param pRequestsPerSecond 0 for no limit
+		 * @param pBytesPerSecond 0 for no limit
+		 */
+		public void setRateLimit(final double pRequestsPerSecond, final long pBytesPerSecond) {
+			this.mRequestRate = (pRequestsPerSecond > 0) ? new RateLimiter(pRequestsPerSecond) : null;
+			this.mByteRate = (pBytesPerSecond > 0) ? new RateLimiter(pBytesPerSecond) : null;
+		}
+
+		/**
+		 * @return true unless the host has been taken out of rotation after failing repeatedly, or asked us to back
+		 *         off.
+		 */
+		public boolean isHealthy() {
+			return isAvailable(System.currentTimeMillis());
+		}
+
+		boolean isAvailable(final long pNow) {
+			return pNow >= this.mUnavailableUntil && pNow >= this.mPausedUntil;
+		}
+
+		/**
+		 * @return when the host is back in rotation and past any pause it asked for, in milliseconds since the epoch.
+		 */
+		long getAvailableAt() {
+			return Math.max(this.mUnavailableUntil, this.mPausedUntil);
+		}
+
+		/**
+		 * Send nothing to the host for a while, as it asked with a 429 or a Retry-After header.
+		 * @param pMillis
+		 */
+		public void pause(final long pMillis) {
+			final long until = System.currentTimeMillis() + pMillis;
+			if (until > this.mPausedUntil) {
+				this.mPausedUntil = until;
+			}
+		}
+
+		/**
+		 * Sleep until the host may be sent another request: past any pause it asked for, and within its rates.
+		 * @throws InterruptedException
+		 */
+		public void awaitTurn() throws InterruptedException {
+			final long paused = this.mPausedUntil - System.currentTimeMillis();
+			if (paused > 0) {
+				Thread.sleep(paused);
+			}
+			final RateLimiter requests = this.mRequestRate;
+			if (requests != null) {
+				requests.acquire();
+			}
+			final RateLimiter bytes = this.mByteRate;
+			if (bytes != null) {
+				bytes.acquire(0);
+			}
+		}
+
+		/**
+		 * Count the bytes of a response against the host's byte rate.
+		 * @param pBytes
+		 */
+		public void chargeBytes(final long pBytes) {
+			final RateLimiter bytes = this.mByteRate;
+			if (bytes != null) {
+				bytes.charge(pBytes);
+			}
+		}
+
+		/**
+		 * Give back the permit taken by {@link HostPool#tryAcquire(long, int)} for a fetch that never started.
+		 */
+		public void cancel() {
+			this.mLimiter.cancel();
+			this.mPool.onPermitReleased();
+		}
+
+		/**
+		 * @param pKey packed {@link TileKey}
+		 * @return the URL of the tile on this host.
+		 */
+		public String getURL(final long pKey) {
+			return String.format(this.mTemplate, TileKey.zoom(pKey), TileKey.x(pKey), TileKey.y(pKey));
+		}
+
+		/**
+		 * Give back the permit taken by {@link HostPool#tryAcquire(long, int)} and record how the fetch went.
+		 *
+		 * @param pLatencyNanos how long the fetch took
+		 * @param pFailure null if the host answered properly, even with a client error
+		 */
+		public void release(final long pLatencyNanos, final FetchFailure pFailure) {
+			final boolean hostFault = pFailure != null && pFailure != FetchFailure.CLIENT_ERROR
+					&& pFailure != FetchFailure.STORAGE_ERROR;
+			// server errors, timeouts and dropped connections mean the host is struggling; client errors do not
+			this.mLimiter.release(pLatencyNanos, hostFault);
+			synchronized (this) {
+				if (!hostFault) {
+					this.mFetched++;
+					this.mConsecutiveFailures = 0;
+					this.mCooldownMillis = MIN_COOLDOWN_MILLIS;
+				} else {
+					this.mFailed++;
+					if (++this.mConsecutiveFailures >= FAILURE_THRESHOLD) {
+						this.mUnavailableUntil = System.currentTimeMillis() + this.mCooldownMillis;
+						this.mCooldownMillis = Math.min(MAX_COOLDOWN_MILLIS, this.mCooldownMillis * 2);
+						this.mConsecutiveFailures = 0;
+					}
+				}
+			}
+			this.mPool.onPermitReleased();
+		}
+	}
+}
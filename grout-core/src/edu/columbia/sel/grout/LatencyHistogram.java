@@ -0,0 +1,126 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with a fixed relative precision, in the manner of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into {@link #SUB_BUCKETS} equal buckets, so
+ * a bucket is never wider than about 3% of the values it holds, from nanoseconds to days, in under 2,000 counters.
+ * Recording is an array index computed from the value's leading bit and one atomic increment, so it can stay on in
+ * production and be read at any time while values are being recorded.
+ */
+public class LatencyHistogram {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final int SUB_BUCKET_BITS = 5;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Values below SUB_BUCKETS are counted exactly; every larger power of two up to 2^62 gets SUB_BUCKETS buckets
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @param pNanos a duration; negative values count as 0
+	 */
+	public void record(final long pNanos) {
+		final long value = Math.max(0, pNanos);
+		this.mCounts.incrementAndGet(bucketOf(value));
+		this.mCount.incrementAndGet();
+		this.mSum.addAndGet(value);
+		long max;
+		while (value > (max = this.mMax.get()) && !this.mMax.compareAndSet(max, value)) {
+			// another thread raised the maximum; compare against the new one
+		}
+	}
+
+	public long getCount() {
+		return this.mCount.get();
+	}
+
+	/**
+	 * @return the mean duration in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		final long count = this.mCount.get();
+		return (count > 0) ? this.mSum.get() / count : 0;
+	}
+
+	public long getMax() {
+		return this.mMax.get();
+	}
+
+	/**
+	 * @param pPercentile between 0 and 100
+	 * @return the duration in nanoseconds that the given share of recorded durations do not exceed, to within the
+	 *         histogram's precision; 0 if nothing was recorded.
+	 */
+	public long getPercentile(final double pPercentile) {
+		final long total = this.mCount.get();
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, pPercentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), this.mMax.get());
+			}
+		}
+		// counts recorded while we were reading; the maximum is as good an answer as any
+		return this.mMax.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", getCount(),
+				millis(getMean()), millis(getPercentile(50)), millis(getPercentile(90)), millis(getPercentile(99)),
+				millis(getMax()));
+	}
+
+	private static double millis(final long pNanos) {
+		return pNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	static int bucketOf(final long pValue) {
+		if (pValue < SUB_BUCKETS) {
+			return (int) pValue;
+		}
+		// the leading bit picks the power of two, the next SUB_BUCKET_BITS bits the bucket within it
+		final int shift = 63 - Long.numberOfLeadingZeros(pValue) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((pValue >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long highestValueIn(final int pBucket) {
+		if (pBucket < SUB_BUCKETS) {
+			return pBucket;
+		}
+		final int shift = pBucket / SUB_BUCKETS - 1;
+		final long lowest = (long) (SUB_BUCKETS + pBucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket: allows a steady rate of permits per second, with bursts of up to one second's worth.
+ *
+ * Callers reserve permits and are told how long to wait for them; the bucket hands out permits in order, so the wait
+ * is computed once and spent asleep rather than polling. Permits may also be charged after the fact, for example the
+ * bytes of a response whose size was not known in advance: the debt then delays the next caller. A server asking us
+ * to back off is handled by {@link HostPool.Host#pause(long)}, not here.
+ */
+public class RateLimiter {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final double mPermitsPerSecond;
+	private final double mMaxStored;
+	private final double mNanosPerPermit;
+
+	// Guarded by this
+	private double mStored;
+	private long mNextFreeNanos;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * @param pPermitsPerSecond steady rate; bursts of up to this many permits are allowed after a quiet second
+	 */
+	public RateLimiter(final double pPermitsPerSecond) {
+		if (pPermitsPerSecond <= 0) {
+			throw new IllegalArgumentException("Rate must be positive: " + pPermitsPerSecond);
+		}
+		this.mPermitsPerSecond = pPermitsPerSecond;
+		this.mMaxStored = Math.max(1, pPermitsPerSecond);
+		this.mNanosPerPermit = TimeUnit.SECONDS.toNanos(1) / pPermitsPerSecond;
+		this.mStored = 0;
+		this.mNextFreeNanos = System.nanoTime();
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public double getRate() {
+		return mPermitsPerSecond;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Wait until a permit is available and take it.
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		acquire(1);
+	}
+
+	/**
+	 * Wait until the given number of permits is available and take them. With 0 permits, only waits for earlier debt
+	 * to clear.
+	 * @param pPermits
+	 * @throws InterruptedException
+	 */
+	public void acquire(final long pPermits) throws InterruptedException {
+		final long waitNanos = reserve(pPermits);
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Take permits that have already been used, without waiting; whoever comes next waits for them instead.
+	 * @param pPermits
+	 */
+	public void charge(final long pPermits) {
+		reserve(pPermits);
+	}
+
+	/**
+	 * @return how long a caller asking for a permit now would wait, in nanoseconds.
+	 */
+	public synchronized long getWaitNanos() {
+		return Math.max(0, this.mNextFreeNanos - System.nanoTime());
+	}
+
+	/**
+	 * Take permits, going into debt if there are not enough, and leave the waiting to the caller; for callers that
+	 * have to stay responsive while they wait.
+	 * @return how long the caller has to wait before using the permits, in nanoseconds.
+	 */
+	public synchronized long reserve(final long pPermits) {
+		final long now = System.nanoTime();
+		if (now - this.mNextFreeNanos > 0) {
+			// the bucket has been refilling since it was last emptied
+			this.mStored = Math.min(this.mMaxStored, this.mStored + (now - this.mNextFreeNanos) / this.mNanosPerPermit);
+			this.mNextFreeNanos = now;
+		}
+		final long waitNanos = this.mNextFreeNanos - now;
+		final double fromStore = Math.min(pPermits, this.mStored);
+		this.mStored -= fromStore;
+		this.mNextFreeNanos += (long) ((pPermits - fromStore) * this.mNanosPerPermit);
+		return waitNanos;
+	}
+}
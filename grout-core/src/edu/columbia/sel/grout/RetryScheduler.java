@@ -0,0 +1,220 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when, and whether, a failed tile is tried again.
+ *
+ * Each failed tile waits an exponentially growing, jittered delay before it becomes due again, up to a maximum number
+ * of attempts. On top of that, a job-wide retry budget accrues a fraction of a retry for every tile added, so a dead
+ * server cannot make the job retry forever; once a tile is out of attempts or the budget is spent, the caller should
+ * give up on it.
+ *
+ * Only tiles that have failed are tracked, so memory use is proportional to the number of failures.
+ */
+public class RetryScheduler {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 60 * 1000;
+
+	// Every tile added earns this many retries for the whole job, on top of a fixed allowance
+	public static final double DEFAULT_BUDGET_RATIO = 0.1;
+	public static final int DEFAULT_MIN_BUDGET = 50;
+
+	// The budget is kept in tenths of a retry so it can be updated with integer atomics
+	private static final int BUDGET_SCALE = 10;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final int mMaxAttempts;
+	private final long mBaseDelayMillis;
+	private final long mMaxDelayMillis;
+	private final long mBudgetPerTile;
+
+	private final AtomicLong mBudget;
+	private final AtomicLong mRetryCount = new AtomicLong();
+	private final ConcurrentMap<Long, Integer> mAttempts = new ConcurrentHashMap<Long, Integer>();
+	private final DelayQueue<Retry> mDue = new DelayQueue<Retry>();
+	private final Random mRandom = new Random();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public RetryScheduler() {
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_BUDGET_RATIO,
+				DEFAULT_MIN_BUDGET);
+	}
+
+	public RetryScheduler(final int pMaxAttempts, final long pBaseDelayMillis, final long pMaxDelayMillis,
+			final double pBudgetRatio, final int pMinBudget) {
+		this.mMaxAttempts = pMaxAttempts;
+		this.mBaseDelayMillis = pBaseDelayMillis;
+		this.mMaxDelayMillis = pMaxDelayMillis;
+		this.mBudgetPerTile = Math.round(pBudgetRatio * BUDGET_SCALE);
+		this.mBudget = new AtomicLong((long) pMinBudget * BUDGET_SCALE);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the number of tiles waiting for their next attempt.
+	 */
+	public int size() {
+		return this.mDue.size();
+	}
+
+	/**
+	 * @return the number of retries scheduled so far.
+	 */
+	public long getRetryCount() {
+		return this.mRetryCount.get();
+	}
+
+	/**
+	 * @return the number of retries the budget still allows.
+	 */
+	public long getRemainingBudget() {
+		return Math.max(0, this.mBudget.get() / BUDGET_SCALE);
+	}
+
+	/**
+	 * @param pKey packed {@link TileKey}
+	 * @return the number of failed attempts so far for the tile.
+	 */
+	public int getAttempts(final long pKey) {
+		final Integer attempts = this.mAttempts.get(pKey);
+		return (attempts != null) ? attempts : 0;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Grow the retry budget for a newly added tile.
+	 */
+	public void onTileAdded() {
+		this.mBudget.addAndGet(this.mBudgetPerTile);
+	}
+
+	/**
+	 * Forget a tile's failures once it has been fetched.
+	 * @param pKey
+	 */
+	public void onSuccess(final long pKey) {
+		this.mAttempts.remove(pKey);
+	}
+
+	/**
+	 * Record a failure and schedule the next attempt.
+	 *
+	 * @param pKey packed {@link TileKey}
+	 * @param pFailure
+	 * @return false if the tile should not be tried again: the failure is permanent, the tile is out of attempts, or
+	 *         the job is out of retry budget.
+	 */
+	public boolean schedule(final long pKey, final FetchFailure pFailure) {
+		return schedule(pKey, pFailure, 0);
+	}
+
+	/**
+	 * Record a failure and schedule the next attempt no sooner than the server asked.
+	 *
+	 * @param pKey packed {@link TileKey}
+	 * @param pFailure
+	 * @param pMinDelayMillis lower bound on the delay, e.g. from a Retry-After header
+	 * @return false if the tile should not be tried again.
+	 */
+	public boolean schedule(final long pKey, final FetchFailure pFailure, final long pMinDelayMillis) {
+		final int attempts = getAttempts(pKey) + 1;
+		if (!pFailure.isRetryable() || attempts >= this.mMaxAttempts || !takeFromBudget()) {
+			this.mAttempts.remove(pKey);
+			return false;
+		}
+		this.mAttempts.put(pKey, attempts);
+		this.mRetryCount.incrementAndGet();
+		final long delay = Math.max(pMinDelayMillis, delayMillis(attempts));
+		this.mDue.add(new Retry(pKey, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+		return true;
+	}
+
+	/**
+	 * Take one retry from the budget if a whole one is left; a refusal takes nothing, so failures past the limit do not
+	 * run the budget into debt that later tiles would have to pay off.
+	 * @return false if the budget is spent.
+	 */
+	private boolean takeFromBudget() {
+		while (true) {
+			final long budget = this.mBudget.get();
+			if (budget < BUDGET_SCALE) {
+				return false;
+			}
+			if (this.mBudget.compareAndSet(budget, budget - BUDGET_SCALE)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the packed key of a tile whose retry delay has passed, or {@link TileQueue#EMPTY} if none is due.
+	 */
+	public long pollDue() {
+		final Retry retry = this.mDue.poll();
+		return (retry != null) ? retry.key : TileQueue.EMPTY;
+	}
+
+	/**
+	 * Exponential backoff with "equal jitter": half of the capped exponential delay is fixed and half is random, so
+	 * tiles that failed together spread out instead of hitting the server again in lockstep.
+	 */
+	private long delayMillis(final int pAttempts) {
+		final long ceiling = Math.min(this.mMaxDelayMillis, this.mBaseDelayMillis << Math.min(pAttempts - 1, 20));
+		final long half = ceiling / 2;
+		return half + (long) (this.mRandom.nextDouble() * (ceiling - half));
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	private static class Retry implements Delayed {
+		final long key;
+		final long dueNanos;
+
+		Retry(final long pKey, final long pDueNanos) {
+			this.key = pKey;
+			this.dueNanos = pDueNanos;
+		}
+
+		public long getDelay(final TimeUnit pUnit) {
+			return pUnit.convert(this.dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(final Delayed pOther) {
+			final long diff = this.dueNanos - ((Retry) pOther).dueNanos;
+			return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+		}
+	}
+}
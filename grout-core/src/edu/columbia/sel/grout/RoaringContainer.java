@@ -0,0 +1,726 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.Arrays;
+
+/**
+ * A set of 16-bit values, the building block of a {@link TileSet}, stored whichever of three ways is smallest, as in
+ * Roaring bitmaps: a sorted array for a few scattered values, a bitmap for many, or a list of runs for values that
+ * come in stretches, such as the rows of a column of tiles.
+ *
+ * Set operations work on two bitmaps word by word, filter arrays value by value, and merge everything else as lists of
+ * runs; the result is stored in its smallest form again. Values and ranges added in ascending order, as the bulk
+ * builders of a TileSet do, are appended in place, and so are removals; only an out-of-order range rebuilds the
+ * container.
+ */
+abstract class RoaringContainer {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Beyond this many values, a bitmap is smaller than an array
+	static final int MAX_ARRAY_SIZE = 4096;
+
+	private static final int BITMAP_WORDS = 1024;
+
+	// Room for the runs of any container, as start and end pairs
+	static final int RUNS_LENGTH = 1 << 16;
+
+	// Longest range appended to an array in place; a longer one may be smaller as a run
+	private static final int MAX_ARRAY_APPEND = 2;
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	abstract int cardinality();
+
+	abstract boolean contains(int pValue);
+
+	/**
+	 * @param pFrom
+	 * @return the smallest value at or above pFrom, or -1 if there is none.
+	 */
+	abstract int nextValue(int pFrom);
+
+	/**
+	 * Write the container's values as runs, each an inclusive start and end.
+	 * @param pRuns at least {@link #RUNS_LENGTH} long
+	 * @return the number of runs
+	 */
+	abstract int runs(char[] pRuns);
+
+	/**
+	 * @return the container holding the value as well; this one, changed, or a new one if the form had to change.
+	 */
+	abstract RoaringContainer add(int pValue);
+
+	abstract RoaringContainer copy();
+
+	abstract int sizeInBytes();
+
+	/**
+	 * Merges the range with the container's runs; subclasses append in place where they can.
+	 * @return the container holding pStart to pEnd as well.
+	 */
+	RoaringContainer addRange(final int pStart, final int pEnd, final char[][] pScratch) {
+		final char[] range = pScratch[1];
+		range[0] = (char) pStart;
+		range[1] = (char) pEnd;
+		final int n = runs(pScratch[0]);
+		return fromRuns(pScratch[2], unionRuns(pScratch[0], n, range, 1, pScratch[2]));
+	}
+
+	/**
+	 * Cuts the value out of the container's runs; subclasses remove in place where they can.
+	 * @return the container without the value, or null if nothing is left.
+	 */
+	RoaringContainer remove(final int pValue, final char[][] pScratch) {
+		if (!contains(pValue)) {
+			return this;
+		}
+		final char[] value = pScratch[1];
+		value[0] = (char) pValue;
+		value[1] = (char) pValue;
+		final int n = runs(pScratch[0]);
+		return fromRuns(pScratch[2], differenceRuns(pScratch[0], n, value, 1, pScratch[2]));
+	}
+
+	/**
+	 * @param pScratch three buffers of {@link #RUNS_LENGTH} chars
+	 * @return the union of the containers.
+	 */
+	static RoaringContainer or(final RoaringContainer pA, final RoaringContainer pB, final char[][] pScratch) {
+		if (pA instanceof BitmapContainer && pB instanceof BitmapContainer) {
+			final long[] words = ((BitmapContainer) pA).mWords.clone();
+			final long[] other = ((BitmapContainer) pB).mWords;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] |= other[i];
+			}
+			return BitmapContainer.of(words);
+		}
+		final int a = pA.runs(pScratch[0]);
+		final int b = pB.runs(pScratch[1]);
+		return fromRuns(pScratch[2], unionRuns(pScratch[0], a, pScratch[1], b, pScratch[2]));
+	}
+
+	/**
+	 * @return the intersection of the containers, or null if it is empty.
+	 */
+	static RoaringContainer and(final RoaringContainer pA, final RoaringContainer pB, final char[][] pScratch) {
+		if (pA instanceof BitmapContainer && pB instanceof BitmapContainer) {
+			final long[] words = ((BitmapContainer) pA).mWords.clone();
+			final long[] other = ((BitmapContainer) pB).mWords;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= other[i];
+			}
+			return BitmapContainer.of(words);
+		}
+		if (pA instanceof ArrayContainer) {
+			return ((ArrayContainer) pA).filter(pB, true);
+		}
+		if (pB instanceof ArrayContainer) {
+			return ((ArrayContainer) pB).filter(pA, true);
+		}
+		final int a = pA.runs(pScratch[0]);
+		final int b = pB.runs(pScratch[1]);
+		return fromRuns(pScratch[2], intersectRuns(pScratch[0], a, pScratch[1], b, pScratch[2]));
+	}
+
+	/**
+	 * @return the values of pA that are not in pB, or null if there are none.
+	 */
+	static RoaringContainer andNot(final RoaringContainer pA, final RoaringContainer pB, final char[][] pScratch) {
+		if (pA instanceof BitmapContainer && pB instanceof BitmapContainer) {
+			final long[] words = ((BitmapContainer) pA).mWords.clone();
+			final long[] other = ((BitmapContainer) pB).mWords;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= ~other[i];
+			}
+			return BitmapContainer.of(words);
+		}
+		if (pA instanceof ArrayContainer) {
+			return ((ArrayContainer) pA).filter(pB, false);
+		}
+		final int a = pA.runs(pScratch[0]);
+		final int b = pB.runs(pScratch[1]);
+		return fromRuns(pScratch[2], differenceRuns(pScratch[0], a, pScratch[1], b, pScratch[2]));
+	}
+
+	/**
+	 * @return a container holding the runs, in whichever form is smallest, or null if there are no runs.
+	 */
+	static RoaringContainer fromRuns(final char[] pRuns, final int pCount) {
+		if (pCount == 0) {
+			return null;
+		}
+		int cardinality = 0;
+		for (int i = 0; i < pCount; i++) {
+			cardinality += pRuns[2 * i + 1] - pRuns[2 * i] + 1;
+		}
+		final int runBytes = 4 * pCount;
+		if (runBytes <= 2 * cardinality && runBytes <= 2 * BITMAP_WORDS * 4) {
+			return new RunContainer(Arrays.copyOf(pRuns, 2 * pCount), pCount);
+		}
+		if (cardinality <= MAX_ARRAY_SIZE) {
+			final char[] values = new char[cardinality];
+			int n = 0;
+			for (int i = 0; i < pCount; i++) {
+				for (int v = pRuns[2 * i]; v <= pRuns[2 * i + 1]; v++) {
+					values[n++] = (char) v;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+		final long[] words = new long[BITMAP_WORDS];
+		for (int i = 0; i < pCount; i++) {
+			setRange(words, pRuns[2 * i], pRuns[2 * i + 1]);
+		}
+		return new BitmapContainer(words, cardinality);
+	}
+
+	private static int unionRuns(final char[] pA, final int pACount, final char[] pB, final int pBCount,
+			final char[] pOut) {
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < pACount || j < pBCount) {
+			// take the run that starts first, and merge it with the last one if they overlap or touch
+			final boolean fromA = j >= pBCount || (i < pACount && pA[2 * i] <= pB[2 * j]);
+			final int start = fromA ? pA[2 * i] : pB[2 * j];
+			final int end = fromA ? pA[2 * i + 1] : pB[2 * j + 1];
+			if (fromA) {
+				i++;
+			} else {
+				j++;
+			}
+			if (n > 0 && start <= pOut[2 * n - 1] + 1) {
+				pOut[2 * n - 1] = (char) Math.max(pOut[2 * n - 1], end);
+			} else {
+				pOut[2 * n] = (char) start;
+				pOut[2 * n + 1] = (char) end;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static int intersectRuns(final char[] pA, final int pACount, final char[] pB, final int pBCount,
+			final char[] pOut) {
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < pACount && j < pBCount) {
+			final int start = Math.max(pA[2 * i], pB[2 * j]);
+			final int end = Math.min(pA[2 * i + 1], pB[2 * j + 1]);
+			if (start <= end) {
+				pOut[2 * n] = (char) start;
+				pOut[2 * n + 1] = (char) end;
+				n++;
+			}
+			// drop whichever run ends first
+			if (pA[2 * i + 1] < pB[2 * j + 1]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return n;
+	}
+
+	private static int differenceRuns(final char[] pA, final int pACount, final char[] pB, final int pBCount,
+			final char[] pOut) {
+		int n = 0;
+		int j = 0;
+		for (int i = 0; i < pACount; i++) {
+			int start = pA[2 * i];
+			final int end = pA[2 * i + 1];
+			// skip runs of B that end before this run, then cut out those that overlap it
+			while (j < pBCount && pB[2 * j + 1] < start) {
+				j++;
+			}
+			int k = j;
+			while (k < pBCount && pB[2 * k] <= end && start <= end) {
+				if (pB[2 * k] > start) {
+					pOut[2 * n] = (char) start;
+					pOut[2 * n + 1] = (char) (pB[2 * k] - 1);
+					n++;
+				}
+				start = pB[2 * k + 1] + 1;
+				k++;
+			}
+			if (start <= end) {
+				pOut[2 * n] = (char) start;
+				pOut[2 * n + 1] = (char) end;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private static void setRange(final long[] pWords, final int pStart, final int pEnd) {
+		final int first = pStart >>> 6;
+		final int last = pEnd >>> 6;
+		final long firstMask = -1L << pStart;
+		final long lastMask = -1L >>> (63 - (pEnd & 63));
+		if (first == last) {
+			pWords[first] |= firstMask & lastMask;
+			return;
+		}
+		pWords[first] |= firstMask;
+		for (int i = first + 1; i < last; i++) {
+			pWords[i] = -1L;
+		}
+		pWords[last] |= lastMask;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Up to {@link RoaringContainer#MAX_ARRAY_SIZE} values, sorted.
+	 */
+	static final class ArrayContainer extends RoaringContainer {
+		private char[] mValues;
+		private int mSize;
+
+		ArrayContainer(final char[] pValues, final int pSize) {
+			this.mValues = pValues;
+			this.mSize = pSize;
+		}
+
+		@Override
+		int cardinality() {
+			return this.mSize;
+		}
+
+		@Override
+		boolean contains(final int pValue) {
+			return Arrays.binarySearch(this.mValues, 0, this.mSize, (char) pValue) >= 0;
+		}
+
+		@Override
+		int nextValue(final int pFrom) {
+			final int i = Arrays.binarySearch(this.mValues, 0, this.mSize, (char) pFrom);
+			final int next = (i >= 0) ? i : -i - 1;
+			return (next < this.mSize) ? this.mValues[next] : -1;
+		}
+
+		@Override
+		int runs(final char[] pRuns) {
+			int n = 0;
+			for (int i = 0; i < this.mSize; i++) {
+				if (n > 0 && this.mValues[i] == pRuns[2 * n - 1] + 1) {
+					pRuns[2 * n - 1] = this.mValues[i];
+				} else {
+					pRuns[2 * n] = this.mValues[i];
+					pRuns[2 * n + 1] = this.mValues[i];
+					n++;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		RoaringContainer add(final int pValue) {
+			final int i = Arrays.binarySearch(this.mValues, 0, this.mSize, (char) pValue);
+			if (i >= 0) {
+				return this;
+			}
+			if (this.mSize == MAX_ARRAY_SIZE) {
+				final long[] words = new long[BITMAP_WORDS];
+				for (int k = 0; k < this.mSize; k++) {
+					words[this.mValues[k] >>> 6] |= 1L << this.mValues[k];
+				}
+				words[pValue >>> 6] |= 1L << pValue;
+				return new BitmapContainer(words, this.mSize + 1);
+			}
+			final int at = -i - 1;
+			if (this.mSize == this.mValues.length) {
+				this.mValues = Arrays.copyOf(this.mValues, Math.min(MAX_ARRAY_SIZE, Math.max(4, this.mSize * 2)));
+			}
+			System.arraycopy(this.mValues, at, this.mValues, at + 1, this.mSize - at);
+			this.mValues[at] = (char) pValue;
+			this.mSize++;
+			return this;
+		}
+
+		@Override
+		RoaringContainer addRange(final int pStart, final int pEnd, final char[][] pScratch) {
+			final int length = pEnd - pStart + 1;
+			if (pStart <= this.mValues[this.mSize - 1] || length > MAX_ARRAY_APPEND
+					|| this.mSize + length > MAX_ARRAY_SIZE) {
+				return super.addRange(pStart, pEnd, pScratch);
+			}
+			if (this.mSize + length > this.mValues.length) {
+				this.mValues = Arrays.copyOf(this.mValues,
+						Math.min(MAX_ARRAY_SIZE, Math.max(this.mSize + length, this.mSize * 2)));
+			}
+			for (int v = pStart; v <= pEnd; v++) {
+				this.mValues[this.mSize++] = (char) v;
+			}
+			return this;
+		}
+
+		@Override
+		RoaringContainer remove(final int pValue, final char[][] pScratch) {
+			final int i = Arrays.binarySearch(this.mValues, 0, this.mSize, (char) pValue);
+			if (i < 0) {
+				return this;
+			}
+			if (this.mSize == 1) {
+				return null;
+			}
+			System.arraycopy(this.mValues, i + 1, this.mValues, i, this.mSize - i - 1);
+			this.mSize--;
+			return this;
+		}
+
+		@Override
+		RoaringContainer copy() {
+			return new ArrayContainer(Arrays.copyOf(this.mValues, this.mSize), this.mSize);
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 2 * this.mValues.length;
+		}
+
+		/**
+		 * @param pKeep true to keep the values in pOther, false to keep the others
+		 * @return the values kept, or null if there are none.
+		 */
+		RoaringContainer filter(final RoaringContainer pOther, final boolean pKeep) {
+			final char[] values = new char[this.mSize];
+			int n = 0;
+			for (int i = 0; i < this.mSize; i++) {
+				if (pOther.contains(this.mValues[i]) == pKeep) {
+					values[n++] = this.mValues[i];
+				}
+			}
+			return (n > 0) ? new ArrayContainer(values, n) : null;
+		}
+	}
+
+	/**
+	 * One bit for each of the 65536 values.
+	 */
+	static final class BitmapContainer extends RoaringContainer {
+		final long[] mWords;
+		private int mCardinality;
+
+		BitmapContainer(final long[] pWords, final int pCardinality) {
+			this.mWords = pWords;
+			this.mCardinality = pCardinality;
+		}
+
+		/**
+		 * @return the words as a container, turned into an array if that is smaller, or null if no bit is set.
+		 */
+		static RoaringContainer of(final long[] pWords) {
+			int cardinality = 0;
+			for (final long word : pWords) {
+				cardinality += Long.bitCount(word);
+			}
+			if (cardinality == 0) {
+				return null;
+			}
+			if (cardinality > MAX_ARRAY_SIZE) {
+				return new BitmapContainer(pWords, cardinality);
+			}
+			final char[] values = new char[cardinality];
+			int n = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = pWords[i];
+				while (word != 0) {
+					values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+
+		@Override
+		int cardinality() {
+			return this.mCardinality;
+		}
+
+		@Override
+		boolean contains(final int pValue) {
+			return (this.mWords[pValue >>> 6] & (1L << pValue)) != 0;
+		}
+
+		@Override
+		int nextValue(final int pFrom) {
+			int i = pFrom >>> 6;
+			if (i >= BITMAP_WORDS) {
+				return -1;
+			}
+			long word = this.mWords[i] & (-1L << pFrom);
+			while (word == 0) {
+				if (++i == BITMAP_WORDS) {
+					return -1;
+				}
+				word = this.mWords[i];
+			}
+			return (i << 6) + Long.numberOfTrailingZeros(word);
+		}
+
+		/**
+		 * @return the smallest value at or above pFrom that is not in the set, or 65536.
+		 */
+		private int nextAbsent(final int pFrom) {
+			int i = pFrom >>> 6;
+			if (i >= BITMAP_WORDS) {
+				return RUNS_LENGTH;
+			}
+			long word = ~this.mWords[i] & (-1L << pFrom);
+			while (word == 0) {
+				if (++i == BITMAP_WORDS) {
+					return RUNS_LENGTH;
+				}
+				word = ~this.mWords[i];
+			}
+			return (i << 6) + Long.numberOfTrailingZeros(word);
+		}
+
+		@Override
+		int runs(final char[] pRuns) {
+			int n = 0;
+			int start = nextValue(0);
+			while (start >= 0) {
+				final int end = nextAbsent(start) - 1;
+				pRuns[2 * n] = (char) start;
+				pRuns[2 * n + 1] = (char) end;
+				n++;
+				start = (end + 1 < RUNS_LENGTH) ? nextValue(end + 1) : -1;
+			}
+			return n;
+		}
+
+		@Override
+		RoaringContainer add(final int pValue) {
+			final long bit = 1L << pValue;
+			if ((this.mWords[pValue >>> 6] & bit) == 0) {
+				this.mWords[pValue >>> 6] |= bit;
+				this.mCardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		RoaringContainer addRange(final int pStart, final int pEnd, final char[][] pScratch) {
+			final int first = pStart >>> 6;
+			final int last = pEnd >>> 6;
+			for (int i = first; i <= last; i++) {
+				this.mCardinality -= Long.bitCount(this.mWords[i]);
+			}
+			setRange(this.mWords, pStart, pEnd);
+			for (int i = first; i <= last; i++) {
+				this.mCardinality += Long.bitCount(this.mWords[i]);
+			}
+			return this;
+		}
+
+		@Override
+		RoaringContainer remove(final int pValue, final char[][] pScratch) {
+			final long bit = 1L << pValue;
+			if ((this.mWords[pValue >>> 6] & bit) == 0) {
+				return this;
+			}
+			this.mWords[pValue >>> 6] &= ~bit;
+			this.mCardinality--;
+			// down to a size an array holds in less room
+			return (this.mCardinality > MAX_ARRAY_SIZE) ? this : of(this.mWords);
+		}
+
+		@Override
+		RoaringContainer copy() {
+			return new BitmapContainer(this.mWords.clone(), this.mCardinality);
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 8 * BITMAP_WORDS;
+		}
+	}
+
+	/**
+	 * Sorted, disjoint runs of consecutive values, each stored as its start and end, with room to append more.
+	 */
+	static final class RunContainer extends RoaringContainer {
+		private char[] mRuns;
+		private int mCount;
+		private int mCardinality;
+
+		RunContainer(final char[] pRuns, final int pCount) {
+			this.mRuns = pRuns;
+			this.mCount = pCount;
+			int cardinality = 0;
+			for (int i = 0; i < pCount; i++) {
+				cardinality += pRuns[2 * i + 1] - pRuns[2 * i] + 1;
+			}
+			this.mCardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return this.mCardinality;
+		}
+
+		/**
+		 * @return the last run starting at or before the value, or -1.
+		 */
+		private int runOf(final int pValue) {
+			int low = -1;
+			int high = this.mCount - 1;
+			while (low < high) {
+				final int mid = (low + high + 1) >>> 1;
+				if (this.mRuns[2 * mid] <= pValue) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		boolean contains(final int pValue) {
+			final int i = runOf(pValue);
+			return i >= 0 && pValue <= this.mRuns[2 * i + 1];
+		}
+
+		@Override
+		int nextValue(final int pFrom) {
+			final int i = runOf(pFrom);
+			if (i >= 0 && pFrom <= this.mRuns[2 * i + 1]) {
+				return pFrom;
+			}
+			return (i + 1 < this.mCount) ? this.mRuns[2 * (i + 1)] : -1;
+		}
+
+		@Override
+		int runs(final char[] pRuns) {
+			System.arraycopy(this.mRuns, 0, pRuns, 0, 2 * this.mCount);
+			return this.mCount;
+		}
+
+		@Override
+		RoaringContainer add(final int pValue) {
+			final int i = runOf(pValue);
+			if (i >= 0 && pValue <= this.mRuns[2 * i + 1]) {
+				return this;
+			}
+			// grow the run before, the run after, both (joining them), or neither (a new run between them)
+			final boolean joinsBefore = i >= 0 && this.mRuns[2 * i + 1] + 1 == pValue;
+			final boolean joinsAfter = i + 1 < this.mCount && this.mRuns[2 * (i + 1)] - 1 == pValue;
+			final char[] runs = new char[2 * (this.mCount + 1)];
+			System.arraycopy(this.mRuns, 0, runs, 0, 2 * (i + 1));
+			int n = i + 1;
+			int next = i + 1;
+			if (joinsBefore && joinsAfter) {
+				runs[2 * n - 1] = this.mRuns[2 * next + 1];
+				next++;
+			} else if (joinsBefore) {
+				runs[2 * n - 1] = (char) pValue;
+			} else if (joinsAfter) {
+				runs[2 * n] = (char) pValue;
+				runs[2 * n + 1] = this.mRuns[2 * next + 1];
+				n++;
+				next++;
+			} else {
+				runs[2 * n] = (char) pValue;
+				runs[2 * n + 1] = (char) pValue;
+				n++;
+			}
+			System.arraycopy(this.mRuns, 2 * next, runs, 2 * n, 2 * (this.mCount - next));
+			return fromRuns(runs, n + this.mCount - next);
+		}
+
+		@Override
+		RoaringContainer addRange(final int pStart, final int pEnd, final char[][] pScratch) {
+			final int end = 2 * this.mCount - 1;
+			if (pStart < this.mRuns[end - 1]) {
+				return super.addRange(pStart, pEnd, pScratch);
+			}
+			if (pStart <= this.mRuns[end] + 1) {
+				// overlaps or touches the last run: extend it
+				if (pEnd > this.mRuns[end]) {
+					this.mCardinality += pEnd - this.mRuns[end];
+					this.mRuns[end] = (char) pEnd;
+				}
+				return this;
+			}
+			if (2 * this.mCount == this.mRuns.length) {
+				this.mRuns = Arrays.copyOf(this.mRuns, Math.min(RUNS_LENGTH, 4 * this.mCount));
+			}
+			this.mRuns[2 * this.mCount] = (char) pStart;
+			this.mRuns[2 * this.mCount + 1] = (char) pEnd;
+			this.mCount++;
+			this.mCardinality += pEnd - pStart + 1;
+			return smallest();
+		}
+
+		@Override
+		RoaringContainer remove(final int pValue, final char[][] pScratch) {
+			final int i = runOf(pValue);
+			if (i < 0 || pValue > this.mRuns[2 * i + 1]) {
+				return this;
+			}
+			if (this.mCardinality == 1) {
+				return null;
+			}
+			final int start = this.mRuns[2 * i];
+			final int end = this.mRuns[2 * i + 1];
+			this.mCardinality--;
+			if (start == end) {
+				System.arraycopy(this.mRuns, 2 * i + 2, this.mRuns, 2 * i, 2 * (this.mCount - i - 1));
+				this.mCount--;
+			} else if (pValue == start) {
+				this.mRuns[2 * i] = (char) (pValue + 1);
+			} else if (pValue == end) {
+				this.mRuns[2 * i + 1] = (char) (pValue - 1);
+			} else {
+				// split the run in two
+				if (2 * this.mCount == this.mRuns.length) {
+					this.mRuns = Arrays.copyOf(this.mRuns, Math.min(RUNS_LENGTH, 4 * this.mCount));
+				}
+				System.arraycopy(this.mRuns, 2 * i + 2, this.mRuns, 2 * i + 4, 2 * (this.mCount - i - 1));
+				this.mRuns[2 * i + 1] = (char) (pValue - 1);
+				this.mRuns[2 * i + 2] = (char) (pValue + 1);
+				this.mRuns[2 * i + 3] = (char) end;
+				this.mCount++;
+			}
+			return smallest();
+		}
+
+		@Override
+		RoaringContainer copy() {
+			return new RunContainer(Arrays.copyOf(this.mRuns, 2 * this.mCount), this.mCount);
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 2 * this.mRuns.length;
+		}
+
+		/**
+		 * @return this container, or the same values as an array or bitmap once either is smaller than the runs.
+		 */
+		private RoaringContainer smallest() {
+			final int runBytes = 4 * this.mCount;
+			if (runBytes <= 2 * this.mCardinality && runBytes <= 2 * BITMAP_WORDS * 4) {
+				return this;
+			}
+			return fromRuns(this.mRuns, this.mCount);
+		}
+	}
+}
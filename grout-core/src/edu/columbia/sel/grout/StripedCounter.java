@@ -0,0 +1,87 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that many threads can bump at once without contending on a single memory location.
+ *
+ * The count is spread over several cells, each on its own cache line, and a thread always adds to the cell picked by
+ * its id; reading the count sums the cells. This is what java.util.concurrent.atomic.LongAdder does, which Android
+ * only offers from API 24. Sums are exact once writers have stopped, and never behind by more than the additions in
+ * progress while they run.
+ */
+public class StripedCounter {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Longs per cache line, so neighbouring cells never share one
+	private static final int PADDING = 8;
+
+	private static final int MAX_CELLS = 64;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final AtomicLongArray mCells;
+	private final int mMask;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public StripedCounter() {
+		int cells = 1;
+		while (cells < Runtime.getRuntime().availableProcessors() * 2 && cells < MAX_CELLS) {
+			cells <<= 1;
+		}
+		this.mCells = new AtomicLongArray(cells * PADDING);
+		this.mMask = cells - 1;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(final long pDelta) {
+		this.mCells.getAndAdd(cell(), pDelta);
+	}
+
+	/**
+	 * @return the sum of all additions so far.
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < this.mCells.length(); i += PADDING) {
+			sum += this.mCells.get(i);
+		}
+		return sum;
+	}
+
+	public int intValue() {
+		return (int) sum();
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+	private int cell() {
+		// spread consecutive thread ids, such as those of a worker pool, across the cells
+		final int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return ((hash >>> 16) & this.mMask) * PADDING;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a {@link TileRange} lazily, handing out packed {@link TileKey}s in zoom, x, y order, span by span.
+ *
+ * A cursor is not thread-safe; give each consumer its own cursor, or its own sub-range from
+ * {@link TileRange#split(int)}.
+ */
+public class TileCursor {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final TileRange mRange;
+	private long mOrdinal;
+	private final long mEnd;
+
+	private int mZoom;
+	private int mSpan;
+	private int mX;
+	private int mY;
+	private int mSpanMaxY;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	TileCursor(final TileRange pRange, final long pStart, final long pEnd) {
+		this.mRange = pRange;
+		this.mOrdinal = pStart;
+		this.mEnd = pEnd;
+		if (pStart < pEnd) {
+			final long key = pRange.keyAt(pStart);
+			this.mZoom = TileKey.zoom(key);
+			this.mX = TileKey.x(key);
+			this.mY = TileKey.y(key);
+			this.mSpan = spanOf(pRange, this.mZoom, this.mX, this.mY);
+			this.mSpanMaxY = pRange.getSpanMaxY(this.mZoom, this.mSpan);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public boolean hasNext() {
+		return this.mOrdinal < this.mEnd;
+	}
+
+	/**
+	 * @return the ordinal, within the range, of the next tile to be returned.
+	 */
+	public long ordinal() {
+		return this.mOrdinal;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public long next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final long key = TileKey.pack(this.mZoom, this.mX, this.mY);
+		this.mOrdinal++;
+
+		// advance without dividing: y fastest, then span, then zoom
+		if (this.mY < this.mSpanMaxY) {
+			this.mY++;
+		} else if (this.mOrdinal < this.mEnd) {
+			if (this.mSpan + 1 < this.mRange.getSpanCount(this.mZoom)) {
+				this.mSpan++;
+			} else {
+				do {
+					this.mZoom++;
+				} while (this.mRange.getLevelSize(this.mZoom) == 0);
+				this.mSpan = 0;
+			}
+			this.mX = this.mRange.getSpanX(this.mZoom, this.mSpan);
+			this.mY = this.mRange.getSpanMinY(this.mZoom, this.mSpan);
+			this.mSpanMaxY = this.mRange.getSpanMaxY(this.mZoom, this.mSpan);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the span of the zoom level that holds the given tile.
+	 */
+	private static int spanOf(final TileRange pRange, final int pZoom, final int pX, final int pY) {
+		int low = 0;
+		int high = pRange.getSpanCount(pZoom) - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			final int x = pRange.getSpanX(pZoom, mid);
+			if (x < pX || (x == pX && pRange.getSpanMinY(pZoom, mid) <= pY)) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -12,6 +12,11 @@ import edu.columbia.sel.grout.event.FetchingProgressEvent;
 import edu.columbia.sel.grout.event.FetchingStartEvent;
 
 public interface TileFetchingListener {
+	/**
+	 * Called once per batch of tiles finished, not once per tile: progress is coalesced so a fast download does not
+	 * flood the listener, and a batch may hold any number of tiles. Use the counts of the
+	 * {@link #onFetchingProgress(FetchingProgressEvent)} call made just before it rather than counting calls.
+	 */
 	public void onTileDownloaded();
 	
 	public void onFetchingStart(FetchingStartEvent fse);
@@ -0,0 +1,213 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records which tiles of a {@link TileRange} have been stored, so an interrupted download can pick up where it left
+ * off.
+ *
+ * The journal is a memory-mapped bitset with one bit per tile, indexed by the tile's ordinal within the range, behind
+ * a small header identifying the range. Checking or marking a tile is a single memory access, without touching the
+ * tile files. A tile is only marked once its data has been written, so tiles that were half-written when the process
+ * died are fetched again. Marks live in the OS page cache as soon as they are made, which survives the process
+ * crashing; they are also forced to disk every {@link #SYNC_INTERVAL} marks and on close.
+ *
+ * A journal written for a different range is discarded when opened.
+ */
+public class TileJournal {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int SYNC_INTERVAL = 4096;
+
+	private static final int MAGIC = 0x47524A31; // "GRJ1"
+	private static final int HEADER_SIZE = 4 + 8 + 8;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mBits;
+	private final long mTileCount;
+	private final boolean mNew;
+	private long mCompleted;
+	private int mUnsynced = 0;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private TileJournal(final RandomAccessFile pFile, final MappedByteBuffer pBits, final long pTileCount,
+			final boolean pNew) {
+		this.mFile = pFile;
+		this.mBits = pBits;
+		this.mTileCount = pTileCount;
+		this.mNew = pNew;
+
+		long completed = 0;
+		final int bytes = byteCount(pTileCount);
+		for (int i = 0; i < bytes; i++) {
+			completed += Integer.bitCount(pBits.get(HEADER_SIZE + i) & 0xFF);
+		}
+		this.mCompleted = completed;
+	}
+
+	/**
+	 * Open the journal for a range, creating it, or replacing it if it was written for a different range.
+	 *
+	 * @param pFile
+	 * @param pRange
+	 * @return TileJournal
+	 * @throws IOException
+	 */
+	public static TileJournal open(final File pFile, final TileRange pRange) throws IOException {
+		final long tileCount = pRange.size();
+		if (byteCount(tileCount) > Integer.MAX_VALUE - HEADER_SIZE) {
+			throw new IOException("Too many tiles to journal: " + tileCount);
+		}
+		final int length = HEADER_SIZE + byteCount(tileCount);
+		final long fingerprint = pRange.fingerprint();
+
+		final RandomAccessFile file = new RandomAccessFile(pFile, "rw");
+		try {
+			boolean valid = file.length() == length;
+			if (valid) {
+				valid = file.readInt() == MAGIC && file.readLong() == tileCount && file.readLong() == fingerprint;
+			}
+			if (!valid) {
+				file.setLength(0);
+				file.setLength(length);
+				file.seek(0);
+				file.writeInt(MAGIC);
+				file.writeLong(tileCount);
+				file.writeLong(fingerprint);
+			}
+			final MappedByteBuffer bits = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			return new TileJournal(file, bits, tileCount, !valid);
+		} catch (final IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public long getTileCount() {
+		return mTileCount;
+	}
+
+	/**
+	 * @return true if the journal was created when it was opened, rather than carried over from an earlier run for the
+	 *         same range. A new journal knows nothing about tiles that may already be stored.
+	 */
+	public boolean isNew() {
+		return mNew;
+	}
+
+	public synchronized long getCompletedCount() {
+		return mCompleted;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @param pOrdinal the tile's ordinal within the range
+	 * @return true if the tile has been stored.
+	 */
+	public boolean isComplete(final long pOrdinal) {
+		if (pOrdinal < 0 || pOrdinal >= this.mTileCount) {
+			return false;
+		}
+		final int b = this.mBits.get(HEADER_SIZE + (int) (pOrdinal >>> 3));
+		return (b & (1 << (pOrdinal & 7))) != 0;
+	}
+
+	/**
+	 * Record that a tile has been stored.
+	 * @param pOrdinal the tile's ordinal within the range
+	 */
+	public synchronized void markComplete(final long pOrdinal) {
+		if (pOrdinal < 0 || pOrdinal >= this.mTileCount) {
+			return;
+		}
+		final int index = HEADER_SIZE + (int) (pOrdinal >>> 3);
+		final int b = this.mBits.get(index);
+		final int bit = 1 << (pOrdinal & 7);
+		if ((b & bit) == 0) {
+			this.mBits.put(index, (byte) (b | bit));
+			this.mCompleted++;
+			if (++this.mUnsynced >= SYNC_INTERVAL) {
+				sync();
+			}
+		}
+	}
+
+	/**
+	 * @param pRange the range the journal was opened for
+	 * @return the tiles that have been stored, for instance to leave them out of another download.
+	 */
+	public TileSet getCompletedTiles(final TileRange pRange) {
+		final TileSet tiles = new TileSet();
+		final TileCursor cursor = pRange.cursor();
+		// gather runs of stored rows, so each is added to the set at once
+		int zoom = -1;
+		int x = -1;
+		int minY = 0;
+		int maxY = -1;
+		while (cursor.hasNext()) {
+			final boolean complete = isComplete(cursor.ordinal());
+			final long key = cursor.next();
+			if (!complete) {
+				continue;
+			}
+			if (TileKey.zoom(key) == zoom && TileKey.x(key) == x && TileKey.y(key) == maxY + 1) {
+				maxY++;
+				continue;
+			}
+			if (zoom >= 0) {
+				tiles.addRange(zoom, x, minY, maxY);
+			}
+			zoom = TileKey.zoom(key);
+			x = TileKey.x(key);
+			minY = maxY = TileKey.y(key);
+		}
+		if (zoom >= 0) {
+			tiles.addRange(zoom, x, minY, maxY);
+		}
+		return tiles;
+	}
+
+	/**
+	 * Force the marks made so far to disk.
+	 */
+	public synchronized void sync() {
+		this.mBits.force();
+		this.mUnsynced = 0;
+	}
+
+	public synchronized void close() throws IOException {
+		sync();
+		this.mFile.close();
+	}
+
+	private static int byteCount(final long pTileCount) {
+		return (int) Math.min(Integer.MAX_VALUE, (pTileCount + 7) >>> 3);
+	}
+}
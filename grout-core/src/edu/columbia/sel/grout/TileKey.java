@@ -0,0 +1,69 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+/**
+ * Packs a tile's zoom, x and y into a single primitive long, so tiles can be queued and tracked without allocating an
+ * {@link OSMTileInfo} for each one.
+ *
+ * Layout: 6 bits of zoom, then 29 bits each of x and y, which covers every zoom level a tile server will serve.
+ */
+public final class TileKey {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final int COORDINATE_BITS = 29;
+	private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+	public static final int MAX_ZOOM = COORDINATE_BITS;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private TileKey() {
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public static long pack(final int zoom, final int x, final int y) {
+		return ((long) zoom << (2 * COORDINATE_BITS)) | (((long) x & COORDINATE_MASK) << COORDINATE_BITS)
+				| ((long) y & COORDINATE_MASK);
+	}
+
+	public static int zoom(final long key) {
+		return (int) (key >>> (2 * COORDINATE_BITS));
+	}
+
+	public static int x(final long key) {
+		return (int) ((key >>> COORDINATE_BITS) & COORDINATE_MASK);
+	}
+
+	public static int y(final long key) {
+		return (int) (key & COORDINATE_MASK);
+	}
+
+	public static OSMTileInfo toTileInfo(final long key) {
+		return new OSMTileInfo(x(key), y(key), zoom(key));
+	}
+
+	public static long fromTileInfo(final OSMTileInfo pTileInfo) {
+		return pack(pTileInfo.zoom, pTileInfo.x, pTileInfo.y);
+	}
+
+	public static String toString(final long key) {
+		return new StringBuilder()
+			.append("z=").append(zoom(key))
+			.append(" x=").append(x(key))
+			.append(" y=").append(y(key))
+			.toString();
+	}
+}
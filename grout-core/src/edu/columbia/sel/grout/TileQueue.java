@@ -0,0 +1,124 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer/multi-consumer queue of packed {@link TileKey}s.
+ *
+ * Each slot carries a sequence number that tells producers and consumers whether the slot is free to be written or
+ * ready to be read, so neither side ever takes a lock (see Dmitry Vyukov's bounded MPMC queue). The capacity is
+ * rounded up to the next power of two.
+ *
+ * offer() and poll() never block; callers that want backpressure should back off and retry.
+ */
+public class TileQueue {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Returned by poll() when the queue is empty; never a valid tile key
+	public static final long EMPTY = -1L;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final int mMask;
+	private final AtomicLongArray mItems;
+	private final AtomicLongArray mSequences;
+	private final AtomicLong mHead = new AtomicLong();
+	private final AtomicLong mTail = new AtomicLong();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public TileQueue(final int pCapacity) {
+		int capacity = 2;
+		while (capacity < pCapacity) {
+			capacity <<= 1;
+		}
+		this.mMask = capacity - 1;
+		this.mItems = new AtomicLongArray(capacity);
+		this.mSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			this.mSequences.set(i, i);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public int capacity() {
+		return this.mMask + 1;
+	}
+
+	/**
+	 * Approximate number of queued tiles; exact only when no other thread is touching the queue.
+	 * @return int
+	 */
+	public int size() {
+		final long size = this.mTail.get() - this.mHead.get();
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Add a tile to the queue.
+	 * @param pKey packed {@link TileKey}
+	 * @return false if the queue is full.
+	 */
+	public boolean offer(final long pKey) {
+		while (true) {
+			final long tail = this.mTail.get();
+			final int index = (int) tail & this.mMask;
+			final long diff = this.mSequences.get(index) - tail;
+			if (diff == 0) {
+				if (this.mTail.compareAndSet(tail, tail + 1)) {
+					this.mItems.lazySet(index, pKey);
+					this.mSequences.set(index, tail + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Remove the next tile from the queue.
+	 * @return the packed tile key, or {@link #EMPTY} if the queue is empty.
+	 */
+	public long poll() {
+		while (true) {
+			final long head = this.mHead.get();
+			final int index = (int) head & this.mMask;
+			final long diff = this.mSequences.get(index) - (head + 1);
+			if (diff == 0) {
+				if (this.mHead.compareAndSet(head, head + 1)) {
+					final long key = this.mItems.get(index);
+					this.mSequences.set(index, head + this.mMask + 1);
+					return key;
+				}
+			} else if (diff < 0) {
+				return EMPTY;
+			}
+		}
+	}
+}
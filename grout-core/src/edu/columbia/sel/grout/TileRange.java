@@ -0,0 +1,508 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.columbia.sel.grout.region.Region;
+import edu.columbia.sel.grout.util.TileUtils;
+
+/**
+ * The set of tiles covering a region over a range of zoom levels, described by one rectangle of tile coordinates per
+ * zoom instead of one object per tile.
+ *
+ * Levels that are not rectangles, such as the tiles covering a polygon, are described by spans instead: runs of
+ * tiles in one column, from minY to maxY, ordered by x and then y. A rectangle level is a span per column, all alike,
+ * and reads the same through {@link #getSpanCount(int)} and friends.
+ *
+ * Tiles are ordered by zoom, then x, then y. Every tile has an ordinal within that order, which makes the range
+ * cheap to count, to walk lazily with a {@link TileCursor}, and to {@link #split(int)} into disjoint sub-ranges.
+ */
+public class TileRange {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final int mMinZoom;
+	private final int mMaxZoom;
+
+	// Per zoom level, indexed by (zoom - mMinZoom); the bounding rectangle of a level described by spans
+	private final int[] mMinX;
+	private final int[] mMaxX;
+	private final int[] mMinY;
+	private final int[] mMaxY;
+
+	// Spans of each level, or null for rectangle levels
+	private final int[][] mSpanX;
+	private final int[][] mSpanMinY;
+	private final int[][] mSpanMaxY;
+
+	// Ordinal of the first tile of each span, relative to its level; the last element is the level's size
+	private final long[][] mSpanOffsets;
+
+	// Ordinal of the first tile of each zoom level; the last element is the total size of the full range
+	private final long[] mLevelOffsets;
+
+	// The ordinals [mStart, mEnd) of the full range that this (sub-)range covers
+	private final long mStart;
+	private final long mEnd;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public TileRange(final int pMinZoom, final int pMaxZoom, final int[] pMinX, final int[] pMaxX, final int[] pMinY,
+			final int[] pMaxY) {
+		this(pMinZoom, pMaxZoom, pMinX, pMaxX, pMinY, pMaxY, new int[Math.max(0, pMaxZoom - pMinZoom + 1)][],
+				new int[Math.max(0, pMaxZoom - pMinZoom + 1)][], new int[Math.max(0, pMaxZoom - pMinZoom + 1)][]);
+	}
+
+	private TileRange(final int pMinZoom, final int pMaxZoom, final int[] pMinX, final int[] pMaxX, final int[] pMinY,
+			final int[] pMaxY, final int[][] pSpanX, final int[][] pSpanMinY, final int[][] pSpanMaxY) {
+		this.mMinZoom = pMinZoom;
+		this.mMaxZoom = pMaxZoom;
+		this.mMinX = pMinX;
+		this.mMaxX = pMaxX;
+		this.mMinY = pMinY;
+		this.mMaxY = pMaxY;
+		this.mSpanX = pSpanX;
+		this.mSpanMinY = pSpanMinY;
+		this.mSpanMaxY = pSpanMaxY;
+
+		final int levels = Math.max(0, pMaxZoom - pMinZoom + 1);
+		this.mSpanOffsets = new long[levels][];
+		this.mLevelOffsets = new long[levels + 1];
+		for (int i = 0; i < levels; i++) {
+			final long size;
+			if (pSpanX[i] == null) {
+				final long width = Math.max(0, pMaxX[i] - pMinX[i] + 1);
+				final long height = Math.max(0, pMaxY[i] - pMinY[i] + 1);
+				size = width * height;
+			} else {
+				final long[] offsets = new long[pSpanX[i].length + 1];
+				for (int k = 0; k < pSpanX[i].length; k++) {
+					offsets[k + 1] = offsets[k] + pSpanMaxY[i][k] - pSpanMinY[i][k] + 1;
+				}
+				this.mSpanOffsets[i] = offsets;
+				size = offsets[pSpanX[i].length];
+			}
+			this.mLevelOffsets[i + 1] = this.mLevelOffsets[i] + size;
+		}
+		this.mStart = 0;
+		this.mEnd = this.mLevelOffsets[levels];
+	}
+
+	private TileRange(final TileRange pParent, final long pStart, final long pEnd) {
+		this.mMinZoom = pParent.mMinZoom;
+		this.mMaxZoom = pParent.mMaxZoom;
+		this.mMinX = pParent.mMinX;
+		this.mMaxX = pParent.mMaxX;
+		this.mMinY = pParent.mMinY;
+		this.mMaxY = pParent.mMaxY;
+		this.mSpanX = pParent.mSpanX;
+		this.mSpanMinY = pParent.mSpanMinY;
+		this.mSpanMaxY = pParent.mSpanMaxY;
+		this.mSpanOffsets = pParent.mSpanOffsets;
+		this.mLevelOffsets = pParent.mLevelOffsets;
+		this.mStart = pStart;
+		this.mEnd = pEnd;
+	}
+
+	/**
+	 * Build the range of tiles covering a bounding box at each zoom level from pMinZoom to pMaxZoom.
+	 *
+	 * @param pNorth
+	 * @param pSouth
+	 * @param pEast
+	 * @param pWest
+	 * @param pMinZoom
+	 * @param pMaxZoom
+	 * @return TileRange
+	 */
+	public static TileRange fromBoundingBox(final double pNorth, final double pSouth, final double pEast,
+			final double pWest, final int pMinZoom, final int pMaxZoom) {
+		final int levels = pMaxZoom - pMinZoom + 1;
+		final int[] minX = new int[levels];
+		final int[] maxX = new int[levels];
+		final int[] minY = new int[levels];
+		final int[] maxY = new int[levels];
+
+		for (int z = pMinZoom; z <= pMaxZoom; z++) {
+			final int i = z - pMinZoom;
+			final int last = (1 << z) - 1;
+			final OSMTileInfo upperLeft = TileUtils.getMapTileFromCoordinates(pNorth, pWest, z);
+			final OSMTileInfo lowerRight = TileUtils.getMapTileFromCoordinates(pSouth, pEast, z);
+			minX[i] = clamp(upperLeft.x, last);
+			maxX[i] = clamp(lowerRight.x, last);
+			minY[i] = clamp(upperLeft.y, last);
+			maxY[i] = clamp(lowerRight.y, last);
+		}
+		return new TileRange(pMinZoom, pMaxZoom, minX, maxX, minY, maxY);
+	}
+
+	/**
+	 * Build the range of tiles that the region touches at each zoom level from pMinZoom to pMaxZoom.
+	 *
+	 * @param pRegion
+	 * @param pMinZoom
+	 * @param pMaxZoom
+	 * @return TileRange
+	 */
+	public static TileRange fromRegion(final Region pRegion, final int pMinZoom, final int pMaxZoom) {
+		final Builder builder = new Builder(pMinZoom, pMaxZoom);
+		for (int z = pMinZoom; z <= pMaxZoom; z++) {
+			pRegion.rasterize(z, builder);
+		}
+		return builder.build();
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public int getMinZoom() {
+		return mMinZoom;
+	}
+
+	public int getMaxZoom() {
+		return mMaxZoom;
+	}
+
+	public int getMinX(final int zoom) {
+		return this.mMinX[zoom - this.mMinZoom];
+	}
+
+	public int getMaxX(final int zoom) {
+		return this.mMaxX[zoom - this.mMinZoom];
+	}
+
+	public int getMinY(final int zoom) {
+		return this.mMinY[zoom - this.mMinZoom];
+	}
+
+	public int getMaxY(final int zoom) {
+		return this.mMaxY[zoom - this.mMinZoom];
+	}
+
+	/**
+	 * @param zoom
+	 * @return the number of spans at the given zoom level; for a rectangle level, its number of columns.
+	 */
+	public int getSpanCount(final int zoom) {
+		final int i = zoom - this.mMinZoom;
+		if (this.mSpanX[i] != null) {
+			return this.mSpanX[i].length;
+		}
+		return (this.mLevelOffsets[i + 1] > this.mLevelOffsets[i]) ? this.mMaxX[i] - this.mMinX[i] + 1 : 0;
+	}
+
+	public int getSpanX(final int zoom, final int pSpan) {
+		final int i = zoom - this.mMinZoom;
+		return (this.mSpanX[i] != null) ? this.mSpanX[i][pSpan] : this.mMinX[i] + pSpan;
+	}
+
+	public int getSpanMinY(final int zoom, final int pSpan) {
+		final int i = zoom - this.mMinZoom;
+		return (this.mSpanX[i] != null) ? this.mSpanMinY[i][pSpan] : this.mMinY[i];
+	}
+
+	public int getSpanMaxY(final int zoom, final int pSpan) {
+		final int i = zoom - this.mMinZoom;
+		return (this.mSpanX[i] != null) ? this.mSpanMaxY[i][pSpan] : this.mMaxY[i];
+	}
+
+	/**
+	 * @param zoom
+	 * @return the number of tiles at the given zoom level in the full range, or 0 if the zoom is outside it.
+	 */
+	public long getLevelSize(final int zoom) {
+		if (zoom < this.mMinZoom || zoom > this.mMaxZoom) {
+			return 0;
+		}
+		final int i = zoom - this.mMinZoom;
+		return this.mLevelOffsets[i + 1] - this.mLevelOffsets[i];
+	}
+
+	/**
+	 * @return the number of tiles in this range.
+	 */
+	public long size() {
+		return this.mEnd - this.mStart;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @return a new cursor positioned at the first tile of this range.
+	 */
+	public TileCursor cursor() {
+		return new TileCursor(this, this.mStart, this.mEnd);
+	}
+
+	/**
+	 * Divide this range into at most pParts disjoint sub-ranges of nearly equal size, covering it in order.
+	 * @param pParts
+	 * @return TileRange[]
+	 */
+	public TileRange[] split(final int pParts) {
+		final int parts = (int) Math.max(1, Math.min(pParts, size()));
+		final TileRange[] ranges = new TileRange[parts];
+		final long size = size();
+		for (int i = 0; i < parts; i++) {
+			ranges[i] = new TileRange(this, this.mStart + size * i / parts, this.mStart + size * (i + 1) / parts);
+		}
+		return ranges;
+	}
+
+	/**
+	 * @param pOrdinal ordinal within the full range
+	 * @return the packed {@link TileKey} of the tile at the given ordinal.
+	 */
+	public long keyAt(final long pOrdinal) {
+		int i = 0;
+		while (this.mLevelOffsets[i + 1] <= pOrdinal) {
+			i++;
+		}
+		final long offset = pOrdinal - this.mLevelOffsets[i];
+		if (this.mSpanX[i] != null) {
+			final int k = spanAt(this.mSpanOffsets[i], offset);
+			return TileKey.pack(this.mMinZoom + i, this.mSpanX[i][k],
+					(int) (this.mSpanMinY[i][k] + offset - this.mSpanOffsets[i][k]));
+		}
+		final long height = this.mMaxY[i] - this.mMinY[i] + 1;
+		return TileKey.pack(this.mMinZoom + i, (int) (this.mMinX[i] + offset / height),
+				(int) (this.mMinY[i] + offset % height));
+	}
+
+	/**
+	 * @param pKey packed {@link TileKey}
+	 * @return the ordinal of the tile within the full range, or -1 if this range does not contain it.
+	 */
+	public long indexOf(final long pKey) {
+		final int zoom = TileKey.zoom(pKey);
+		final int x = TileKey.x(pKey);
+		final int y = TileKey.y(pKey);
+		if (zoom < this.mMinZoom || zoom > this.mMaxZoom) {
+			return -1;
+		}
+		final int i = zoom - this.mMinZoom;
+		if (x < this.mMinX[i] || x > this.mMaxX[i] || y < this.mMinY[i] || y > this.mMaxY[i]) {
+			return -1;
+		}
+		final long ordinal;
+		if (this.mSpanX[i] != null) {
+			final int k = spanOf(this.mSpanX[i], this.mSpanMinY[i], x, y);
+			if (k < 0 || this.mSpanX[i][k] != x || y > this.mSpanMaxY[i][k]) {
+				return -1;
+			}
+			ordinal = this.mLevelOffsets[i] + this.mSpanOffsets[i][k] + (y - this.mSpanMinY[i][k]);
+		} else {
+			final long height = this.mMaxY[i] - this.mMinY[i] + 1;
+			ordinal = this.mLevelOffsets[i] + (x - this.mMinX[i]) * height + (y - this.mMinY[i]);
+		}
+		return (ordinal >= this.mStart && ordinal < this.mEnd) ? ordinal : -1;
+	}
+
+	public boolean contains(final long pKey) {
+		return indexOf(pKey) >= 0;
+	}
+
+	/**
+	 * @return a 64-bit FNV-1a hash of the full range's bounds, identifying which tiles the ordinals refer to.
+	 */
+	public long fingerprint() {
+		long hash = 0xcbf29ce484222325L;
+		hash = mix(hash, this.mMinZoom);
+		hash = mix(hash, this.mMaxZoom);
+		for (int i = 0; i < this.mMinX.length; i++) {
+			hash = mix(hash, this.mMinX[i]);
+			hash = mix(hash, this.mMaxX[i]);
+			hash = mix(hash, this.mMinY[i]);
+			hash = mix(hash, this.mMaxY[i]);
+			if (this.mSpanX[i] != null) {
+				hash = mix(hash, this.mSpanX[i].length);
+				for (int k = 0; k < this.mSpanX[i].length; k++) {
+					hash = mix(hash, this.mSpanX[i][k]);
+					hash = mix(hash, this.mSpanMinY[i][k]);
+					hash = mix(hash, this.mSpanMaxY[i][k]);
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the last span whose first tile is at or before the given offset within its level.
+	 */
+	private static int spanAt(final long[] pOffsets, final long pOffset) {
+		int low = 0;
+		int high = pOffsets.length - 2;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (pOffsets[mid] <= pOffset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the last span starting at or before (x, y) in x, y order, or -1 if there is none.
+	 */
+	private static int spanOf(final int[] pSpanX, final int[] pSpanMinY, final int pX, final int pY) {
+		int low = -1;
+		int high = pSpanX.length - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (pSpanX[mid] < pX || (pSpanX[mid] == pX && pSpanMinY[mid] <= pY)) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private static long mix(long pHash, final int pValue) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			pHash ^= (pValue >>> shift) & 0xFF;
+			pHash *= 0x100000001b3L;
+		}
+		return pHash;
+	}
+
+	private static int clamp(final int pValue, final int pMax) {
+		return Math.max(0, Math.min(pValue, pMax));
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Collects the spans of a range in any order, overlapping or not, and builds the range holding their union.
+	 * Levels that turn out to be rectangles are stored as such.
+	 */
+	public static class Builder {
+		private final int mMinZoom;
+		private final int mMaxZoom;
+
+		// Per level, the largest maxY added for each (x, minY), keyed by x in the high and minY in the low 32 bits
+		private final TreeMap<Long, Integer>[] mSpans;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Builder(final int pMinZoom, final int pMaxZoom) {
+			this.mMinZoom = pMinZoom;
+			this.mMaxZoom = pMaxZoom;
+			this.mSpans = new TreeMap[Math.max(0, pMaxZoom - pMinZoom + 1)];
+			for (int i = 0; i < this.mSpans.length; i++) {
+				this.mSpans[i] = new TreeMap<Long, Integer>();
+			}
+		}
+
+		public int getMinZoom() {
+			return this.mMinZoom;
+		}
+
+		public int getMaxZoom() {
+			return this.mMaxZoom;
+		}
+
+		/**
+		 * Add the tiles pMinY to pMaxY of column pX; coordinates outside the zoom level's tiles are clipped.
+		 * @param pZoom
+		 * @param pX
+		 * @param pMinY
+		 * @param pMaxY
+		 * @return this Builder
+		 */
+		public Builder addSpan(final int pZoom, final int pX, final int pMinY, final int pMaxY) {
+			final int last = (1 << pZoom) - 1;
+			if (pZoom < this.mMinZoom || pZoom > this.mMaxZoom || pX < 0 || pX > last || pMaxY < pMinY
+					|| pMaxY < 0 || pMinY > last) {
+				return this;
+			}
+			final int minY = clamp(pMinY, last);
+			final int maxY = clamp(pMaxY, last);
+			final TreeMap<Long, Integer> spans = this.mSpans[pZoom - this.mMinZoom];
+			final Long key = ((long) pX << 32) | minY;
+			final Integer previous = spans.get(key);
+			if (previous == null || previous < maxY) {
+				spans.put(key, maxY);
+			}
+			return this;
+		}
+
+		public TileRange build() {
+			final int levels = this.mSpans.length;
+			final int[] minX = new int[levels];
+			final int[] maxX = new int[levels];
+			final int[] minY = new int[levels];
+			final int[] maxY = new int[levels];
+			final int[][] spanX = new int[levels][];
+			final int[][] spanMinY = new int[levels][];
+			final int[][] spanMaxY = new int[levels][];
+
+			for (int i = 0; i < levels; i++) {
+				// merge the spans of each column that overlap or touch
+				final int n = this.mSpans[i].size();
+				final int[] xs = new int[n];
+				final int[] minYs = new int[n];
+				final int[] maxYs = new int[n];
+				int count = 0;
+				for (final Map.Entry<Long, Integer> span : this.mSpans[i].entrySet()) {
+					final int x = (int) (span.getKey() >>> 32);
+					final int y = (int) (span.getKey() & 0xFFFFFFFFL);
+					if (count > 0 && xs[count - 1] == x && y <= maxYs[count - 1] + 1) {
+						maxYs[count - 1] = Math.max(maxYs[count - 1], span.getValue());
+					} else {
+						xs[count] = x;
+						minYs[count] = y;
+						maxYs[count] = span.getValue();
+						count++;
+					}
+				}
+
+				if (count == 0) {
+					maxX[i] = maxY[i] = -1;
+					continue;
+				}
+				minX[i] = xs[0];
+				maxX[i] = xs[count - 1];
+				minY[i] = Integer.MAX_VALUE;
+				maxY[i] = -1;
+				boolean rectangle = (count == maxX[i] - minX[i] + 1);
+				for (int k = 0; k < count; k++) {
+					minY[i] = Math.min(minY[i], minYs[k]);
+					maxY[i] = Math.max(maxY[i], maxYs[k]);
+					rectangle &= (minYs[k] == minYs[0] && maxYs[k] == maxYs[0]);
+				}
+				if (!rectangle) {
+					spanX[i] = trim(xs, count);
+					spanMinY[i] = trim(minYs, count);
+					spanMaxY[i] = trim(maxYs, count);
+				}
+			}
+			return new TileRange(this.mMinZoom, this.mMaxZoom, minX, maxX, minY, maxY, spanX, spanMinY, spanMaxY);
+		}
+
+		private static int[] trim(final int[] pValues, final int pLength) {
+			if (pValues.length == pLength) {
+				return pValues;
+			}
+			final int[] trimmed = new int[pLength];
+			System.arraycopy(pValues, 0, trimmed, 0, pLength);
+			return trimmed;
+		}
+	}
+}
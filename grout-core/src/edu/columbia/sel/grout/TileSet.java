@@ -0,0 +1,398 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of tiles of any shape, over any zoom levels, compressed in the manner of Roaring bitmaps.
+ *
+ * Packed {@link TileKey}s are split into their upper 48 bits, which name the zoom, the column and a block of 65536
+ * rows, and their lower 16 bits, which are kept in a {@link RoaringContainer} for each block: a sorted array, a
+ * bitmap or a list of runs, whichever is smallest. Regions are mostly long runs of rows, so millions of tiles take a
+ * few bytes per column; scattered tiles, such as a cache that was browsed rather than downloaded, take two bytes each
+ * at most. Union, intersection and difference work block by block, which makes "the tiles of this region that are
+ * not in that package yet" a matter of milliseconds.
+ *
+ * Tiles are ordered by zoom, then x, then y, like a {@link TileRange}; {@link #toTileRange()} turns the set into a
+ * range for the download pipeline. Not thread-safe.
+ */
+public class TileSet {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final int LOW_BITS = 16;
+	private static final int LOW_MASK = (1 << LOW_BITS) - 1;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// Upper bits of the keys in each block, sorted, and the block's lower bits
+	private long[] mBlocks;
+	private RoaringContainer[] mContainers;
+	private int mCount;
+
+	// Buffers for container operations, allocated on first use
+	private char[][] mScratch;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public TileSet() {
+		this(new long[4], new RoaringContainer[4], 0);
+	}
+
+	private TileSet(final long[] pBlocks, final RoaringContainer[] pContainers, final int pCount) {
+		this.mBlocks = pBlocks;
+		this.mContainers = pContainers;
+		this.mCount = pCount;
+	}
+
+	/**
+	 * @param pRange
+	 * @return the tiles of the range, as a set.
+	 */
+	public static TileSet of(final TileRange pRange) {
+		final TileSet set = new TileSet();
+		long fullSize = 0;
+		for (int z = pRange.getMinZoom(); z <= pRange.getMaxZoom(); z++) {
+			fullSize += pRange.getLevelSize(z);
+		}
+		if (pRange.size() == fullSize) {
+			// the full range: add it span by span
+			for (int z = pRange.getMinZoom(); z <= pRange.getMaxZoom(); z++) {
+				for (int k = 0; k < pRange.getSpanCount(z); k++) {
+					set.addRange(z, pRange.getSpanX(z, k), pRange.getSpanMinY(z, k), pRange.getSpanMaxY(z, k));
+				}
+			}
+			return set;
+		}
+		// a sub-range from TileRange.split(): walk it, adding runs of rows as they come
+		final TileCursor cursor = pRange.cursor();
+		int zoom = -1;
+		int x = -1;
+		int minY = 0;
+		int maxY = -1;
+		while (cursor.hasNext()) {
+			final long key = cursor.next();
+			if (TileKey.zoom(key) == zoom && TileKey.x(key) == x && TileKey.y(key) == maxY + 1) {
+				maxY++;
+				continue;
+			}
+			if (zoom >= 0) {
+				set.addRange(zoom, x, minY, maxY);
+			}
+			zoom = TileKey.zoom(key);
+			x = TileKey.x(key);
+			minY = maxY = TileKey.y(key);
+		}
+		if (zoom >= 0) {
+			set.addRange(zoom, x, minY, maxY);
+		}
+		return set;
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the number of tiles in the set.
+	 */
+	public long cardinality() {
+		long cardinality = 0;
+		for (int i = 0; i < this.mCount; i++) {
+			cardinality += this.mContainers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	/**
+	 * @param pZoom
+	 * @return the number of tiles in the set at the given zoom level.
+	 */
+	public long cardinality(final int pZoom) {
+		long cardinality = 0;
+		for (int i = firstBlockAt(pZoom); i < this.mCount && zoomOf(this.mBlocks[i]) == pZoom; i++) {
+			cardinality += this.mContainers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return this.mCount == 0;
+	}
+
+	/**
+	 * @return roughly how much memory the set's tiles take, in bytes.
+	 */
+	public long getSizeInBytes() {
+		long bytes = 12L * this.mBlocks.length;
+		for (int i = 0; i < this.mCount; i++) {
+			bytes += this.mContainers[i].sizeInBytes();
+		}
+		return bytes;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public boolean contains(final long pKey) {
+		final int i = Arrays.binarySearch(this.mBlocks, 0, this.mCount, pKey >>> LOW_BITS);
+		return i >= 0 && this.mContainers[i].contains((int) (pKey & LOW_MASK));
+	}
+
+	/**
+	 * @param pKey packed {@link TileKey}
+	 * @return this TileSet
+	 */
+	public TileSet add(final long pKey) {
+		final long block = pKey >>> LOW_BITS;
+		final int value = (int) (pKey & LOW_MASK);
+		// tiles usually arrive in order, so look at the last block first
+		int i = (this.mCount > 0 && this.mBlocks[this.mCount - 1] == block) ? this.mCount - 1
+				: Arrays.binarySearch(this.mBlocks, 0, this.mCount, block);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, block, new RoaringContainer.ArrayContainer(new char[] { (char) value }, 1));
+		} else {
+			this.mContainers[i] = this.mContainers[i].add(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Add the tiles pMinY to pMaxY of one column.
+	 * @param pZoom
+	 * @param pX
+	 * @param pMinY
+	 * @param pMaxY
+	 * @return this TileSet
+	 */
+	public TileSet addRange(final int pZoom, final int pX, final int pMinY, final int pMaxY) {
+		int y = pMinY;
+		while (y <= pMaxY) {
+			// one block at a time
+			final int end = Math.min(pMaxY, y | LOW_MASK);
+			final long block = TileKey.pack(pZoom, pX, y) >>> LOW_BITS;
+			int i = (this.mCount > 0 && this.mBlocks[this.mCount - 1] == block) ? this.mCount - 1
+					: Arrays.binarySearch(this.mBlocks, 0, this.mCount, block);
+			if (i < 0) {
+				i = -i - 1;
+				final char[] run = { (char) (y & LOW_MASK), (char) (end & LOW_MASK) };
+				insert(i, block, RoaringContainer.fromRuns(run, 1));
+			} else {
+				this.mContainers[i] = this.mContainers[i].addRange(y & LOW_MASK, end & LOW_MASK, scratch());
+			}
+			y = end + 1;
+		}
+		return this;
+	}
+
+	/**
+	 * @param pKey packed {@link TileKey}
+	 * @return this TileSet
+	 */
+	public TileSet remove(final long pKey) {
+		final int i = Arrays.binarySearch(this.mBlocks, 0, this.mCount, pKey >>> LOW_BITS);
+		if (i >= 0) {
+			final RoaringContainer container = this.mContainers[i].remove((int) (pKey & LOW_MASK), scratch());
+			if (container != null) {
+				this.mContainers[i] = container;
+			} else {
+				System.arraycopy(this.mBlocks, i + 1, this.mBlocks, i, this.mCount - i - 1);
+				System.arraycopy(this.mContainers, i + 1, this.mContainers, i, this.mCount - i - 1);
+				this.mContainers[--this.mCount] = null;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @param pOther
+	 * @return a new set of the tiles in either set.
+	 */
+	public TileSet union(final TileSet pOther) {
+		final TileSet result = new TileSet(new long[this.mCount + pOther.mCount],
+				new RoaringContainer[this.mCount + pOther.mCount], 0);
+		final char[][] scratch = scratch();
+		int i = 0;
+		int j = 0;
+		while (i < this.mCount || j < pOther.mCount) {
+			if (j == pOther.mCount || (i < this.mCount && this.mBlocks[i] < pOther.mBlocks[j])) {
+				result.append(this.mBlocks[i], this.mContainers[i].copy());
+				i++;
+			} else if (i == this.mCount || pOther.mBlocks[j] < this.mBlocks[i]) {
+				result.append(pOther.mBlocks[j], pOther.mContainers[j].copy());
+				j++;
+			} else {
+				result.append(this.mBlocks[i], RoaringContainer.or(this.mContainers[i], pOther.mContainers[j], scratch));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param pOther
+	 * @return a new set of the tiles in both sets.
+	 */
+	public TileSet intersection(final TileSet pOther) {
+		final TileSet result = new TileSet(new long[Math.min(this.mCount, pOther.mCount)],
+				new RoaringContainer[Math.min(this.mCount, pOther.mCount)], 0);
+		final char[][] scratch = scratch();
+		int i = 0;
+		int j = 0;
+		while (i < this.mCount && j < pOther.mCount) {
+			if (this.mBlocks[i] < pOther.mBlocks[j]) {
+				i++;
+			} else if (pOther.mBlocks[j] < this.mBlocks[i]) {
+				j++;
+			} else {
+				result.append(this.mBlocks[i], RoaringContainer.and(this.mContainers[i], pOther.mContainers[j], scratch));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param pOther
+	 * @return a new set of the tiles in this set but not in the other.
+	 */
+	public TileSet difference(final TileSet pOther) {
+		final TileSet result = new TileSet(new long[this.mCount], new RoaringContainer[this.mCount], 0);
+		final char[][] scratch = scratch();
+		int j = 0;
+		for (int i = 0; i < this.mCount; i++) {
+			while (j < pOther.mCount && pOther.mBlocks[j] < this.mBlocks[i]) {
+				j++;
+			}
+			if (j < pOther.mCount && pOther.mBlocks[j] == this.mBlocks[i]) {
+				result.append(this.mBlocks[i],
+						RoaringContainer.andNot(this.mContainers[i], pOther.mContainers[j], scratch));
+			} else {
+				result.append(this.mBlocks[i], this.mContainers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new cursor positioned at the first tile of the set.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @return a range of exactly the tiles in this set, from its lowest to its highest zoom level, or an empty range.
+	 */
+	public TileRange toTileRange() {
+		if (this.mCount == 0) {
+			return new TileRange(0, -1, new int[0], new int[0], new int[0], new int[0]);
+		}
+		final TileRange.Builder builder = new TileRange.Builder(zoomOf(this.mBlocks[0]),
+				zoomOf(this.mBlocks[this.mCount - 1]));
+		final char[] runs = scratch()[0];
+		for (int i = 0; i < this.mCount; i++) {
+			final long first = this.mBlocks[i] << LOW_BITS;
+			final int zoom = TileKey.zoom(first);
+			final int x = TileKey.x(first);
+			final int y = TileKey.y(first);
+			final int n = this.mContainers[i].runs(runs);
+			for (int r = 0; r < n; r++) {
+				builder.addSpan(zoom, x, y + runs[2 * r], y + runs[2 * r + 1]);
+			}
+		}
+		return builder.build();
+	}
+
+	@Override
+	public String toString() {
+		return "TileSet[" + cardinality() + " tiles in " + this.mCount + " blocks, " + getSizeInBytes() + " bytes]";
+	}
+
+	private void insert(final int pIndex, final long pBlock, final RoaringContainer pContainer) {
+		if (this.mCount == this.mBlocks.length) {
+			final int capacity = Math.max(4, this.mCount * 2);
+			this.mBlocks = Arrays.copyOf(this.mBlocks, capacity);
+			this.mContainers = Arrays.copyOf(this.mContainers, capacity);
+		}
+		System.arraycopy(this.mBlocks, pIndex, this.mBlocks, pIndex + 1, this.mCount - pIndex);
+		System.arraycopy(this.mContainers, pIndex, this.mContainers, pIndex + 1, this.mCount - pIndex);
+		this.mBlocks[pIndex] = pBlock;
+		this.mContainers[pIndex] = pContainer;
+		this.mCount++;
+	}
+
+	/**
+	 * Add a block after all others; empty results of set operations are left out.
+	 */
+	private void append(final long pBlock, final RoaringContainer pContainer) {
+		if (pContainer != null) {
+			insert(this.mCount, pBlock, pContainer);
+		}
+	}
+
+	private int firstBlockAt(final int pZoom) {
+		final int i = Arrays.binarySearch(this.mBlocks, 0, this.mCount, TileKey.pack(pZoom, 0, 0) >>> LOW_BITS);
+		return (i >= 0) ? i : -i - 1;
+	}
+
+	private static int zoomOf(final long pBlock) {
+		return TileKey.zoom(pBlock << LOW_BITS);
+	}
+
+	private char[][] scratch() {
+		if (this.mScratch == null) {
+			this.mScratch = new char[][] { new char[RoaringContainer.RUNS_LENGTH],
+					new char[RoaringContainer.RUNS_LENGTH], new char[RoaringContainer.RUNS_LENGTH] };
+		}
+		return this.mScratch;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Walks the set in zoom, x, y order. The set must not change while it is being walked.
+	 */
+	public class Cursor {
+		private int mBlock = 0;
+		private int mNext;
+
+		private Cursor() {
+			this.mNext = (mCount > 0) ? mContainers[0].nextValue(0) : -1;
+		}
+
+		public boolean hasNext() {
+			return this.mNext >= 0;
+		}
+
+		public long next() {
+			if (this.mNext < 0) {
+				throw new NoSuchElementException();
+			}
+			final long key = (mBlocks[this.mBlock] << LOW_BITS) | this.mNext;
+			this.mNext = (this.mNext < LOW_MASK) ? mContainers[this.mBlock].nextValue(this.mNext + 1) : -1;
+			if (this.mNext < 0 && ++this.mBlock < mCount) {
+				this.mNext = mContainers[this.mBlock].nextValue(0);
+			}
+			return key;
+		}
+	}
+}
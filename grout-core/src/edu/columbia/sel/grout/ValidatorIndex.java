@@ -0,0 +1,174 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) that the server sent with each tile of a {@link TileRange},
+ * so that a later refresh can ask for the tile only if it has changed.
+ *
+ * Like the {@link TileJournal}, the index is a memory-mapped file with a fixed-size record per tile, indexed by the
+ * tile's ordinal within the range, so looking up or storing a tile's validators never allocates or searches. Each
+ * record holds the Last-Modified time in seconds and an ETag of up to {@link #MAX_ETAG_LENGTH} bytes; longer ETags
+ * are not kept, leaving only the Last-Modified time to validate with.
+ *
+ * An index written for a different range is discarded when opened.
+ */
+public class ValidatorIndex {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int MAX_ETAG_LENGTH = 59;
+
+	private static final int MAGIC = 0x47525631; // "GRV1"
+	private static final int HEADER_SIZE = 4 + 8 + 8;
+	private static final int RECORD_SIZE = 4 + 1 + MAX_ETAG_LENGTH;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mRecords;
+	private final long mTileCount;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private ValidatorIndex(final RandomAccessFile pFile, final MappedByteBuffer pRecords, final long pTileCount) {
+		this.mFile = pFile;
+		this.mRecords = pRecords;
+		this.mTileCount = pTileCount;
+	}
+
+	/**
+	 * Open the index for a range, creating it, or replacing it if it was written for a different range.
+	 *
+	 * @param pFile
+	 * @param pRange
+	 * @return ValidatorIndex
+	 * @throws IOException
+	 */
+	public static ValidatorIndex open(final File pFile, final TileRange pRange) throws IOException {
+		final long tileCount = pRange.size();
+		if (tileCount > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+			throw new IOException("Too many tiles to index: " + tileCount);
+		}
+		final int length = HEADER_SIZE + (int) tileCount * RECORD_SIZE;
+		final long fingerprint = pRange.fingerprint();
+
+		final RandomAccessFile file = new RandomAccessFile(pFile, "rw");
+		try {
+			boolean valid = file.length() == length;
+			if (valid) {
+				valid = file.readInt() == MAGIC && file.readLong() == tileCount && file.readLong() == fingerprint;
+			}
+			if (!valid) {
+				file.setLength(0);
+				file.setLength(length);
+				file.seek(0);
+				file.writeInt(MAGIC);
+				file.writeLong(tileCount);
+				file.writeLong(fingerprint);
+			}
+			final MappedByteBuffer records = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			return new ValidatorIndex(file, records, tileCount);
+		} catch (final IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @param pOrdinal the tile's ordinal within the range
+	 * @return the tile's ETag, or null if none is known.
+	 */
+	public String getETag(final long pOrdinal) {
+		if (pOrdinal < 0 || pOrdinal >= this.mTileCount) {
+			return null;
+		}
+		final int offset = offset(pOrdinal);
+		final byte[] etag;
+		synchronized (this) {
+			final int length = this.mRecords.get(offset + 4) & 0xFF;
+			if (length == 0 || length > MAX_ETAG_LENGTH) {
+				return null;
+			}
+			etag = new byte[length];
+			for (int i = 0; i < length; i++) {
+				etag[i] = this.mRecords.get(offset + 5 + i);
+			}
+		}
+		return new String(etag, ASCII);
+	}
+
+	/**
+	 * @param pOrdinal the tile's ordinal within the range
+	 * @return the tile's Last-Modified time in milliseconds since the epoch, or 0 if none is known.
+	 */
+	public synchronized long getLastModified(final long pOrdinal) {
+		if (pOrdinal < 0 || pOrdinal >= this.mTileCount) {
+			return 0;
+		}
+		return (this.mRecords.getInt(offset(pOrdinal)) & 0xFFFFFFFFL) * 1000L;
+	}
+
+	/**
+	 * Store the validators a server sent with a tile, replacing any stored before.
+	 *
+	 * @param pOrdinal the tile's ordinal within the range
+	 * @param pETag may be null
+	 * @param pLastModified milliseconds since the epoch, or 0 if unknown
+	 */
+	public void put(final long pOrdinal, final String pETag, final long pLastModified) {
+		if (pOrdinal < 0 || pOrdinal >= this.mTileCount) {
+			return;
+		}
+		final byte[] etag = (pETag != null) ? pETag.getBytes(ASCII) : null;
+		final int length = (etag != null && etag.length <= MAX_ETAG_LENGTH) ? etag.length : 0;
+		final int offset = offset(pOrdinal);
+		synchronized (this) {
+			this.mRecords.putInt(offset, (int) Math.max(0, pLastModified / 1000L));
+			this.mRecords.put(offset + 4, (byte) length);
+			for (int i = 0; i < length; i++) {
+				this.mRecords.put(offset + 5 + i, etag[i]);
+			}
+		}
+	}
+
+	/**
+	 * Forget a tile's validators, so it is fetched unconditionally next time.
+	 * @param pOrdinal the tile's ordinal within the range
+	 */
+	public void clear(final long pOrdinal) {
+		put(pOrdinal, null, 0);
+	}
+
+	public synchronized void close() throws IOException {
+		this.mRecords.force();
+		this.mFile.close();
+	}
+
+	private static int offset(final long pOrdinal) {
+		return HEADER_SIZE + (int) pOrdinal * RECORD_SIZE;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.event;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns a stream of finished tiles into progress events at a bounded rate.
+ *
+ * Workers only bump a counter; the first tile after a quiet period schedules one delivery, no sooner than the
+ * interval after the previous one, and every tile finished before it runs is reported in that single event. A
+ * download of thousands of tiles per second thus costs the listener's thread a handful of events per second, and the
+ * workers nothing but an atomic increment.
+ */
+public class CoalescingProgressDispatcher {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final EventDispatcher mDispatcher;
+	private final long mIntervalMillis;
+	private final Listener mListener;
+
+	private final AtomicInteger mPending = new AtomicInteger();
+	private final AtomicBoolean mScheduled = new AtomicBoolean();
+	private volatile long mLastDeliveryMillis = 0;
+
+	private final Runnable mDelivery = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * @param pDispatcher delivers the progress events
+	 * @param pIntervalMillis minimum time between two events, e.g. 100 for at most 10 per second
+	 * @param pListener
+	 */
+	public CoalescingProgressDispatcher(final EventDispatcher pDispatcher, final long pIntervalMillis,
+			final Listener pListener) {
+		this.mDispatcher = pDispatcher;
+		this.mIntervalMillis = Math.max(0, pIntervalMillis);
+		this.mListener = pListener;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Count finished tiles; safe to call from any thread.
+	 * @param pTiles
+	 */
+	public void add(final int pTiles) {
+		this.mPending.addAndGet(pTiles);
+		if (this.mScheduled.compareAndSet(false, true)) {
+			final long wait = this.mLastDeliveryMillis + this.mIntervalMillis - System.currentTimeMillis();
+			if (wait > 0) {
+				this.mDispatcher.dispatchDelayed(this.mDelivery, wait);
+			} else {
+				this.mDispatcher.dispatch(this.mDelivery);
+			}
+		}
+	}
+
+	/**
+	 * Deliver whatever has been counted without waiting for the interval, e.g. ahead of a completion event; since the
+	 * dispatcher keeps events in order, the listener sees the final count first.
+	 */
+	public void flush() {
+		this.mDispatcher.dispatch(this.mDelivery);
+	}
+
+	private void deliver() {
+		// clear the flag before taking the count, so a tile counted after this point schedules another delivery
+		this.mScheduled.set(false);
+		this.mLastDeliveryMillis = System.currentTimeMillis();
+		final int tiles = this.mPending.getAndSet(0);
+		if (tiles > 0) {
+			this.mListener.onProgress(tiles);
+		}
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	public interface Listener {
+		/**
+		 * Called on the dispatcher's thread.
+		 * @param pTiles tiles finished since the previous call
+		 */
+		public void onProgress(int pTiles);
+	}
+}
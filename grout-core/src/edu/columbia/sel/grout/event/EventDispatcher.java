@@ -0,0 +1,32 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.event;
+
+/**
+ * Delivers events to listeners on a thread of the dispatcher's choosing, so that download workers never call into
+ * application code themselves. Events dispatched from one thread are delivered in the order they were dispatched.
+ */
+public interface EventDispatcher {
+	/**
+	 * Run an event as soon as possible.
+	 * @param pEvent
+	 */
+	public void dispatch(Runnable pEvent);
+
+	/**
+	 * Run an event after a delay.
+	 * @param pEvent
+	 * @param pDelayMillis
+	 */
+	public void dispatchDelayed(Runnable pEvent, long pDelayMillis);
+
+	/**
+	 * Stop delivering events; events already dispatched may be dropped.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.event;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers events on a single daemon thread, or on a given scheduled executor, for use outside Android.
+ */
+public class ExecutorEventDispatcher implements EventDispatcher {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final ScheduledExecutorService mExecutor;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public ExecutorEventDispatcher() {
+		this(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable pRunnable) {
+				final Thread thread = new Thread(pRunnable, "grout-events");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * @param pExecutor should run one event at a time if listeners rely on events arriving in order
+	 */
+	public ExecutorEventDispatcher(final ScheduledExecutorService pExecutor) {
+		this.mExecutor = pExecutor;
+	}
+
+	// ===========================================================
+	// Methods from/for SuperClass/Interfaces
+	// ===========================================================
+
+	public void dispatch(final Runnable pEvent) {
+		try {
+			this.mExecutor.execute(pEvent);
+		} catch (final RejectedExecutionException e) {
+			// shut down; nobody is listening any more
+		}
+	}
+
+	public void dispatchDelayed(final Runnable pEvent, final long pDelayMillis) {
+		try {
+			this.mExecutor.schedule(pEvent, pDelayMillis, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			// shut down; nobody is listening any more
+		}
+	}
+
+	public void shutdown() {
+		this.mExecutor.shutdown();
+	}
+}
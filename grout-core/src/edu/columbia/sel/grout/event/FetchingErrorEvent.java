@@ -0,0 +1,38 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout.event;
+
+import edu.columbia.sel.grout.FetchFailure;
+import edu.columbia.sel.grout.OSMTileInfo;
+
+public class FetchingErrorEvent {
+	public static final int INVALID_REGION = 1;
+	public static final int MAX_REGION_SIZE_EXCEEDED = 2;
+	public static final int ALREADY_RUNNING = 3;
+	// A tile was given up on; see tile, failure and attempts
+	public static final int TILE_FAILED = 4;
+	// The output archive could not be written or finished
+	public static final int PACKAGING_FAILED = 5;
+	
+	public int cause;
+	
+	public OSMTileInfo tile;
+	public FetchFailure failure;
+	public int attempts;
+	
+	public FetchingErrorEvent(int cause) {
+		this.cause = cause;
+	}
+	
+	public FetchingErrorEvent(OSMTileInfo pTile, FetchFailure pFailure, int pAttempts) {
+		this.cause = TILE_FAILED;
+		this.tile = pTile;
+		this.failure = pFailure;
+		this.attempts = pAttempts;
+	}
+}
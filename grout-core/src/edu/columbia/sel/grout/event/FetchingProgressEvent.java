@@ -0,0 +1,25 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout.event;
+
+public class FetchingProgressEvent {
+	public int total;
+	public int completed;
+	public float percent;
+	// Of the completed tiles: fetched and stored, already stored and skipped, and given up on
+	public long downloaded;
+	public long skipped;
+	public long failed;
+	// Failed fetches that were scheduled to be tried again
+	public long retried;
+	public long bytes;
+	public int concurrencyLimit;
+	// When refreshing: tiles the server sent again because they changed, and tiles it confirmed are unchanged
+	public int changed;
+	public int unchanged;
+}
@@ -0,0 +1,45 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.http;
+
+import java.io.IOException;
+
+/**
+ * Fetches tiles over HTTP for the DownloadManager.
+ *
+ * Implementations are shared by all download workers and must be thread-safe. They are expected to reuse connections
+ * to a host between requests and to cap how many connections they hold open to any one host.
+ */
+public interface TileHttpClient {
+	/**
+	 * Fetch a single tile, reading the whole response body.
+	 *
+	 * @param pURL
+	 * @return the response; check {@link TileResponse#isSuccessful()} before using the data.
+	 * @throws IOException if no response could be read at all.
+	 */
+	public TileResponse fetch(String pURL) throws IOException;
+
+	/**
+	 * Fetch a single tile only if it has changed since it was last fetched. If the server finds that it has not, the
+	 * response is {@link TileResponse#NOT_MODIFIED} and carries no data.
+	 *
+	 * @param pURL
+	 * @param pETag the ETag the tile was last served with, or null
+	 * @param pIfModifiedSince the Last-Modified time the tile was last served with, in milliseconds since the epoch,
+	 *            or 0
+	 * @return the response, with the tile's new validators if it was sent.
+	 * @throws IOException if no response could be read at all.
+	 */
+	public TileResponse fetch(String pURL, String pETag, long pIfModifiedSince) throws IOException;
+
+	/**
+	 * Release any pooled connections.
+	 */
+	public void close();
+}
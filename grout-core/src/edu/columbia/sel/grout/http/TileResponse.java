@@ -0,0 +1,51 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.http;
+
+public class TileResponse {
+	public static final int NOT_MODIFIED = 304;
+	public static final int TOO_MANY_REQUESTS = 429;
+
+	public int code;
+	public byte[] data;
+	// Validators sent with the tile, for a later conditional fetch
+	public String etag;
+	public long lastModified;
+	// How long the server asked us to wait before the next request, from a Retry-After header; 0 if it did not
+	public long retryAfterMillis;
+	// How long the fetch spent connecting, waiting for the first byte and reading the rest; 0 if not measured
+	public long connectNanos;
+	public long firstByteNanos;
+	public long transferNanos;
+
+	public TileResponse() {
+	}
+
+	public TileResponse(int pCode, byte[] pData) {
+		code = pCode;
+		data = pData;
+	}
+
+	public boolean isSuccessful() {
+		return code >= 200 && code < 300 && data != null;
+	}
+
+	/**
+	 * @return true if a conditional fetch found that the tile has not changed.
+	 */
+	public boolean isNotModified() {
+		return code == NOT_MODIFIED;
+	}
+
+	/**
+	 * @return true if the server says we are sending requests too fast.
+	 */
+	public boolean isTooManyRequests() {
+		return code == TOO_MANY_REQUESTS;
+	}
+}
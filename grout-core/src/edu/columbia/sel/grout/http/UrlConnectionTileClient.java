@@ -0,0 +1,206 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link TileHttpClient} built on the platform's HttpURLConnection.
+ *
+ * HttpURLConnection keeps a connection alive and returns it to the platform's pool as long as the response body is
+ * read to the end and the stream is closed rather than the connection disconnected, so that is what every fetch does,
+ * for error responses too. A semaphore per host caps the number of concurrent requests, and therefore connections, to
+ * that host. On Android the platform client also negotiates SPDY/HTTP/2 with servers that offer it.
+ *
+ * The platform pool itself is shared by the whole process and only keeps http.maxConnections (default 5) idle
+ * connections per host; connections beyond that are closed after use. The pool reads that property once, when it is
+ * first used, so an application that wants more than 5 connections per host kept alive sets it at startup, for
+ * example with -Dhttp.maxConnections=8. This client leaves process-wide settings alone; a client sized with
+ * {@link #getPlatformKeepAliveLimit()} never opens more connections to a host than the pool keeps.
+ */
+public class UrlConnectionTileClient implements TileHttpClient {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+	public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	// The platform pool's own default for http.maxConnections
+	private static final int PLATFORM_KEEP_ALIVE_DEFAULT = 5;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final int mMaxConnectionsPerHost;
+	private final ConcurrentMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	private int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public UrlConnectionTileClient() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	public UrlConnectionTileClient(final int pMaxConnectionsPerHost) {
+		this.mMaxConnectionsPerHost = pMaxConnectionsPerHost;
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the number of idle connections per host the platform pool keeps alive (http.maxConnections)
+	 */
+	public static int getPlatformKeepAliveLimit() {
+		final int limit = Integer.getInteger("http.maxConnections", PLATFORM_KEEP_ALIVE_DEFAULT).intValue();
+		return (limit > 0) ? limit : PLATFORM_KEEP_ALIVE_DEFAULT;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return mMaxConnectionsPerHost;
+	}
+
+	public int getConnectTimeout() {
+		return mConnectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.mConnectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return mReadTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.mReadTimeout = readTimeout;
+	}
+
+	// ===========================================================
+	// Methods from SuperClass/Interfaces
+	// ===========================================================
+
+	public TileResponse fetch(final String pURL) throws IOException {
+		return fetch(pURL, null, 0);
+	}
+
+	public TileResponse fetch(final String pURL, final String pETag, final long pIfModifiedSince)
+			throws IOException {
+		final URL url = new URL(pURL);
+		final Semaphore permits = permitsFor(url);
+		permits.acquireUninterruptibly();
+		try {
+			final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setConnectTimeout(this.mConnectTimeout);
+			conn.setReadTimeout(this.mReadTimeout);
+			conn.setUseCaches(false);
+			if (pETag != null) {
+				conn.setRequestProperty("If-None-Match", pETag);
+			}
+			if (pIfModifiedSince > 0) {
+				conn.setIfModifiedSince(pIfModifiedSince);
+			}
+
+			// connect explicitly so the phases can be timed apart; a kept-alive connection connects at once
+			final long start = System.nanoTime();
+			conn.connect();
+			final long connected = System.nanoTime();
+			final int code = conn.getResponseCode();
+			final long firstByte = System.nanoTime();
+			final InputStream in = (code < 400) ? conn.getInputStream() : conn.getErrorStream();
+			final byte[] data = readFully(in, conn.getContentLength());
+			final TileResponse response = new TileResponse(code, (code < 400 && code != TileResponse.NOT_MODIFIED)
+					? data : null);
+			response.connectNanos = connected - start;
+			response.firstByteNanos = firstByte - connected;
+			response.transferNanos = System.nanoTime() - firstByte;
+			response.etag = conn.getHeaderField("ETag");
+			response.lastModified = conn.getLastModified();
+			response.retryAfterMillis = parseRetryAfter(conn);
+			return response;
+		} finally {
+			permits.release();
+		}
+	}
+
+	public void close() {
+		this.mHostPermits.clear();
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	private Semaphore permitsFor(final URL pURL) {
+		final String host = pURL.getHost() + ":" + pURL.getPort();
+		Semaphore permits = this.mHostPermits.get(host);
+		if (permits == null) {
+			final Semaphore created = new Semaphore(this.mMaxConnectionsPerHost);
+			permits = this.mHostPermits.putIfAbsent(host, created);
+			if (permits == null) {
+				permits = created;
+			}
+		}
+		return permits;
+	}
+
+	/**
+	 * @return the wait a Retry-After header asks for, given either in seconds or as an HTTP date, or 0 if there is
+	 *         none.
+	 */
+	private static long parseRetryAfter(final HttpURLConnection pConn) {
+		final String value = pConn.getHeaderField("Retry-After");
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * 1000L);
+		} catch (final NumberFormatException e) {
+			final long date = pConn.getHeaderFieldDate("Retry-After", 0);
+			return (date > 0) ? Math.max(0, date - System.currentTimeMillis()) : 0;
+		}
+	}
+
+	/**
+	 * Drain and close the stream so the connection goes back to the keep-alive pool.
+	 */
+	private static byte[] readFully(final InputStream pIn, final int pContentLength) throws IOException {
+		if (pIn == null) {
+			return null;
+		}
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(pContentLength > 0 ? pContentLength
+					: BUFFER_SIZE);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = pIn.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			pIn.close();
+		}
+	}
+}
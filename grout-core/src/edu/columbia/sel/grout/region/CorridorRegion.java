@@ -0,0 +1,104 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.region;
+
+import edu.columbia.sel.grout.TileRange;
+
+/**
+ * The area within a distance of a polyline, such as a road or a river, given as alternating latitudes and
+ * longitudes (lat0, lon0, lat1, lon1, ...).
+ *
+ * The buffer is the union of a quadrilateral along each segment and a polygon around each point, which are
+ * rasterized like any other polygons. Round caps are approximated by polygons drawn around the circle, so the
+ * corridor is never narrower than asked. Distances are converted to map units at each point's latitude, which is
+ * accurate for buffers much smaller than the distance to the poles.
+ */
+public class CorridorRegion implements Region {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Sides of the polygons that stand in for the round caps
+	private static final int CAP_SIDES = 16;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final double mBufferMeters;
+	private final PolygonRegion mPieces = new PolygonRegion();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * @param pPath at least one point
+	 * @param pBufferMeters distance on either side of the path
+	 */
+	public CorridorRegion(final double[] pPath, final double pBufferMeters) {
+		if (pPath.length < 2 || !(pBufferMeters >= 0)) {
+			throw new IllegalArgumentException("A corridor needs a path and a buffer of zero or more meters");
+		}
+		this.mBufferMeters = pBufferMeters;
+
+		final double[] path = Mercator.project(pPath);
+		final int points = path.length / 2;
+		final double[] radius = new double[points];
+		for (int i = 0; i < points; i++) {
+			radius[i] = pBufferMeters * Mercator.metersToUnits(pPath[2 * i]);
+			this.mPieces.addProjected(cap(path[2 * i], path[2 * i + 1], radius[i]));
+		}
+		for (int i = 0; i + 1 < points; i++) {
+			final double ax = path[2 * i];
+			final double ay = path[2 * i + 1];
+			final double bx = path[2 * i + 2];
+			final double by = path[2 * i + 3];
+			final double length = Math.hypot(bx - ax, by - ay);
+			if (length == 0) {
+				continue;
+			}
+			// unit normal to the segment
+			final double nx = -(by - ay) / length;
+			final double ny = (bx - ax) / length;
+			this.mPieces.addProjected(new double[] { ax + nx * radius[i], ay + ny * radius[i],
+					bx + nx * radius[i + 1], by + ny * radius[i + 1], bx - nx * radius[i + 1], by - ny * radius[i + 1],
+					ax - nx * radius[i], ay - ny * radius[i] });
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public double getBufferMeters() {
+		return this.mBufferMeters;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public void rasterize(final int pZoom, final TileRange.Builder pBuilder) {
+		this.mPieces.rasterize(pZoom, pBuilder);
+	}
+
+	/**
+	 * @return a polygon around the circle at (pX, pY), its sides touching the circle.
+	 */
+	private static double[] cap(final double pX, final double pY, final double pRadius) {
+		final double[] ring = new double[2 * CAP_SIDES];
+		final double corner = pRadius / Math.cos(Math.PI / CAP_SIDES);
+		for (int i = 0; i < CAP_SIDES; i++) {
+			final double angle = 2 * Math.PI * i / CAP_SIDES;
+			ring[2 * i] = pX + corner * Math.cos(angle);
+			ring[2 * i + 1] = pY + corner * Math.sin(angle);
+		}
+		return ring;
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.region;
+
+/**
+ * The spherical Web Mercator projection that tiles are cut from, scaled so the world is the unit square: x grows
+ * eastward from the antimeridian and y southward from the northern edge of the map. At zoom z, multiplying by 2^z
+ * gives tile coordinates, the same as {@link edu.columbia.sel.grout.util.TileUtils#getMapTileFromCoordinates}.
+ */
+final class Mercator {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// The latitude at which the map is square
+	static final double MAX_LATITUDE = 85.05112878;
+
+	static final double EARTH_CIRCUMFERENCE = 2 * Math.PI * 6378137;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private Mercator() {
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	static double x(final double pLongitude) {
+		return (pLongitude + 180) / 360;
+	}
+
+	static double y(final double pLatitude) {
+		final double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, pLatitude)));
+		return (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+	}
+
+	/**
+	 * @return how long a meter on the ground is on the unit square at the given latitude.
+	 */
+	static double metersToUnits(final double pLatitude) {
+		final double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, pLatitude));
+		return 1 / (EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(lat)));
+	}
+
+	/**
+	 * Project a ring given as alternating latitudes and longitudes.
+	 * @param pRing lat0, lon0, lat1, lon1, ...
+	 * @return x0, y0, x1, y1, ... on the unit square
+	 */
+	static double[] project(final double[] pRing) {
+		if (pRing.length < 2 || pRing.length % 2 != 0) {
+			throw new IllegalArgumentException("Coordinates must be pairs of latitude and longitude");
+		}
+		final double[] projected = new double[pRing.length];
+		for (int i = 0; i < pRing.length; i += 2) {
+			projected[i] = x(pRing[i + 1]);
+			projected[i + 1] = y(pRing[i]);
+		}
+		return projected;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.region;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.columbia.sel.grout.TileRange;
+
+/**
+ * One or more polygons, each with an outer ring and any number of holes. Rings are given as alternating latitudes
+ * and longitudes (lat0, lon0, lat1, lon1, ...), closed implicitly, in either winding order.
+ *
+ * The polygons of a multipolygon may overlap; a tile is in the region if any of them touches it. Edges are straight
+ * on the map, as they are drawn, rather than along great circles.
+ */
+public class PolygonRegion implements Region {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// Each polygon's rings, projected onto the unit square
+	private final List<double[][]> mPolygons = new ArrayList<double[][]>();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * An empty region; add polygons with {@link #addPolygon(double[], double[]...)}.
+	 */
+	public PolygonRegion() {
+	}
+
+	public PolygonRegion(final double[] pOuter, final double[]... pHoles) {
+		addPolygon(pOuter, pHoles);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public int getPolygonCount() {
+		return this.mPolygons.size();
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Add a polygon to the region, making it a multipolygon.
+	 * @param pOuter at least three points
+	 * @param pHoles
+	 * @return this PolygonRegion
+	 */
+	public PolygonRegion addPolygon(final double[] pOuter, final double[]... pHoles) {
+		if (pOuter.length < 6) {
+			throw new IllegalArgumentException("A polygon needs at least three points");
+		}
+		final double[][] rings = new double[1 + pHoles.length][];
+		rings[0] = Mercator.project(pOuter);
+		for (int i = 0; i < pHoles.length; i++) {
+			rings[i + 1] = Mercator.project(pHoles[i]);
+		}
+		this.mPolygons.add(rings);
+		return this;
+	}
+
+	/**
+	 * Add a polygon already projected onto the unit square.
+	 */
+	void addProjected(final double[]... pRings) {
+		this.mPolygons.add(pRings);
+	}
+
+	public void rasterize(final int pZoom, final TileRange.Builder pBuilder) {
+		// polygons are rasterized one by one and their tiles merged, so overlaps do not cancel out as holes would
+		for (final double[][] rings : this.mPolygons) {
+			ScanlineRasterizer.rasterize(rings, pZoom, pBuilder);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.region;
+
+import edu.columbia.sel.grout.TileRange;
+
+/**
+ * An area to download tiles for, which knows the tiles it touches at any zoom level.
+ *
+ * @see TileRange#fromRegion(Region, int, int)
+ */
+public interface Region {
+	/**
+	 * Add the tiles that the region touches at the given zoom level, as spans of columns.
+	 * @param pZoom
+	 * @param pBuilder
+	 */
+	public void rasterize(int pZoom, TileRange.Builder pBuilder);
+}
@@ -0,0 +1,289 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.region;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import edu.columbia.sel.grout.TileRange;
+
+/**
+ * Finds the tiles that a polygon touches, one column of tiles at a time.
+ *
+ * Within a column, the polygon covers what its edges cross, plus what lies inside it along the column's left and
+ * right borders, which is found by counting edge crossings (even-odd, so holes are left out). The union of those
+ * intervals is exactly where the polygon meets the column: every piece of the polygon inside the column is bounded
+ * by them. Edges are sorted by their western end and kept in an active list while the sweep passes over them, so
+ * each column only looks at the edges that reach into it.
+ */
+final class ScanlineRasterizer {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// Edges in tile coordinates, each stored west to east
+	private final double[] mX0;
+	private final double[] mY0;
+	private final double[] mX1;
+	private final double[] mY1;
+	private final int mEdgeCount;
+
+	// Edge indices by western end, and the ones reaching into the current column
+	private final int[] mOrder;
+	private final int[] mActive;
+	private int mActiveCount = 0;
+
+	// Intervals of y the polygon covers in the current column
+	private double[] mLow = new double[16];
+	private double[] mHigh = new double[16];
+	private int mIntervalCount = 0;
+
+	// Crossings along the current column's left and right borders
+	private double[] mLeft = new double[16];
+	private double[] mRight = new double[16];
+	private int mLeftCount = 0;
+	private int mRightCount = 0;
+
+	// Tile spans of the current column
+	private int[] mSpanMin = new int[16];
+	private int[] mSpanMax = new int[16];
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private ScanlineRasterizer(final double[][] pRings, final double pScale) {
+		int edges = 0;
+		for (final double[] ring : pRings) {
+			edges += ring.length / 2;
+		}
+		this.mX0 = new double[edges];
+		this.mY0 = new double[edges];
+		this.mX1 = new double[edges];
+		this.mY1 = new double[edges];
+
+		int e = 0;
+		for (final double[] ring : pRings) {
+			final int n = ring.length;
+			for (int i = 0; i < n; i += 2) {
+				// rings are closed implicitly; an explicitly repeated first point adds a harmless empty edge
+				final double ax = ring[i] * pScale;
+				final double ay = ring[i + 1] * pScale;
+				final double bx = ring[(i + 2) % n] * pScale;
+				final double by = ring[(i + 3) % n] * pScale;
+				final boolean eastward = ax <= bx;
+				this.mX0[e] = eastward ? ax : bx;
+				this.mY0[e] = eastward ? ay : by;
+				this.mX1[e] = eastward ? bx : ax;
+				this.mY1[e] = eastward ? by : ay;
+				e++;
+			}
+		}
+		this.mEdgeCount = edges;
+		this.mOrder = sortByWesternEnd(this.mX0);
+		this.mActive = new int[edges];
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Add the tiles that a polygon touches at the given zoom level.
+	 * @param pRings the outer ring and any holes, each as x0, y0, x1, y1, ... on the unit square
+	 * @param pZoom
+	 * @param pBuilder
+	 */
+	static void rasterize(final double[][] pRings, final int pZoom, final TileRange.Builder pBuilder) {
+		final double scale = 1L << pZoom;
+		final ScanlineRasterizer rasterizer = new ScanlineRasterizer(pRings, scale);
+		if (rasterizer.mEdgeCount > 0) {
+			rasterizer.sweep(pZoom, (int) scale - 1, pBuilder);
+		}
+	}
+
+	private void sweep(final int pZoom, final int pLastTile, final TileRange.Builder pBuilder) {
+		double west = Double.MAX_VALUE;
+		double east = -Double.MAX_VALUE;
+		for (int e = 0; e < this.mEdgeCount; e++) {
+			west = Math.min(west, this.mX0[e]);
+			east = Math.max(east, this.mX1[e]);
+		}
+		// a polygon ending exactly on a column border does not reach into the next column
+		final int first = (int) Math.max(0, Math.floor(west));
+		final int last = (int) Math.min(pLastTile, Math.max(Math.floor(west), Math.ceil(east) - 1));
+
+		int next = 0;
+		this.mRightCount = crossings(first, true);
+		swapBorders();
+		for (int column = first; column <= last; column++) {
+			final double left = column;
+			final double right = column + 1;
+
+			// activate edges starting before the right border, retire those ending before the left one
+			while (next < this.mEdgeCount && this.mX0[this.mOrder[next]] <= right) {
+				this.mActive[this.mActiveCount++] = this.mOrder[next++];
+			}
+			int kept = 0;
+			for (int a = 0; a < this.mActiveCount; a++) {
+				if (this.mX1[this.mActive[a]] >= left) {
+					this.mActive[kept++] = this.mActive[a];
+				}
+			}
+			this.mActiveCount = kept;
+
+			// the edges' pieces within the column
+			this.mIntervalCount = 0;
+			for (int a = 0; a < this.mActiveCount; a++) {
+				final int e = this.mActive[a];
+				if (this.mX0[e] == this.mX1[e]) {
+					addInterval(this.mY0[e], this.mY1[e]);
+				} else {
+					addInterval(yAt(e, Math.max(left, this.mX0[e])), yAt(e, Math.min(right, this.mX1[e])));
+				}
+			}
+
+			// the inside of the polygon along both borders
+			this.mRightCount = crossings(right, false);
+			addInsides(this.mLeft, this.mLeftCount);
+			addInsides(this.mRight, this.mRightCount);
+			swapBorders();
+
+			emitColumn(pZoom, column, pBuilder);
+		}
+	}
+
+	/**
+	 * Collect the y of every edge crossing the vertical line at pX into mRight, sorted. An edge crosses if the line
+	 * is within [x0, x1), so a vertex on the line is counted once and vertical edges not at all.
+	 * @param pAll whether to look at all edges rather than only the active ones
+	 * @return the number of crossings
+	 */
+	private int crossings(final double pX, final boolean pAll) {
+		int count = 0;
+		final int n = pAll ? this.mEdgeCount : this.mActiveCount;
+		for (int a = 0; a < n; a++) {
+			final int e = pAll ? a : this.mActive[a];
+			if (this.mX0[e] <= pX && pX < this.mX1[e]) {
+				if (count == this.mRight.length) {
+					this.mRight = Arrays.copyOf(this.mRight, count * 2);
+				}
+				this.mRight[count++] = yAt(e, pX);
+			}
+		}
+		Arrays.sort(this.mRight, 0, count);
+		return count;
+	}
+
+	/**
+	 * Make the right border's crossings the left border's, for the next column.
+	 */
+	private void swapBorders() {
+		final double[] left = this.mLeft;
+		this.mLeft = this.mRight;
+		this.mLeftCount = this.mRightCount;
+		this.mRight = left;
+		this.mRightCount = 0;
+	}
+
+	private void addInsides(final double[] pYs, final int pCount) {
+		for (int i = 0; i + 1 < pCount; i += 2) {
+			addInterval(pYs[i], pYs[i + 1]);
+		}
+	}
+
+	private void addInterval(final double pA, final double pB) {
+		if (this.mIntervalCount == this.mLow.length) {
+			this.mLow = Arrays.copyOf(this.mLow, this.mIntervalCount * 2);
+			this.mHigh = Arrays.copyOf(this.mHigh, this.mIntervalCount * 2);
+		}
+		this.mLow[this.mIntervalCount] = Math.min(pA, pB);
+		this.mHigh[this.mIntervalCount] = Math.max(pA, pB);
+		this.mIntervalCount++;
+	}
+
+	/**
+	 * Turn the column's intervals into tiles, merge them, and hand the spans to the builder.
+	 */
+	private void emitColumn(final int pZoom, final int pColumn, final TileRange.Builder pBuilder) {
+		final int n = this.mIntervalCount;
+		if (n == 0) {
+			return;
+		}
+		if (this.mSpanMin.length < n) {
+			this.mSpanMin = new int[this.mLow.length];
+			this.mSpanMax = new int[this.mLow.length];
+		}
+		for (int i = 0; i < n; i++) {
+			// an interval ending exactly on a tile border does not reach into the next tile
+			final double low = Math.floor(this.mLow[i]);
+			final double high = Math.floor(this.mHigh[i]);
+			this.mSpanMin[i] = (int) low;
+			this.mSpanMax[i] = (int) ((high == this.mHigh[i] && high > this.mLow[i]) ? high - 1 : high);
+		}
+
+		// insertion sort by first tile; columns rarely hold more than a handful of intervals
+		for (int i = 1; i < n; i++) {
+			final int min = this.mSpanMin[i];
+			final int max = this.mSpanMax[i];
+			int j = i - 1;
+			while (j >= 0 && this.mSpanMin[j] > min) {
+				this.mSpanMin[j + 1] = this.mSpanMin[j];
+				this.mSpanMax[j + 1] = this.mSpanMax[j];
+				j--;
+			}
+			this.mSpanMin[j + 1] = min;
+			this.mSpanMax[j + 1] = max;
+		}
+
+		int min = this.mSpanMin[0];
+		int max = this.mSpanMax[0];
+		for (int i = 1; i < n; i++) {
+			if (this.mSpanMin[i] <= max + 1) {
+				max = Math.max(max, this.mSpanMax[i]);
+			} else {
+				pBuilder.addSpan(pZoom, pColumn, min, max);
+				min = this.mSpanMin[i];
+				max = this.mSpanMax[i];
+			}
+		}
+		pBuilder.addSpan(pZoom, pColumn, min, max);
+	}
+
+	private double yAt(final int pEdge, final double pX) {
+		final double x0 = this.mX0[pEdge];
+		final double x1 = this.mX1[pEdge];
+		if (pX <= x0) {
+			return this.mY0[pEdge];
+		}
+		if (pX >= x1) {
+			return this.mY1[pEdge];
+		}
+		return this.mY0[pEdge] + (pX - x0) * (this.mY1[pEdge] - this.mY0[pEdge]) / (x1 - x0);
+	}
+
+	/**
+	 * @return edge indices ordered by their western end.
+	 */
+	private static int[] sortByWesternEnd(final double[] pX0) {
+		final Integer[] edges = new Integer[pX0.length];
+		for (int e = 0; e < edges.length; e++) {
+			edges[e] = e;
+		}
+		Arrays.sort(edges, new Comparator<Integer>() {
+			public int compare(final Integer pA, final Integer pB) {
+				return Double.compare(pX0[pA], pX0[pB]);
+			}
+		});
+		final int[] order = new int[edges.length];
+		for (int e = 0; e < edges.length; e++) {
+			order[e] = edges[e];
+		}
+		return order;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Funnels tiles from any number of threads to a sink that must only be written by one thread, such as an archive.
+ *
+ * Tiles are handed to a single writer thread through a bounded queue; put() blocks while the queue is full, so a slow
+ * disk holds back the downloads instead of filling memory. If the writer fails, every later put() and close() throws
+ * a {@link SinkFailedException}, and the {@link FailureListener} hears of the tile that failed and of every tile put()
+ * had already accepted that is dropped after it.
+ */
+public class AsyncTileSink implements TileSink {
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final Item END = new Item(-1, null);
+
+	private final TileSink mDelegate;
+	private final BlockingQueue<Item> mQueue;
+	private final Thread mWriter;
+	private volatile IOException mFailure;
+	private volatile FailureListener mFailureListener;
+
+	public AsyncTileSink(final TileSink pDelegate) {
+		this(pDelegate, DEFAULT_CAPACITY);
+	}
+
+	public AsyncTileSink(final TileSink pDelegate, final int pCapacity) {
+		this.mDelegate = pDelegate;
+		this.mQueue = new ArrayBlockingQueue<Item>(pCapacity);
+		this.mWriter = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "grout-sink-writer");
+		this.mWriter.setDaemon(true);
+		this.mWriter.start();
+	}
+
+	public void setFailureListener(final FailureListener pListener) {
+		this.mFailureListener = pListener;
+	}
+
+	public boolean contains(final long pKey) {
+		return this.mDelegate.contains(pKey);
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		checkFailure();
+		try {
+			this.mQueue.put(new Item(pKey, pData));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing tile");
+		}
+	}
+
+	/**
+	 * Write out the queued tiles, then close the underlying sink.
+	 */
+	public void close() throws IOException {
+		boolean interrupted = false;
+		boolean ended = false;
+		while (true) {
+			try {
+				if (!ended) {
+					this.mQueue.put(END);
+					ended = true;
+				}
+				this.mWriter.join();
+				break;
+			} catch (final InterruptedException e) {
+				// the archive must be finished even if we are being cancelled
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			checkFailure();
+		} finally {
+			this.mDelegate.close();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (this.mFailure != null) {
+			throw new SinkFailedException(this.mFailure);
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final Item item;
+			try {
+				item = this.mQueue.take();
+			} catch (final InterruptedException e) {
+				continue;
+			}
+			if (item == END) {
+				return;
+			}
+			if (this.mFailure == null) {
+				try {
+					this.mDelegate.put(item.key, item.data);
+					continue;
+				} catch (final IOException e) {
+					this.mFailure = e;
+				}
+			}
+			final FailureListener listener = this.mFailureListener;
+			if (listener != null) {
+				listener.onCommitFailed(item.key, this.mFailure);
+			}
+		}
+	}
+
+	/**
+	 * Hears of tiles that put() accepted but that never reached the underlying sink. Called on the writer thread.
+	 */
+	public interface FailureListener {
+		/**
+		 * @param pKey packed {@link edu.columbia.sel.grout.TileKey}
+		 * @param pError the writer's failure
+		 */
+		public void onCommitFailed(long pKey, IOException pError);
+	}
+
+	private static class Item {
+		final long key;
+		final byte[] data;
+
+		Item(final long pKey, final byte[] pData) {
+			this.key = pKey;
+			this.data = pData;
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.util.Log;
+import edu.columbia.sel.grout.util.TileCacheVerifier;
+
+/**
+ * Writes each tile to its own file, at a path built from a template with zoom, x and y placeholders (for example
+ * "/sdcard/osmdroid/tiles/OfflineTiles/%d/%d/%d.png.tile").
+ *
+ * A tile is first written to a temporary file next to its final path, which is kept open until its batch is
+ * committed. A commit syncs the batch's files together, renames them into place, then syncs each x folder the batch
+ * touched once, which makes the renames durable. A tile file that exists was therefore completely written, even
+ * after a power loss: the last batch is lost but no torn tile is left behind, and {@link TileCacheVerifier} cleans up
+ * the stray temporary files. Only then is the {@link CommitListener} told the tile is committed.
+ *
+ * {@link #setSyncData(boolean)} can leave the tiles' data to the operating system's write-back instead, which is
+ * faster but lets a power loss leave a renamed tile empty or torn; the listener then hears of no commits, since none
+ * is safe to rely on.
+ *
+ * A tile whose commit fails is reported to the put() that stored it if that call is the one committing the batch,
+ * and otherwise to the {@link CommitListener}, since its put() has long returned.
+ */
+public class DirectoryTileSink implements TileSink {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private static final String TAG = DirectoryTileSink.class.getCanonicalName();
+
+	// Key of no tile, for commits that are not on behalf of a put()
+	private static final long NO_TILE = -1;
+
+	// Cleared on platforms that cannot open a folder to sync it, such as Android before API 26
+	private static volatile boolean sDirectorySyncSupported = true;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final String mPathTemplate;
+	private final int mBatchSize;
+
+	// Tiles written to their temporary files but not yet renamed into place; guarded by this
+	private List<Pending> mPending;
+
+	private volatile CommitListener mCommitListener;
+	private volatile boolean mSyncData = true;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public DirectoryTileSink(final String pPathTemplate) {
+		this(pPathTemplate, DEFAULT_BATCH_SIZE);
+	}
+
+	public DirectoryTileSink(final String pPathTemplate, final int pBatchSize) {
+		this.mPathTemplate = pPathTemplate;
+		this.mBatchSize = Math.max(1, pBatchSize);
+		this.mPending = new ArrayList<Pending>(this.mBatchSize);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public File getFile(final long pKey) {
+		return new File(String.format(this.mPathTemplate, TileKey.zoom(pKey), TileKey.x(pKey), TileKey.y(pKey)));
+	}
+
+	/**
+	 * @param pListener told about each tile once its file is durably in place, if the data is synced
+	 */
+	public void setCommitListener(final CommitListener pListener) {
+		this.mCommitListener = pListener;
+	}
+
+	public boolean isSyncData() {
+		return this.mSyncData;
+	}
+
+	/**
+	 * Must be set before the first put().
+	 * @param pSyncData whether to sync the tiles' data to disk before renaming them into place, so committed tiles
+	 *            also survive a power loss; default true
+	 */
+	public void setSyncData(final boolean pSyncData) {
+		this.mSyncData = pSyncData;
+	}
+
+	// ===========================================================
+	// Methods from SuperClass/Interfaces
+	// ===========================================================
+
+	public boolean contains(final long pKey) {
+		return getFile(pKey).exists();
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		final File file = getFile(pKey);
+		final File temp = new File(file.getPath() + TileCacheVerifier.TEMP_SUFFIX);
+		file.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(temp);
+		boolean written = false;
+		try {
+			out.write(pData);
+			written = true;
+		} finally {
+			// a file to be synced stays open until its batch is committed
+			if (!written || !this.mSyncData) {
+				out.close();
+			}
+		}
+
+		List<Pending> batch = null;
+		synchronized (this) {
+			this.mPending.add(new Pending(pKey, temp, file, this.mSyncData ? out : null));
+			if (this.mPending.size() >= this.mBatchSize) {
+				batch = this.mPending;
+				this.mPending = new ArrayList<Pending>(this.mBatchSize);
+			}
+		}
+		if (batch != null) {
+			commit(batch, pKey);
+		}
+	}
+
+	/**
+	 * Commit the tiles still pending.
+	 * @throws IOException if a tile could not be committed and there is no CommitListener to report it to
+	 */
+	public void close() throws IOException {
+		final List<Pending> batch;
+		synchronized (this) {
+			batch = this.mPending;
+			this.mPending = new ArrayList<Pending>(this.mBatchSize);
+		}
+		commit(batch, NO_TILE);
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Sync the data of every file of the batch, rename them into place, then sync each folder they are in once.
+	 * @param pCaller the tile whose put() is committing the batch, or NO_TILE
+	 * @throws IOException the caller's tile failed, or a tile failed on close and there is no listener
+	 */
+	private void commit(final List<Pending> pBatch, final long pCaller) throws IOException {
+		final CommitListener listener = this.mCommitListener;
+		IOException failure = null;
+		final Map<File, List<Pending>> folders = new LinkedHashMap<File, List<Pending>>();
+		for (final Pending pending : pBatch) {
+			if (pending.out != null) {
+				try {
+					try {
+						pending.out.getFD().sync();
+					} finally {
+						pending.out.close();
+					}
+				} catch (final IOException e) {
+					pending.temp.delete();
+					failure = fail(pending.key, e, listener, pCaller, failure);
+					continue;
+				}
+			}
+			// renameTo replaces an existing file on POSIX systems, but not everywhere
+			if (!pending.temp.renameTo(pending.file) && !(pending.file.delete() && pending.temp.renameTo(pending.file))) {
+				pending.temp.delete();
+				failure = fail(pending.key, new IOException("Could not move " + pending.temp + " into place"),
+						listener, pCaller, failure);
+				continue;
+			}
+			List<Pending> folder = folders.get(pending.file.getParentFile());
+			if (folder == null) {
+				folder = new ArrayList<Pending>();
+				folders.put(pending.file.getParentFile(), folder);
+			}
+			folder.add(pending);
+		}
+
+		for (final Map.Entry<File, List<Pending>> folder : folders.entrySet()) {
+			IOException error = null;
+			try {
+				syncDirectory(folder.getKey());
+			} catch (final IOException e) {
+				error = e;
+			}
+			for (final Pending pending : folder.getValue()) {
+				if (error != null) {
+					failure = fail(pending.key, error, listener, pCaller, failure);
+				} else if (listener != null && pending.out != null) {
+					listener.onCommitted(pending.key);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Report a tile that could not be committed to whoever stored it.
+	 * @return the failure the committing call has to throw, if any.
+	 */
+	private static IOException fail(final long pKey, final IOException pError, final CommitListener pListener,
+			final long pCaller, final IOException pFailure) {
+		if (pKey == pCaller) {
+			return pError;
+		}
+		if (pListener != null) {
+			pListener.onCommitFailed(pKey, pError);
+			return pFailure;
+		}
+		Log.e(TAG, "Could not commit " + TileKey.toString(pKey) + ": " + pError);
+		return (pCaller == NO_TILE && pFailure == null) ? pError : pFailure;
+	}
+
+	/**
+	 * Sync a folder, so that the renames within it are on disk.
+	 * @throws IOException if the folder was opened but could not be synced
+	 */
+	private static void syncDirectory(final File pFolder) throws IOException {
+		if (!sDirectorySyncSupported) {
+			return;
+		}
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(pFolder.toPath(), StandardOpenOption.READ);
+		} catch (final IOException e) {
+			// some platforms, such as Windows, cannot open a folder; renames there are as durable as they get
+			return;
+		} catch (final LinkageError e) {
+			sDirectorySyncSupported = false;
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Told about tiles once they are durably stored, which may be well after put() returned.
+	 */
+	public interface CommitListener {
+		/**
+		 * @param pKey packed {@link TileKey}
+		 */
+		public void onCommitted(long pKey);
+
+		/**
+		 * Told about a tile that could not be committed after its put() returned.
+		 * @param pKey packed {@link TileKey}
+		 * @param pError
+		 */
+		public void onCommitFailed(long pKey, IOException pError);
+	}
+
+	private static class Pending {
+		final long key;
+		final File temp;
+		final File file;
+		// open until the data is synced, or null if it is not to be
+		final FileOutputStream out;
+
+		Pending(final long pKey, final File pTemp, final File pFile, final FileOutputStream pOut) {
+			this.key = pKey;
+			this.temp = pTemp;
+			this.file = pFile;
+			this.out = pOut;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.util.GemfWriter;
+
+/**
+ * Streams tiles straight into a GEMF archive through {@link GemfWriter}. The range of tiles being downloaded fixes the
+ * archive's range table up front, so each tile is written exactly once, in whatever order it arrives.
+ *
+ * Not thread-safe; wrap it in an {@link AsyncTileSink} to feed it from several threads.
+ */
+public class GemfTileSink implements TileSink {
+	private final GemfWriter mWriter;
+
+	/**
+	 * @param pDestinationFile
+	 * @param pSourceName name of the tile source recorded in the archive
+	 * @param pRange the tiles that will be put
+	 * @throws IOException
+	 */
+	public GemfTileSink(final File pDestinationFile, final String pSourceName, final TileRange pRange)
+			throws IOException {
+		this.mWriter = new GemfWriter(pDestinationFile, pSourceName, pRange);
+	}
+
+	public boolean contains(final long pKey) {
+		return false;
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		this.mWriter.put(pKey, pData);
+	}
+
+	public void close() throws IOException {
+		this.mWriter.close();
+	}
+}
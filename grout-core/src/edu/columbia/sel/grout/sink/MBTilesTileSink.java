@@ -0,0 +1,61 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.util.MBTilesWriter;
+
+/**
+ * Streams tiles straight into an MBTiles file through {@link MBTilesWriter}, storing identical images only once.
+ *
+ * Not thread-safe; wrap it in an {@link AsyncTileSink} to feed it from several threads.
+ */
+public class MBTilesTileSink implements TileSink {
+	private final MBTilesWriter mWriter;
+
+	public MBTilesTileSink(final File pDestinationFile) throws IOException {
+		try {
+			this.mWriter = new MBTilesWriter(pDestinationFile);
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("SQLite JDBC driver not available: " + e);
+		} catch (final SQLException e) {
+			throw new IOException("Could not create " + pDestinationFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Metadata must be set before the sink is handed to the DownloadManager.
+	 */
+	public void setMetadata(final String pName, final String pValue) {
+		this.mWriter.setMetadata(pName, pValue);
+	}
+
+	public boolean contains(final long pKey) {
+		return false;
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		try {
+			this.mWriter.putTile(TileKey.zoom(pKey), TileKey.x(pKey), TileKey.y(pKey), pData);
+		} catch (final SQLException e) {
+			throw new IOException("Could not store " + TileKey.toString(pKey) + ": " + e);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			this.mWriter.close();
+		} catch (final SQLException e) {
+			throw new IOException("Could not close tile store: " + e);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a sink that failed earlier and can take no more tiles, such as an archive whose writer hit a full disk;
+ * retrying the tile cannot help. The original failure is the cause.
+ */
+public class SinkFailedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public SinkFailedException(final IOException pCause) {
+		super("Tile sink failed: " + pCause.getMessage(), pCause);
+	}
+}
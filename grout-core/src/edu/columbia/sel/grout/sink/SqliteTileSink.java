@@ -0,0 +1,56 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.util.DbCreator;
+
+/**
+ * Streams tiles straight into a SQLite tile store through {@link DbCreator}.
+ *
+ * Not thread-safe; wrap it in an {@link AsyncTileSink} to feed it from several threads.
+ */
+public class SqliteTileSink implements TileSink {
+	private final DbCreator mDb;
+	private final String mProvider;
+
+	public SqliteTileSink(final File pDestinationFile, final String pProvider) throws IOException {
+		this.mProvider = pProvider;
+		try {
+			this.mDb = new DbCreator(pDestinationFile);
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("SQLite JDBC driver not available: " + e);
+		} catch (final SQLException e) {
+			throw new IOException("Could not create " + pDestinationFile + ": " + e);
+		}
+	}
+
+	public boolean contains(final long pKey) {
+		return false;
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		try {
+			this.mDb.putTile(TileKey.zoom(pKey), TileKey.x(pKey), TileKey.y(pKey), this.mProvider, pData);
+		} catch (final SQLException e) {
+			throw new IOException("Could not store " + TileKey.toString(pKey) + ": " + e);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			this.mDb.close();
+		} catch (final SQLException e) {
+			throw new IOException("Could not close tile store: " + e);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.IOException;
+
+/**
+ * Destination for downloaded tiles: a folder tree, or an archive that is written as the tiles arrive.
+ *
+ * The DownloadManager hands every fetched tile to its sink exactly once, from any of its worker threads, and closes
+ * the sink once the download has finished or been cancelled.
+ */
+public interface TileSink {
+	/**
+	 * @param pKey packed {@link edu.columbia.sel.grout.TileKey}
+	 * @return true if the sink already holds the tile, so it does not need to be fetched.
+	 */
+	public boolean contains(long pKey);
+
+	/**
+	 * Store a tile.
+	 * @param pKey packed {@link edu.columbia.sel.grout.TileKey}
+	 * @param pData the tile image, exactly as served
+	 * @throws IOException
+	 */
+	public void put(long pKey, byte[] pData) throws IOException;
+
+	/**
+	 * Finish writing; no tiles may be put afterwards.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
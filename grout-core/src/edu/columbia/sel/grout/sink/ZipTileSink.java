@@ -0,0 +1,45 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.util.ZipArchiveWriter;
+
+/**
+ * Streams tiles straight into a zip archive, one entry per tile, named from a template with zoom, x and y
+ * placeholders laid out the same way as the folder tree {@link edu.columbia.sel.grout.util.FolderZipper} would zip.
+ * PNG and JPEG tiles are stored as they are; anything else is deflated.
+ *
+ * Not thread-safe; wrap it in an {@link AsyncTileSink} to feed it from several threads.
+ */
+public class ZipTileSink implements TileSink {
+	private final ZipArchiveWriter mZip;
+	private final String mEntryTemplate;
+
+	public ZipTileSink(final File pDestinationFile, final String pEntryTemplate) throws IOException {
+		this.mEntryTemplate = pEntryTemplate;
+		this.mZip = new ZipArchiveWriter(new FileOutputStream(pDestinationFile));
+	}
+
+	public boolean contains(final long pKey) {
+		return false;
+	}
+
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		final String name = String.format(this.mEntryTemplate, TileKey.zoom(pKey), TileKey.x(pKey), TileKey.y(pKey));
+		this.mZip.write(ZipArchiveWriter.prepare(name, pData, System.currentTimeMillis()));
+	}
+
+	public void close() throws IOException {
+		this.mZip.close();
+	}
+}
@@ -0,0 +1,415 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Knows which tiles a folder laid out as folder/zoom/x/y.ext holds, and how many bytes they take, without walking
+ * the whole tree each time it is asked.
+ *
+ * The inventory is kept per x folder, together with the folder's modification time, in a manifest file. Adding,
+ * removing or renaming a tile changes the time of the folder that holds it, so a refresh only lists the zoom folders
+ * and the x folders whose time changed, and takes everything else from the manifest. Listing uses
+ * {@link File#list()}, which only reads names: tile names say all there is to know about a tile except its size, and
+ * the size is only read for tiles in folders that changed. Folders are listed in parallel on a fork-join pool.
+ *
+ * A folder changed within the file system's timestamp resolution of the scan may change again without its time
+ * moving, so such folders are listed again on the next refresh rather than trusted.
+ *
+ * Thread-safe.
+ */
+public class CacheInventory {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final String TAG = CacheInventory.class.getCanonicalName();
+
+	private static final int MAGIC = 0x47524931; // "GRI1"
+
+	// Coarsest modification time resolution we expect of a file system (FAT has 2 seconds)
+	private static final long TIME_RESOLUTION_MILLIS = 2000;
+
+	// Modification time of a column that has to be listed again on the next refresh
+	private static final long UNTRUSTED = Long.MIN_VALUE;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final File mFolder;
+	private final File mManifest;
+	private final int mThreads;
+
+	// Columns by packed key of their top tile; null until the manifest has been read
+	private Map<Long, Column> mColumns;
+
+	private final long[] mCounts = new long[TileKey.MAX_ZOOM + 1];
+	private final long[] mBytes = new long[TileKey.MAX_ZOOM + 1];
+	private int mListedCount = 0;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	/**
+	 * @param pFolder the tile folder
+	 * @param pManifest where to keep the inventory between refreshes; null to list everything every time
+	 */
+	public CacheInventory(final File pFolder, final File pManifest) {
+		this(pFolder, pManifest, Runtime.getRuntime().availableProcessors());
+	}
+
+	public CacheInventory(final File pFolder, final File pManifest, final int pThreads) {
+		this.mFolder = pFolder;
+		this.mManifest = pManifest;
+		this.mThreads = pThreads;
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public File getFolder() {
+		return this.mFolder;
+	}
+
+	/**
+	 * @return the number of tiles found by the last refresh.
+	 */
+	public synchronized long getTileCount() {
+		long count = 0;
+		for (final long c : this.mCounts) {
+			count += c;
+		}
+		return count;
+	}
+
+	public synchronized long getTileCount(final int pZoom) {
+		return this.mCounts[pZoom];
+	}
+
+	/**
+	 * @return the size of the tiles found by the last refresh, in bytes.
+	 */
+	public synchronized long getBytes() {
+		long bytes = 0;
+		for (final long b : this.mBytes) {
+			bytes += b;
+		}
+		return bytes;
+	}
+
+	public synchronized long getBytes(final int pZoom) {
+		return this.mBytes[pZoom];
+	}
+
+	/**
+	 * @return how many x folders the last refresh had to list; the rest came from the manifest.
+	 */
+	public synchronized int getListedCount() {
+		return this.mListedCount;
+	}
+
+	/**
+	 * @return the tiles found by the last refresh.
+	 */
+	public synchronized TileSet getTiles() {
+		final TileSet tiles = new TileSet();
+		if (this.mColumns != null) {
+			for (final Column column : this.mColumns.values()) {
+				for (int i = 0; i < column.runs.length; i += 2) {
+					tiles.addRange(column.zoom, column.x, column.runs[i], column.runs[i + 1]);
+				}
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * @param pRange
+	 * @param pZoom
+	 * @return the share of the range's tiles at the zoom level that are cached, between 0 and 1.
+	 */
+	public double getCoverage(final TileRange pRange, final int pZoom) {
+		final long size = pRange.getLevelSize(pZoom);
+		if (size == 0) {
+			return 1;
+		}
+		return getTiles().intersection(TileSet.of(pRange)).cardinality(pZoom) / (double) size;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Bring the inventory up to date with the folder, listing only what changed since the last refresh, and save the
+	 * manifest if anything did.
+	 */
+	public synchronized void refresh() {
+		if (this.mColumns == null) {
+			this.mColumns = readManifest();
+		}
+		final long start = System.currentTimeMillis();
+		final Map<Long, Column> columns = new ConcurrentHashMap<Long, Column>();
+		final List<ZoomTask> tasks = new ArrayList<ZoomTask>();
+		final String[] names = this.mFolder.list();
+		if (names != null) {
+			for (final String name : names) {
+				final int zoom = TileUtils.isNumber(name) ? Integer.parseInt(name) : -1;
+				if (zoom >= 0 && zoom <= TileKey.MAX_ZOOM) {
+					tasks.add(new ZoomTask(zoom, new File(this.mFolder, name), start, columns));
+				}
+			}
+		}
+		if (!tasks.isEmpty()) {
+			final ForkJoinPool pool = new ForkJoinPool(this.mThreads);
+			try {
+				for (final ZoomTask task : tasks) {
+					pool.execute(task);
+				}
+				for (final ZoomTask task : tasks) {
+					task.join();
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		int listed = 0;
+		for (final ZoomTask task : tasks) {
+			listed += task.mListed;
+		}
+		final boolean changed = listed > 0 || columns.size() != this.mColumns.size();
+		this.mColumns = new TreeMap<Long, Column>(columns);
+		this.mListedCount = listed;
+		Arrays.fill(this.mCounts, 0);
+		Arrays.fill(this.mBytes, 0);
+		for (final Column column : this.mColumns.values()) {
+			this.mCounts[column.zoom] += column.count;
+			this.mBytes[column.zoom] += column.bytes;
+		}
+		if (changed && this.mManifest != null) {
+			writeManifest();
+		}
+	}
+
+	/**
+	 * @return the columns saved in the manifest, or none if there is no readable manifest.
+	 */
+	private Map<Long, Column> readManifest() {
+		final Map<Long, Column> columns = new TreeMap<Long, Column>();
+		if (this.mManifest == null || !this.mManifest.isFile()) {
+			return columns;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.mManifest)));
+			try {
+				if (in.readInt() != MAGIC) {
+					return columns;
+				}
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final int zoom = in.readInt();
+					final int x = in.readInt();
+					final long modified = in.readLong();
+					final long bytes = in.readLong();
+					final int[] runs = new int[in.readInt() * 2];
+					for (int r = 0; r < runs.length; r++) {
+						runs[r] = in.readInt();
+					}
+					columns.put(TileKey.pack(zoom, x, 0), new Column(zoom, x, modified, runs, bytes));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not read " + this.mManifest + ", listing all tiles: " + e);
+			columns.clear();
+		}
+		return columns;
+	}
+
+	/**
+	 * Write the manifest next to its final place and rename it there, so a crash leaves the old one behind.
+	 */
+	private void writeManifest() {
+		final File temp = new File(this.mManifest.getPath() + TileCacheVerifier.TEMP_SUFFIX);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(this.mColumns.size());
+				for (final Column column : this.mColumns.values()) {
+					out.writeInt(column.zoom);
+					out.writeInt(column.x);
+					out.writeLong(column.modified);
+					out.writeLong(column.bytes);
+					out.writeInt(column.runs.length / 2);
+					for (final int y : column.runs) {
+						out.writeInt(y);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			this.mManifest.delete();
+			if (!temp.renameTo(this.mManifest)) {
+				throw new IOException("Could not rename " + temp);
+			}
+		} catch (final IOException e) {
+			Log.e(TAG, "Could not write " + this.mManifest + ": " + e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * List a column's tiles.
+	 * @param pModified the folder's modification time, as it was before listing
+	 */
+	private static Column list(final int pZoom, final int pX, final File pFolder, final long pModified) {
+		final String[] names = pFolder.list();
+		final int[] ys = new int[(names != null) ? names.length : 0];
+		int count = 0;
+		long bytes = 0;
+		for (int i = 0; i < ys.length; i++) {
+			final int y = TileUtils.parseTileName(names[i]);
+			if (y >= 0) {
+				ys[count++] = y;
+				bytes += new File(pFolder, names[i]).length();
+			}
+		}
+
+		// keep the rows as runs of consecutive tiles
+		Arrays.sort(ys, 0, count);
+		int runCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || ys[i] > ys[i - 1] + 1) {
+				runCount++;
+			}
+		}
+		final int[] runs = new int[runCount * 2];
+		int r = -2;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || ys[i] > ys[i - 1] + 1) {
+				r += 2;
+				runs[r] = ys[i];
+			}
+			runs[r + 1] = ys[i];
+		}
+		return new Column(pZoom, pX, pModified, runs, bytes);
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * The tiles of one x folder, as runs of rows.
+	 */
+	private static class Column {
+		final int zoom;
+		final int x;
+		final long modified;
+		final int[] runs;
+		final long bytes;
+		final int count;
+
+		Column(final int pZoom, final int pX, final long pModified, final int[] pRuns, final long pBytes) {
+			zoom = pZoom;
+			x = pX;
+			modified = pModified;
+			runs = pRuns;
+			bytes = pBytes;
+			int tiles = 0;
+			for (int i = 0; i < pRuns.length; i += 2) {
+				tiles += pRuns[i + 1] - pRuns[i] + 1;
+			}
+			count = tiles;
+		}
+	}
+
+	/**
+	 * Lists a zoom folder, and the x folders in it that changed since the manifest was written.
+	 */
+	private class ZoomTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int mZoom;
+		private final File mZoomFolder;
+		private final long mStart;
+		private final Map<Long, Column> mResult;
+		private int mListed = 0;
+
+		ZoomTask(final int pZoom, final File pZoomFolder, final long pStart, final Map<Long, Column> pResult) {
+			this.mZoom = pZoom;
+			this.mZoomFolder = pZoomFolder;
+			this.mStart = pStart;
+			this.mResult = pResult;
+		}
+
+		@Override
+		protected void compute() {
+			final String[] names = this.mZoomFolder.list();
+			if (names == null) {
+				return;
+			}
+			final List<RecursiveAction> subtasks = new ArrayList<RecursiveAction>();
+			for (final String name : names) {
+				if (!TileUtils.isNumber(name)) {
+					continue;
+				}
+				final int x = Integer.parseInt(name);
+				final File folder = new File(this.mZoomFolder, name);
+				final long modified = folder.lastModified();
+				final Long key = TileKey.pack(this.mZoom, x, 0);
+				final Column known = CacheInventory.this.mColumns.get(key);
+				if (known != null && known.modified == modified) {
+					this.mResult.put(key, known);
+					continue;
+				}
+				// a folder that vanished has no time; one changed during the scan cannot be trusted next time
+				if (modified == 0) {
+					continue;
+				}
+				final long trusted = (modified >= this.mStart - TIME_RESOLUTION_MILLIS) ? UNTRUSTED : modified;
+				subtasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						mResult.put(key, list(mZoom, x, folder, trusted));
+					}
+				});
+			}
+			this.mListed = subtasks.size();
+			invokeAll(subtasks);
+		}
+	}
+}
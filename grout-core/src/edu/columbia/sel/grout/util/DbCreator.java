@@ -0,0 +1,144 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Writes tiles into a SQLite database with a single tiles(key, provider, tile) table, either from a folder of
+ * downloaded tiles or one tile at a time.
+ *
+ * The database is bulk loaded: inserts are batched and committed every batchSize tiles rather than one transaction
+ * (and fsync) per tile, with the rollback journal in memory and synchronous writes off while loading. The file is a
+ * fresh build output, so a crash mid-load means rebuilding it anyway; it is synced once on close.
+ */
+public class DbCreator
+{
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final int PAGE_SIZE = 4096;
+
+	private final Connection mConnection;
+	private final PreparedStatement mInsert;
+	private final int mBatchSize;
+	private int mPending = 0;
+
+	public DbCreator(final File pDestinationFile) throws ClassNotFoundException, SQLException
+	{
+		this(pDestinationFile, DEFAULT_BATCH_SIZE);
+	}
+
+	public DbCreator(final File pDestinationFile, final int pBatchSize) throws ClassNotFoundException, SQLException
+	{
+		mBatchSize = pBatchSize;
+		pDestinationFile.delete();
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite:" + pDestinationFile);
+		final Statement stat = mConnection.createStatement();
+		// page_size only takes effect before the first table is created
+		stat.execute("PRAGMA page_size = " + PAGE_SIZE);
+		stat.execute("PRAGMA journal_mode = MEMORY");
+		stat.execute("PRAGMA synchronous = OFF");
+		stat.execute("CREATE TABLE tiles (key INTEGER PRIMARY KEY, provider TEXT, tile BLOB)");
+		stat.close();
+		mConnection.setAutoCommit(false);
+		mInsert = mConnection.prepareStatement("insert into tiles values (?, ?, ?);");
+	}
+
+	public void putTile(final long z, final long x, final long y, final String provider, final byte[] image) throws SQLException
+	{
+		final long index = (((z << z) + x) << z) + y;
+		mInsert.setLong(1, index);
+		mInsert.setString(2, provider);
+		mInsert.setBytes(3, image);
+		mInsert.addBatch();
+		if (++mPending >= mBatchSize)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Write and commit the tiles batched so far.
+	 * @throws SQLException
+	 */
+	public void flush() throws SQLException
+	{
+		if (mPending > 0)
+		{
+			mInsert.executeBatch();
+			mConnection.commit();
+			mPending = 0;
+		}
+	}
+
+	public void close() throws SQLException
+	{
+		try
+		{
+			flush();
+			mConnection.setAutoCommit(true);
+			// one last small write with synchronous on makes SQLite fsync the file, covering everything loaded before
+			final Statement stat = mConnection.createStatement();
+			stat.execute("PRAGMA synchronous = FULL");
+			stat.execute("PRAGMA user_version = 1");
+			stat.close();
+		}
+		finally
+		{
+			mInsert.close();
+			mConnection.close();
+		}
+	}
+
+	public static void putFolderToDb(final File pDestinationFile, final File pFolderToPut) throws ClassNotFoundException, SQLException, FileNotFoundException, IOException
+	{
+		final DbCreator db = new DbCreator(pDestinationFile);
+		try
+		{
+			for(final File zf : pFolderToPut.listFiles())
+			{
+				for(final File xf : zf.listFiles())
+				{
+					for(final File yf : xf.listFiles())
+					{
+						if (TileCacheVerifier.isTempFile(yf.getName()))
+						{
+							continue;
+						}
+						// escaped path separator
+						// Windows -> \\
+						// Unix -> \/
+						final String[] s = yf.toString().split("\\" + File.separator);
+						final long z = Long.parseLong(s[s.length - 3]);
+						final long x = Long.parseLong(s[s.length - 2]);
+						final long y = Long.parseLong(s[s.length - 1].split(".png")[0]);
+						final String provider = s[s.length - 4];
+						final byte[] image = new byte[(int) yf.length()];
+						final FileInputStream str = new FileInputStream(yf);
+						str.read(image);
+						str.close();
+						db.putTile(z, x, y, provider, image);
+					}
+				}
+			}
+		}
+		finally
+		{
+			db.close();
+		}
+	}
+}
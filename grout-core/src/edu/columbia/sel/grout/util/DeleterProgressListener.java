@@ -0,0 +1,18 @@
+package edu.columbia.sel.grout.util;
+
+/**
+ * A DeleterListener that also hears how far the deletion has got, and whether it was cancelled.
+ */
+public interface DeleterProgressListener extends DeleterListener {
+	/**
+	 * Called at a bounded rate while files are being deleted, and once more when the deletion ends.
+	 * @param pFiles the number of files deleted so far
+	 * @param pBytes their total size
+	 */
+	public void onDeleteProgress(long pFiles, long pBytes);
+
+	/**
+	 * Called instead of onDeleteComplete if the deletion was cancelled; what is left stays on disk.
+	 */
+	public void onDeleteCancelled();
+}
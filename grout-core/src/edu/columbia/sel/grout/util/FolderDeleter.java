@@ -0,0 +1,349 @@
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.columbia.sel.grout.RateLimiter;
+import edu.columbia.sel.grout.event.EventDispatcher;
+
+/**
+ * FolderDeleter is a class used for... deleting... a folder. Oh, Java.
+ *
+ * The folder is first renamed aside, which takes it out of the way at once: a new download can start in its place
+ * while the old tiles are removed in the background. Files are then deleted by a few parallel workers, optionally
+ * held to a rate of files and bytes per second so the deletion leaves the disk to the app. Folders left aside by a
+ * deletion that was cancelled or cut short by the process dying are picked up by the next one.
+ *
+ * Listeners that implement {@link DeleterProgressListener} also hear the number of files and bytes deleted.
+ * @author Jonathan Wohl
+ *
+ */
+public class FolderDeleter implements DeleterProgressListener {
+
+	public static final int DEFAULT_THREAD_COUNT = 2;
+
+	// Least time between two progress events
+	public static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+	// Longest a worker waiting for the rate limit sleeps before it looks for a cancel
+	public static final long CANCEL_CHECK_MILLIS = 100;
+
+	// Name of a folder renamed aside is the folder's name, this and the time of the deletion
+	private static final String ASIDE_INFIX = ".deleting-";
+
+	private EventDispatcher mDispatcher;
+	private DeleterListener mDl;
+	private File mDir;
+
+	private int mThreadCount = DEFAULT_THREAD_COUNT;
+	private boolean mRenameAside = true;
+	private RateLimiter mFileRate;
+	private RateLimiter mByteRate;
+
+	private volatile boolean mCancelled = false;
+	private final AtomicLong mDeletedFiles = new AtomicLong();
+	private final AtomicLong mDeletedBytes = new AtomicLong();
+	private final AtomicLong mLastProgressNanos = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Construct the FolderDeleter.
+	 * @param dir
+	 * @param mDl
+	 * @param dispatcher delivers the completion or error to the listener
+	 */
+	public FolderDeleter(File dir, DeleterListener mDl, EventDispatcher dispatcher) {
+		this.mDl = mDl;
+		this.mDir = dir;
+		this.mDispatcher = dispatcher;
+	}
+
+	/**
+	 * Rename the folder aside, then create the deleter runnable and spawn the new deleter thread.
+	 */
+	public void start() {
+		onDeleteStart();
+		final List<File> dirs = new ArrayList<File>();
+		final File aside = new File(mDir.getPath() + ASIDE_INFIX + System.currentTimeMillis());
+		if (mRenameAside && mDir.exists() && mDir.renameTo(aside)) {
+			dirs.add(aside);
+		} else if (mDir.exists()) {
+			dirs.add(mDir);
+		}
+		dirs.addAll(findLeftovers(aside));
+		DeleterRunnable dr = new DeleterRunnable(dirs);
+		Thread thread = new Thread(dr);
+		thread.start();
+	}
+
+	/**
+	 * Stop deleting; files being deleted right now still go, and workers waiting for the rate limit give up within
+	 * {@link #CANCEL_CHECK_MILLIS}. The listener hears onDeleteCancelled once the workers have stopped, if it is a
+	 * DeleterProgressListener, and onDeleteError otherwise.
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	/**
+	 * @return folders renamed aside by earlier deletions of the same folder that never finished.
+	 */
+	private List<File> findLeftovers(final File pAside) {
+		final List<File> leftovers = new ArrayList<File>();
+		final File parent = mDir.getAbsoluteFile().getParentFile();
+		final String[] names = (parent != null) ? parent.list() : null;
+		if (names != null) {
+			final String prefix = mDir.getName() + ASIDE_INFIX;
+			for (final String name : names) {
+				if (name.startsWith(prefix) && !name.equals(pAside.getName())) {
+					leftovers.add(new File(parent, name));
+				}
+			}
+		}
+		return leftovers;
+	}
+
+
+
+
+	/*****************
+	 * GETTERS & SETTERS
+	 */
+
+	public DeleterListener getDeleterListener() {
+		return mDl;
+	}
+
+	public void setDeleterListener(DeleterListener mDl) {
+		this.mDl = mDl;
+	}
+
+	/**
+	 * @param threadCount number of files deleted at once; must be set before start()
+	 */
+	public void setThreadCount(int threadCount) {
+		this.mThreadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * @param renameAside whether to rename the folder aside before deleting it; must be set before start()
+	 */
+	public void setRenameAside(boolean renameAside) {
+		this.mRenameAside = renameAside;
+	}
+
+	/**
+	 * Limit how fast files are deleted; must be set before start().
+	 * @param filesPerSecond 0 for no limit
+	 * @param bytesPerSecond 0 for no limit
+	 */
+	public void setRateLimit(double filesPerSecond, long bytesPerSecond) {
+		this.mFileRate = (filesPerSecond > 0) ? new RateLimiter(filesPerSecond) : null;
+		this.mByteRate = (bytesPerSecond > 0) ? new RateLimiter(bytesPerSecond) : null;
+	}
+
+	public long getDeletedFileCount() {
+		return mDeletedFiles.get();
+	}
+
+	public long getDeletedBytes() {
+		return mDeletedBytes.get();
+	}
+
+
+
+
+	/*****************
+	 * LISTENERS
+	 */
+
+	public void onDeleteStart() {
+		if (mDl != null) {
+			mDl.onDeleteStart();
+		}
+	}
+
+	public void onDeleteComplete() {
+		if (mDl != null) {
+			mDl.onDeleteComplete();
+		}
+	}
+
+	public void onDeleteError() {
+		if (mDl != null) {
+			mDl.onDeleteError();
+		}
+	}
+
+	public void onDeleteProgress(long pFiles, long pBytes) {
+		if (mDl instanceof DeleterProgressListener) {
+			((DeleterProgressListener) mDl).onDeleteProgress(pFiles, pBytes);
+		}
+	}
+
+	public void onDeleteCancelled() {
+		if (mDl instanceof DeleterProgressListener) {
+			((DeleterProgressListener) mDl).onDeleteCancelled();
+		} else {
+			onDeleteError();
+		}
+	}
+
+	/**
+	 * Deliver the progress so far, unless the last delivery was too recent.
+	 * @param pForce deliver regardless
+	 */
+	private void dispatchProgress(final boolean pForce) {
+		final long now = System.nanoTime();
+		final long last = mLastProgressNanos.get();
+		if (!pForce && (now - last < TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MILLIS)
+				|| !mLastProgressNanos.compareAndSet(last, now))) {
+			return;
+		}
+		mDispatcher.dispatch(new Runnable() {
+			public void run() {
+				onDeleteProgress(mDeletedFiles.get(), mDeletedBytes.get());
+			}
+		});
+	}
+
+
+
+	/******************
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * DeleterRunnable is a directory deleter designed to run on a separate thread so as not to block the main thread.
+	 * @author Jonathan Wohl
+	 *
+	 */
+	public class DeleterRunnable implements Runnable {
+
+		private List<File> dirs;
+
+		public DeleterRunnable(List<File> dirs) {
+			this.dirs = dirs;
+		}
+
+		/**
+		 * Delete a directory and its contents on the worker pool. Returns true on success, false
+		 * otherwise.
+		 *
+		 * @param dir
+		 * @param pool
+		 * @return boolean
+		 */
+		public boolean deleteDirectory(File dir, ForkJoinPool pool) {
+			if (dir.isDirectory()) {
+				pool.invoke(new FolderTask(dir));
+			} else {
+				dir.delete();
+			}
+			// a folder that is already gone counts as deleted
+			return !dir.exists();
+		}
+
+		public void run() {
+			boolean deleted = true;
+			final ForkJoinPool pool = new ForkJoinPool(mThreadCount);
+			try {
+				for (final File dir : this.dirs) {
+					deleted &= deleteDirectory(dir, pool);
+				}
+			} finally {
+				pool.shutdown();
+			}
+			dispatchProgress(true);
+			final boolean success = deleted;
+			mDispatcher.dispatch(new Runnable() {
+				public void run() {
+					if (mCancelled) {
+						onDeleteCancelled();
+					} else if (success) {
+						onDeleteComplete();
+					} else {
+						onDeleteError();
+					}
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Deletes a folder's files, then its subfolders in parallel, then the folder itself.
+	 */
+	private class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File mFolder;
+
+		FolderTask(final File pFolder) {
+			this.mFolder = pFolder;
+		}
+
+		@Override
+		protected void compute() {
+			final File[] children = this.mFolder.listFiles();
+			if (children == null) {
+				return;
+			}
+			final List<FolderTask> subtasks = new ArrayList<FolderTask>();
+			for (final File child : children) {
+				if (mCancelled) {
+					return;
+				}
+				if (child.isDirectory()) {
+					subtasks.add(new FolderTask(child));
+				} else {
+					delete(child);
+				}
+			}
+			invokeAll(subtasks);
+			if (!mCancelled) {
+				this.mFolder.delete();
+			}
+		}
+
+		private void delete(final File pFile) {
+			final long length = pFile.length();
+			try {
+				if (!await(mFileRate, 1) || !await(mByteRate, length)) {
+					return;
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				mCancelled = true;
+				return;
+			}
+			if (pFile.delete()) {
+				mDeletedFiles.incrementAndGet();
+				mDeletedBytes.addAndGet(length);
+				dispatchProgress(false);
+			}
+		}
+
+		/**
+		 * Take permits from the limiter and wait for them in short slices, so that a cancel does not have to wait out
+		 * the debt of a large file.
+		 * @param pRate null for no limit
+		 * @return false if the deletion was cancelled meanwhile
+		 */
+		private boolean await(final RateLimiter pRate, final long pPermits) throws InterruptedException {
+			if (pRate == null) {
+				return !mCancelled;
+			}
+			final long until = System.nanoTime() + pRate.reserve(pPermits);
+			long waitNanos;
+			while (!mCancelled && (waitNanos = until - System.nanoTime()) > 0) {
+				TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(CANCEL_CHECK_MILLIS)));
+			}
+			return !mCancelled;
+		}
+	}
+}
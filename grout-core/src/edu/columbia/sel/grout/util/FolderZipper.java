@@ -0,0 +1,164 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Zips a folder of tiles.
+ *
+ * Entries are read and compressed on a fork-join pool, one task per file, and appended to the archive in order by a
+ * single writer. Files are handed to the pool as the folder is walked, and a bounded window of pending tasks holds
+ * the walk back, so memory use stays flat however many tiles there are. Tiles that are already compressed images
+ * are stored rather than deflated.
+ */
+public class FolderZipper {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Entries compressed ahead of the writer, per thread
+	private static final int WINDOW_PER_THREAD = 16;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	// ===========================================================
+	// Methods from SuperClass/Interfaces
+	// ===========================================================
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public static void zipFolderToFile(final File pDestinationFile, final File pFolderToZip){
+		zipFolderToFile(pDestinationFile, pFolderToZip, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static void zipFolderToFile(final File pDestinationFile, final File pFolderToZip, final int pThreads){
+		final ForkJoinPool pool = new ForkJoinPool(pThreads);
+		try {
+			final ZipArchiveWriter out = new ZipArchiveWriter(new FileOutputStream(pDestinationFile));
+			final String baseName = pFolderToZip.getParent();
+
+			final int window = pThreads * WINDOW_PER_THREAD;
+			final Deque<Future<ZipArchiveWriter.Entry>> pending = new ArrayDeque<Future<ZipArchiveWriter.Entry>>(window);
+			addFolder(pFolderToZip, baseName, pool, out, pending, window);
+			while (!pending.isEmpty()) {
+				out.write(await(pending.removeFirst()));
+			}
+
+			out.close();
+		} catch (final FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Queue the files of a folder and its subfolders for compression as they are listed, writing out the oldest
+	 * pending entry whenever the window is full.
+	 */
+	private static void addFolder(final File folder, final String baseName, final ForkJoinPool pPool,
+			final ZipArchiveWriter pOut, final Deque<Future<ZipArchiveWriter.Entry>> pPending, final int pWindow)
+			throws IOException {
+		final File[] files = folder.listFiles();
+		/* For each child (subdirectory/child-file). */
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				/* If the file is a folder, do recursrion with this folder.*/
+				addFolder(file, baseName, pPool, pOut, pPending, pWindow);
+			} else if (!TileCacheVerifier.isTempFile(file.getName())) {
+				if (pPending.size() >= pWindow) {
+					pOut.write(await(pPending.removeFirst()));
+				}
+				pPending.addLast(pPool.submit(new CompressTask(file, getEntryName(file, baseName))));
+			}
+		}
+	}
+
+	private static String getEntryName(final File file, final String baseName) {
+		if (baseName == null) {
+			return file.getAbsolutePath();
+		} else {
+			return file.getAbsolutePath().substring(baseName.length());
+		}
+	}
+
+	private static ZipArchiveWriter.Entry await(final Future<ZipArchiveWriter.Entry> pFuture) throws IOException {
+		try {
+			return pFuture.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while zipping");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(String.valueOf(e.getCause()));
+		}
+	}
+
+	private static byte[] readFile(final File file) throws IOException {
+		final byte[] content = new byte[(int) file.length()];
+		final FileInputStream fileIn = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < content.length) {
+				final int n = fileIn.read(content, read, content.length - read);
+				if (n < 0) {
+					throw new IOException("Unexpected end of " + file);
+				}
+				read += n;
+			}
+		} finally {
+			fileIn.close();
+		}
+		return content;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	private static class CompressTask implements Callable<ZipArchiveWriter.Entry> {
+		private final File mFile;
+		private final String mName;
+
+		CompressTask(final File pFile, final String pName) {
+			this.mFile = pFile;
+			this.mName = pName;
+		}
+
+		public ZipArchiveWriter.Entry call() throws IOException {
+			return ZipArchiveWriter.prepare(this.mName, readFile(this.mFile), this.mFile.lastModified());
+		}
+	}
+}
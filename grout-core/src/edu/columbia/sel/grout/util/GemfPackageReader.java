@@ -0,0 +1,176 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Reads a GEMF archive and its additional part files, as written by {@link GemfWriter}. Tiles indexed with length 0,
+ * which {@link GemfWriter} uses for tiles that never arrived, count as missing.
+ */
+public class GemfPackageReader extends TilePackageReader {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	private static final int INDEX_ENTRY_SIZE = 12;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final String mSourceName;
+
+	// Ranges as { zoom, minX, maxX, minY, maxY }, and the offset of each one's index
+	private final List<int[]> mRanges = new ArrayList<int[]>();
+	private final List<Long> mIndexOffsets = new ArrayList<Long>();
+
+	// The archive and its parts, and where each part starts within the data
+	private final List<RandomAccessFile> mParts = new ArrayList<RandomAccessFile>();
+	private final List<Long> mPartStarts = new ArrayList<Long>();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public GemfPackageReader(final File pFile) throws IOException {
+		super(pFile);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pFile)));
+		try {
+			in.readInt(); // version
+			in.readInt(); // tile size
+			final int sources = in.readInt();
+			String sourceName = null;
+			for (int i = 0; i < sources; i++) {
+				in.readInt();
+				final byte[] name = new byte[in.readInt()];
+				in.readFully(name);
+				if (sourceName == null) {
+					sourceName = new String(name, ASCII);
+				}
+			}
+			this.mSourceName = sourceName;
+			final int ranges = in.readInt();
+			for (int i = 0; i < ranges; i++) {
+				this.mRanges.add(new int[] { in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt() });
+				in.readInt(); // source
+				this.mIndexOffsets.add(in.readLong());
+			}
+		} finally {
+			in.close();
+		}
+
+		long start = 0;
+		File part = pFile;
+		for (int i = 1; part.isFile(); i++) {
+			final RandomAccessFile file = new RandomAccessFile(part, "r");
+			this.mParts.add(file);
+			this.mPartStarts.add(start);
+			start += file.length();
+			part = new File(pFile.getPath() + "-" + i);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the name of the archive's first tile source.
+	 */
+	public String getSourceName() {
+		return this.mSourceName;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Override
+	public TileSet getTiles() throws IOException {
+		final TileSet tiles = new TileSet();
+		final RandomAccessFile index = this.mParts.get(0);
+		final byte[] entries = new byte[64 * 1024 / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE];
+		for (int r = 0; r < this.mRanges.size(); r++) {
+			final int[] range = this.mRanges.get(r);
+			final int height = range[4] - range[3] + 1;
+			final long count = (long) (range[2] - range[1] + 1) * height;
+			index.seek(this.mIndexOffsets.get(r));
+			for (long i = 0; i < count;) {
+				final int n = (int) Math.min(count - i, entries.length / INDEX_ENTRY_SIZE);
+				index.readFully(entries, 0, n * INDEX_ENTRY_SIZE);
+				for (int k = 0; k < n; k++, i++) {
+					if (readInt(entries, k * INDEX_ENTRY_SIZE + 8) > 0) {
+						tiles.add(TileKey.pack(range[0], range[1] + (int) (i / height), range[3] + (int) (i % height)));
+					}
+				}
+			}
+		}
+		return tiles;
+	}
+
+	@Override
+	public byte[] getTile(final long pKey) throws IOException {
+		final int z = TileKey.zoom(pKey);
+		final int x = TileKey.x(pKey);
+		final int y = TileKey.y(pKey);
+		for (int r = 0; r < this.mRanges.size(); r++) {
+			final int[] range = this.mRanges.get(r);
+			if (range[0] != z || x < range[1] || x > range[2] || y < range[3] || y > range[4]) {
+				continue;
+			}
+			final long ordinal = (long) (x - range[1]) * (range[4] - range[3] + 1) + (y - range[3]);
+			final RandomAccessFile index = this.mParts.get(0);
+			index.seek(this.mIndexOffsets.get(r) + ordinal * INDEX_ENTRY_SIZE);
+			final long offset = index.readLong();
+			final int length = index.readInt();
+			return (length > 0) ? readData(offset, length) : null;
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final RandomAccessFile part : this.mParts) {
+			part.close();
+		}
+	}
+
+	/**
+	 * Read tile data at an offset counted across all parts; a tile never spans two parts.
+	 */
+	private byte[] readData(final long pOffset, final int pLength) throws IOException {
+		int p = this.mParts.size() - 1;
+		while (p > 0 && this.mPartStarts.get(p) > pOffset) {
+			p--;
+		}
+		final RandomAccessFile part = this.mParts.get(p);
+		part.seek(pOffset - this.mPartStarts.get(p));
+		final byte[] data = new byte[pLength];
+		part.readFully(data);
+		return data;
+	}
+
+	private static int readInt(final byte[] pBytes, final int pOffset) {
+		return ((pBytes[pOffset] & 0xFF) << 24) | ((pBytes[pOffset + 1] & 0xFF) << 16)
+				| ((pBytes[pOffset + 2] & 0xFF) << 8) | (pBytes[pOffset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileRange;
+
+/**
+ * Writes a GEMF archive (version 4, as read by osmdroid) as tiles arrive, in any order.
+ *
+ * The header and the range table only depend on which tiles the archive will hold, which the {@link TileRange} tells
+ * us up front: one GEMF range per run of neighbouring columns whose spans are alike (a single range for a rectangle
+ * level), its tiles indexed x-major like the range itself, so a tile's slot in the index is simply its ordinal in
+ * the range. The writer therefore leaves room for the header and index, appends tile
+ * data sequentially through a buffered FileChannel, and fills in the header and index once on close. Tiles that
+ * never arrive are indexed with length 0.
+ *
+ * Data that does not fit within the part size limit continues in further part files named "archive.gemf-1",
+ * "archive.gemf-2", and so on; offsets in the index count across all parts, as the format requires.
+ *
+ * Not thread-safe.
+ */
+public class GemfWriter {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Same limit osmdroid uses when it splits archives
+	public static final long DEFAULT_PART_SIZE_LIMIT = 1000L * 1024 * 1024;
+
+	private static final int VERSION = 4;
+	private static final int TILE_SIZE = 256;
+	private static final int RANGE_ENTRY_SIZE = 32;
+	private static final int INDEX_ENTRY_SIZE = 12;
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final File mDestinationFile;
+	private final byte[] mSourceName;
+	private final TileRange mRange;
+	private final long mPartSizeLimit;
+
+	// GEMF ranges as { zoom, minX, maxX, minY, maxY }, in ordinal order
+	private final List<int[]> mRanges;
+
+	private final long mIndexOffset;
+	private final long mDataOffset;
+
+	// Index entries, by ordinal within the range
+	private final long[] mTileOffsets;
+	private final int[] mTileLengths;
+
+	private final List<File> mParts = new ArrayList<File>();
+	private RandomAccessFile mPartFile;
+	private FileChannel mChannel;
+	private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	// Bytes in all finished parts, and in the current part (including what is still buffered)
+	private long mPreviousPartsSize = 0;
+	private long mPartSize = 0;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public GemfWriter(final File pDestinationFile, final String pSourceName, final TileRange pRange)
+			throws IOException {
+		this(pDestinationFile, pSourceName, pRange, DEFAULT_PART_SIZE_LIMIT);
+	}
+
+	public GemfWriter(final File pDestinationFile, final String pSourceName, final TileRange pRange,
+			final long pPartSizeLimit) throws IOException {
+		if (pRange.size() > Integer.MAX_VALUE) {
+			throw new IOException("Too many tiles for one GEMF archive: " + pRange.size());
+		}
+		this.mDestinationFile = pDestinationFile;
+		this.mSourceName = pSourceName.getBytes(ASCII);
+		this.mRange = pRange;
+		this.mPartSizeLimit = pPartSizeLimit;
+
+		this.mRanges = rangesOf(pRange);
+		this.mIndexOffset = 4 + 4 + 4 + (4 + 4 + this.mSourceName.length) + 4
+				+ (long) this.mRanges.size() * RANGE_ENTRY_SIZE;
+		this.mDataOffset = this.mIndexOffset + pRange.size() * INDEX_ENTRY_SIZE;
+		this.mTileOffsets = new long[(int) pRange.size()];
+		this.mTileLengths = new int[(int) pRange.size()];
+
+		deleteParts(pDestinationFile);
+		openPart(pDestinationFile);
+		this.mChannel.position(this.mDataOffset);
+		this.mPartSize = this.mDataOffset;
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the files written so far: the archive itself, then any additional parts.
+	 */
+	public List<File> getParts() {
+		return new ArrayList<File>(this.mParts);
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Append a tile's data.
+	 * @param pKey packed {@link TileKey}; must be within the range
+	 * @param pData
+	 * @throws IOException
+	 */
+	public void put(final long pKey, final byte[] pData) throws IOException {
+		final long ordinal = this.mRange.indexOf(pKey);
+		if (ordinal < 0) {
+			throw new IOException(TileKey.toString(pKey) + " is outside the archive's range");
+		}
+
+		// start a new part rather than split a tile across two, unless the current part holds no tiles yet
+		final long partStart = (this.mParts.size() == 1) ? this.mDataOffset : 0;
+		if (this.mPartSize + pData.length > this.mPartSizeLimit && this.mPartSize > partStart) {
+			flushBuffer();
+			this.mPreviousPartsSize += this.mPartSize;
+			closePart();
+			openPart(new File(this.mDestinationFile.getPath() + "-" + this.mParts.size()));
+			this.mPartSize = 0;
+		}
+
+		this.mTileOffsets[(int) ordinal] = this.mPreviousPartsSize + this.mPartSize;
+		this.mTileLengths[(int) ordinal] = pData.length;
+		write(pData);
+		this.mPartSize += pData.length;
+	}
+
+	/**
+	 * Write the header and index, and close all parts.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+			closePart();
+
+			final RandomAccessFile first = new RandomAccessFile(this.mDestinationFile, "rw");
+			try {
+				this.mPartFile = first;
+				this.mChannel = first.getChannel();
+				this.mChannel.position(0);
+				writeHeader();
+				writeIndex();
+				flushBuffer();
+			} finally {
+				closePart();
+			}
+		} finally {
+			this.mChannel = null;
+		}
+	}
+
+	/**
+	 * Build a GEMF archive from a folder of tiles laid out as folder/zoom/x/y.ext.
+	 * The folder's name becomes the archive's source name.
+	 *
+	 * @param pDestinationFile
+	 * @param pFolder
+	 * @throws IOException
+	 */
+	public static void writeFolder(final File pDestinationFile, final File pFolder) throws IOException {
+		// index the tiles the folder holds rather than its bounding box, so a polygon's tiles stay compact
+		final TileRange range = TileUtils.getTileSet(pFolder).toTileRange();
+		final GemfWriter writer = new GemfWriter(pDestinationFile, pFolder.getName(), range);
+		try {
+			for (final File zf : TileUtils.listTileDirs(pFolder)) {
+				final int z = Integer.parseInt(zf.getName());
+				for (final File xf : TileUtils.listTileDirs(zf)) {
+					final int x = Integer.parseInt(xf.getName());
+					for (final File yf : xf.listFiles()) {
+						final int y = TileUtils.parseTileName(yf.getName());
+						if (y >= 0) {
+							writer.put(TileKey.pack(z, x, y), readFile(yf));
+						}
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Merge the range's spans into rectangles: a span joins the previous one if it is in the next column and covers
+	 * the same rows. Spans are in ordinal order, so each rectangle's tiles are contiguous in the index.
+	 */
+	private static List<int[]> rangesOf(final TileRange pRange) {
+		final List<int[]> ranges = new ArrayList<int[]>();
+		for (int z = pRange.getMinZoom(); z <= pRange.getMaxZoom(); z++) {
+			int[] current = null;
+			for (int k = 0; k < pRange.getSpanCount(z); k++) {
+				final int x = pRange.getSpanX(z, k);
+				final int minY = pRange.getSpanMinY(z, k);
+				final int maxY = pRange.getSpanMaxY(z, k);
+				if (current != null && x == current[2] + 1 && minY == current[3] && maxY == current[4]) {
+					current[2] = x;
+				} else {
+					current = new int[] { z, x, x, minY, maxY };
+					ranges.add(current);
+				}
+			}
+		}
+		return ranges;
+	}
+
+	private void writeHeader() throws IOException {
+		final ByteBuffer b = this.mBuffer;
+		b.putInt(VERSION);
+		b.putInt(TILE_SIZE);
+
+		b.putInt(1);
+		b.putInt(0);
+		b.putInt(this.mSourceName.length);
+		b.put(this.mSourceName);
+
+		b.putInt(this.mRanges.size());
+		long rangeIndexOffset = this.mIndexOffset;
+		for (final int[] range : this.mRanges) {
+			final long size = (long) (range[2] - range[1] + 1) * (range[4] - range[3] + 1);
+			ensureRoom(RANGE_ENTRY_SIZE);
+			for (int i = 0; i < range.length; i++) {
+				b.putInt(range[i]);
+			}
+			b.putInt(0);
+			b.putLong(rangeIndexOffset);
+			rangeIndexOffset += size * INDEX_ENTRY_SIZE;
+		}
+	}
+
+	private void writeIndex() throws IOException {
+		for (int i = 0; i < this.mTileOffsets.length; i++) {
+			ensureRoom(INDEX_ENTRY_SIZE);
+			this.mBuffer.putLong(this.mTileOffsets[i]);
+			this.mBuffer.putInt(this.mTileLengths[i]);
+		}
+	}
+
+	private void write(final byte[] pData) throws IOException {
+		int written = 0;
+		while (written < pData.length) {
+			if (!this.mBuffer.hasRemaining()) {
+				flushBuffer();
+			}
+			final int n = Math.min(this.mBuffer.remaining(), pData.length - written);
+			this.mBuffer.put(pData, written, n);
+			written += n;
+		}
+	}
+
+	private void ensureRoom(final int pBytes) throws IOException {
+		if (this.mBuffer.remaining() < pBytes) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		this.mBuffer.flip();
+		while (this.mBuffer.hasRemaining()) {
+			this.mChannel.write(this.mBuffer);
+		}
+		this.mBuffer.clear();
+	}
+
+	private void openPart(final File pFile) throws IOException {
+		this.mPartFile = new RandomAccessFile(pFile, "rw");
+		this.mPartFile.setLength(0);
+		this.mChannel = this.mPartFile.getChannel();
+		this.mParts.add(pFile);
+	}
+
+	private void closePart() throws IOException {
+		if (this.mPartFile != null) {
+			this.mChannel.force(false);
+			this.mPartFile.close();
+			this.mPartFile = null;
+		}
+	}
+
+	/**
+	 * Remove parts left over from an earlier, larger archive of the same name; readers would pick them up.
+	 */
+	private static void deleteParts(final File pDestinationFile) {
+		pDestinationFile.delete();
+		for (int i = 1; new File(pDestinationFile.getPath() + "-" + i).delete(); i++) {
+		}
+	}
+
+	private static byte[] readFile(final File pFile) throws IOException {
+		final byte[] content = new byte[(int) pFile.length()];
+		final FileInputStream in = new FileInputStream(pFile);
+		try {
+			int read = 0;
+			while (read < content.length) {
+				final int n = in.read(content, read, content.length - read);
+				if (n < 0) {
+					throw new IOException("Unexpected end of " + pFile);
+				}
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging facade with the same calls as android.util.Log, so the library does not depend on Android to log.
+ *
+ * Messages go to java.util.logging unless another {@link Sink} is set; the grout-android module provides one that
+ * writes to logcat.
+ */
+public final class Log {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	// Same values as android.util.Log's priorities
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private static volatile Sink sSink = new JavaLoggingSink();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private Log() {
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public static Sink getSink() {
+		return sSink;
+	}
+
+	/**
+	 * Send all of the library's log messages somewhere else.
+	 * @param pSink
+	 */
+	public static void setSink(final Sink pSink) {
+		sSink = (pSink != null) ? pSink : new JavaLoggingSink();
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public static void d(final String pTag, final String pMessage) {
+		sSink.log(DEBUG, pTag, pMessage, null);
+	}
+
+	public static void i(final String pTag, final String pMessage) {
+		sSink.log(INFO, pTag, pMessage, null);
+	}
+
+	public static void w(final String pTag, final String pMessage) {
+		sSink.log(WARN, pTag, pMessage, null);
+	}
+
+	public static void w(final String pTag, final String pMessage, final Throwable pThrowable) {
+		sSink.log(WARN, pTag, pMessage, pThrowable);
+	}
+
+	public static void e(final String pTag, final String pMessage) {
+		sSink.log(ERROR, pTag, pMessage, null);
+	}
+
+	public static void e(final String pTag, final String pMessage, final Throwable pThrowable) {
+		sSink.log(ERROR, pTag, pMessage, pThrowable);
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * Where log messages end up. Called from any thread.
+	 */
+	public interface Sink {
+		/**
+		 * @param pPriority one of {@link Log#DEBUG}, {@link Log#INFO}, {@link Log#WARN} or {@link Log#ERROR}
+		 * @param pTag
+		 * @param pMessage
+		 * @param pThrowable may be null
+		 */
+		public void log(int pPriority, String pTag, String pMessage, Throwable pThrowable);
+	}
+
+	/**
+	 * Logs to a java.util.logging Logger named after the tag.
+	 */
+	public static class JavaLoggingSink implements Sink {
+		public void log(final int pPriority, final String pTag, final String pMessage, final Throwable pThrowable) {
+			final Level level;
+			switch (pPriority) {
+			case DEBUG:
+				level = Level.FINE;
+				break;
+			case INFO:
+				level = Level.INFO;
+				break;
+			case WARN:
+				level = Level.WARNING;
+				break;
+			default:
+				level = Level.SEVERE;
+				break;
+			}
+			// android.util.Log takes null tags, such as the canonical name of an anonymous class
+			final Logger logger = Logger.getLogger((pTag != null) ? pTag : "grout");
+			if (logger.isLoggable(level)) {
+				logger.log(level, pMessage, pThrowable);
+			}
+		}
+	}
+}
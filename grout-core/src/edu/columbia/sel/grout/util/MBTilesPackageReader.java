@@ -0,0 +1,130 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Reads an MBTiles file through its tiles table, turning TMS rows back into XYZ (slippy map) coordinates.
+ */
+public class MBTilesPackageReader extends TilePackageReader {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final Connection mConnection;
+	private final PreparedStatement mSelectTile;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public MBTilesPackageReader(final File pFile) throws IOException {
+		super(pFile);
+		try {
+			Class.forName("org.sqlite.JDBC");
+			this.mConnection = DriverManager.getConnection("jdbc:sqlite:" + pFile);
+			this.mSelectTile = this.mConnection.prepareStatement(
+					"SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("SQLite JDBC driver not available: " + e);
+		} catch (final SQLException e) {
+			throw new IOException("Could not open " + pFile + ": " + e);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the package's metadata, by name.
+	 * @throws IOException
+	 */
+	public Map<String, String> getMetadata() throws IOException {
+		final Map<String, String> metadata = new LinkedHashMap<String, String>();
+		try {
+			final Statement stat = this.mConnection.createStatement();
+			try {
+				final ResultSet rows = stat.executeQuery("SELECT name, value FROM metadata");
+				while (rows.next()) {
+					metadata.put(rows.getString(1), rows.getString(2));
+				}
+			} finally {
+				stat.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not read metadata of " + this.mFile + ": " + e);
+		}
+		return metadata;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Override
+	public TileSet getTiles() throws IOException {
+		final TileSet tiles = new TileSet();
+		try {
+			final Statement stat = this.mConnection.createStatement();
+			try {
+				final ResultSet rows = stat.executeQuery("SELECT zoom_level, tile_column, tile_row FROM tiles");
+				while (rows.next()) {
+					final int z = rows.getInt(1);
+					tiles.add(TileKey.pack(z, rows.getInt(2), (1 << z) - 1 - rows.getInt(3)));
+				}
+			} finally {
+				stat.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not list tiles of " + this.mFile + ": " + e);
+		}
+		return tiles;
+	}
+
+	@Override
+	public byte[] getTile(final long pKey) throws IOException {
+		final int z = TileKey.zoom(pKey);
+		try {
+			this.mSelectTile.setInt(1, z);
+			this.mSelectTile.setInt(2, TileKey.x(pKey));
+			this.mSelectTile.setInt(3, (1 << z) - 1 - TileKey.y(pKey));
+			final ResultSet rows = this.mSelectTile.executeQuery();
+			try {
+				return rows.next() ? rows.getBytes(1) : null;
+			} finally {
+				rows.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not read " + TileKey.toString(pKey) + ": " + e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.mSelectTile.close();
+			this.mConnection.close();
+		} catch (final SQLException e) {
+			throw new IOException("Could not close " + this.mFile + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * 
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ * 
+ * See the file LICENSE for copying permission.
+ * 
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes tiles into an MBTiles 1.1 file using the deduplicating map + images layout: every distinct image is stored
+ * once in images, keyed by a hash of its content, and map points each tile at its image. A tiles view presents the
+ * usual MBTiles tiles table on top of the two.
+ *
+ * Like {@link DbCreator}, the file is bulk loaded in batched transactions; the unique indexes are only built once all
+ * tiles are in. Not thread-safe.
+ */
+public class MBTilesWriter
+{
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final int PAGE_SIZE = 4096;
+
+	private final Connection mConnection;
+	private final PreparedStatement mInsertMap;
+	private final PreparedStatement mInsertImage;
+	private final MessageDigest mDigest;
+	private final int mBatchSize;
+	private int mPending = 0;
+
+	// Hashes of the images stored so far; 64 bits of SHA-1 make accidental collisions vanishingly unlikely
+	private final Set<Long> mStoredImages = new HashSet<Long>();
+	private final Map<String, String> mMetadata = new LinkedHashMap<String, String>();
+
+	private long mTileCount = 0;
+
+	public MBTilesWriter(final File pDestinationFile) throws ClassNotFoundException, SQLException
+	{
+		this(pDestinationFile, DEFAULT_BATCH_SIZE);
+	}
+
+	public MBTilesWriter(final File pDestinationFile, final int pBatchSize) throws ClassNotFoundException, SQLException
+	{
+		mBatchSize = pBatchSize;
+		try
+		{
+			mDigest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (final NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		pDestinationFile.delete();
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite:" + pDestinationFile);
+		final Statement stat = mConnection.createStatement();
+		stat.execute("PRAGMA page_size = " + PAGE_SIZE);
+		stat.execute("PRAGMA journal_mode = MEMORY");
+		stat.execute("PRAGMA synchronous = OFF");
+		stat.execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+		stat.execute("CREATE TABLE map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id TEXT)");
+		stat.execute("CREATE TABLE images (tile_data BLOB, tile_id TEXT)");
+		stat.close();
+		mConnection.setAutoCommit(false);
+		mInsertMap = mConnection.prepareStatement("INSERT INTO map VALUES (?, ?, ?, ?)");
+		mInsertImage = mConnection.prepareStatement("INSERT INTO images VALUES (?, ?)");
+	}
+
+	/**
+	 * Set a metadata value (name, format, bounds, minzoom, maxzoom, ...). Written when the file is closed.
+	 * @param name
+	 * @param value
+	 */
+	public void setMetadata(final String name, final String value)
+	{
+		mMetadata.put(name, value);
+	}
+
+	/**
+	 * @return the number of distinct images stored so far.
+	 */
+	public int getImageCount()
+	{
+		return mStoredImages.size();
+	}
+
+	public long getTileCount()
+	{
+		return mTileCount;
+	}
+
+	/**
+	 * Store a tile, given in XYZ (slippy map) coordinates; the row is flipped to the TMS scheme MBTiles uses.
+	 */
+	public void putTile(final int z, final int x, final int y, final byte[] image) throws SQLException
+	{
+		if (mTileCount == 0 && !mMetadata.containsKey("format"))
+		{
+			mMetadata.put("format", guessFormat(image));
+		}
+		final long hash = hash(image);
+		final String tileId = Long.toHexString(hash);
+		if (mStoredImages.add(hash))
+		{
+			mInsertImage.setBytes(1, image);
+			mInsertImage.setString(2, tileId);
+			mInsertImage.addBatch();
+		}
+		mInsertMap.setInt(1, z);
+		mInsertMap.setInt(2, x);
+		mInsertMap.setInt(3, (1 << z) - 1 - y);
+		mInsertMap.setString(4, tileId);
+		mInsertMap.addBatch();
+		mTileCount++;
+		if (++mPending >= mBatchSize)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Write and commit the tiles batched so far.
+	 * @throws SQLException
+	 */
+	public void flush() throws SQLException
+	{
+		if (mPending > 0)
+		{
+			mInsertImage.executeBatch();
+			mInsertMap.executeBatch();
+			mConnection.commit();
+			mPending = 0;
+		}
+	}
+
+	/**
+	 * Write the metadata, build the indexes and the tiles view, and close the file.
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException
+	{
+		try
+		{
+			flush();
+			final PreparedStatement meta = mConnection.prepareStatement("INSERT INTO metadata VALUES (?, ?)");
+			for (final Map.Entry<String, String> entry : mMetadata.entrySet())
+			{
+				meta.setString(1, entry.getKey());
+				meta.setString(2, entry.getValue());
+				meta.addBatch();
+			}
+			meta.executeBatch();
+			meta.close();
+
+			// indexes are built once, after loading, rather than maintained on every insert
+			final Statement stat = mConnection.createStatement();
+			stat.execute("CREATE UNIQUE INDEX map_index ON map (zoom_level, tile_column, tile_row)");
+			stat.execute("CREATE UNIQUE INDEX images_id ON images (tile_id)");
+			stat.execute("CREATE UNIQUE INDEX name ON metadata (name)");
+			stat.execute("CREATE VIEW tiles AS SELECT map.zoom_level AS zoom_level, map.tile_column AS tile_column, "
+					+ "map.tile_row AS tile_row, images.tile_data AS tile_data "
+					+ "FROM map JOIN images ON images.tile_id = map.tile_id");
+			mConnection.commit();
+			mConnection.setAutoCommit(true);
+			// one last small write with synchronous on makes SQLite fsync the file, covering everything loaded before
+			stat.execute("PRAGMA synchronous = FULL");
+			stat.execute("PRAGMA user_version = 1");
+			stat.close();
+		}
+		finally
+		{
+			mInsertMap.close();
+			mInsertImage.close();
+			mConnection.close();
+		}
+	}
+
+	private long hash(final byte[] image)
+	{
+		final byte[] digest = mDigest.digest(image);
+		long hash = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			hash = (hash << 8) | (digest[i] & 0xFF);
+		}
+		return hash;
+	}
+
+	/**
+	 * Tile servers do not always serve what the URL's extension says, so look at the image itself.
+	 */
+	private static String guessFormat(final byte[] image)
+	{
+		if (image.length > 2 && (image[0] & 0xFF) == 0xFF && (image[1] & 0xFF) == 0xD8)
+		{
+			return "jpg";
+		}
+		return "png";
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.TileSet;
+import edu.columbia.sel.grout.sink.GemfTileSink;
+import edu.columbia.sel.grout.sink.MBTilesTileSink;
+import edu.columbia.sel.grout.sink.SqliteTileSink;
+import edu.columbia.sel.grout.sink.TileSink;
+import edu.columbia.sel.grout.sink.ZipTileSink;
+
+/**
+ * Applies a delta package, as made by {@link edu.columbia.sel.grout.Grout#setDeltaBase(String)}, to the package it
+ * was built against.
+ *
+ * The merged package holds every tile of both, taking a tile's data from the delta where it has one, and keeps the
+ * base package's format, entry names and metadata, except that an MBTiles package's bounds and zoom levels are widened
+ * to cover the delta's as well. Tiles are written in key order, which is also the order GEMF
+ * indexes them in. Tiles that the delta's region no longer covers are kept, since a delta only says what to add.
+ */
+public class PackageMerger {
+
+	/**
+	 * @param pBase the package the delta was built against
+	 * @param pDelta a package of the same format
+	 * @param pDestination where to write the merged package; must not be either of the others
+	 * @return the number of tiles in the merged package.
+	 * @throws IOException
+	 */
+	public static long merge(final File pBase, final File pDelta, final File pDestination) throws IOException {
+		final TilePackageReader base = TilePackageReader.open(pBase);
+		try {
+			final TilePackageReader delta = TilePackageReader.open(pDelta);
+			try {
+				if (base.getClass() != delta.getClass()) {
+					throw new IOException(pDelta + " is not in the same format as " + pBase);
+				}
+				final TileSet deltaTiles = delta.getTiles();
+				final TileSet tiles = base.getTiles().union(deltaTiles);
+
+				final TileSink sink = createSink(base, delta, tiles, pDestination);
+				try {
+					final TileSet.Cursor cursor = tiles.cursor();
+					while (cursor.hasNext()) {
+						final long key = cursor.next();
+						final byte[] data = deltaTiles.contains(key) ? delta.getTile(key) : base.getTile(key);
+						if (data != null) {
+							sink.put(key, data);
+						}
+					}
+				} finally {
+					sink.close();
+				}
+				return tiles.cardinality();
+			} finally {
+				delta.close();
+			}
+		} finally {
+			base.close();
+		}
+	}
+
+	/**
+	 * @return a sink writing the same format as the base package, set up the way the base package was.
+	 */
+	private static TileSink createSink(final TilePackageReader pBase, final TilePackageReader pDelta,
+			final TileSet pTiles, final File pDestination) throws IOException {
+		if (pBase instanceof ZipPackageReader) {
+			final String template = ((ZipPackageReader) pBase).getEntryTemplate();
+			if (template == null) {
+				throw new IOException("No tiles to take entry names from in " + pBase.getFile());
+			}
+			return new ZipTileSink(pDestination, template);
+		} else if (pBase instanceof GemfPackageReader) {
+			return new GemfTileSink(pDestination, ((GemfPackageReader) pBase).getSourceName(), pTiles.toTileRange());
+		} else if (pBase instanceof MBTilesPackageReader) {
+			final MBTilesTileSink sink = new MBTilesTileSink(pDestination);
+			final Map<String, String> base = ((MBTilesPackageReader) pBase).getMetadata();
+			final Map<String, String> delta = ((MBTilesPackageReader) pDelta).getMetadata();
+			for (final Map.Entry<String, String> entry : base.entrySet()) {
+				sink.setMetadata(entry.getKey(), entry.getValue());
+			}
+			final String bounds = mergeBounds(base.get("bounds"), delta.get("bounds"));
+			if (bounds != null) {
+				sink.setMetadata("bounds", bounds);
+			}
+			final TileRange range = pTiles.toTileRange();
+			final int tilesMin = pTiles.isEmpty() ? -1 : range.getMinZoom();
+			final int tilesMax = pTiles.isEmpty() ? -1 : range.getMaxZoom();
+			final Integer minZoom = mergeZoom(base.get("minzoom"), delta.get("minzoom"), tilesMin, false);
+			final Integer maxZoom = mergeZoom(base.get("maxzoom"), delta.get("maxzoom"), tilesMax, true);
+			if (minZoom != null) {
+				sink.setMetadata("minzoom", String.valueOf(minZoom));
+			}
+			if (maxZoom != null) {
+				sink.setMetadata("maxzoom", String.valueOf(maxZoom));
+			}
+			return sink;
+		} else {
+			return new SqliteTileSink(pDestination, ((SqlitePackageReader) pBase).getProvider());
+		}
+	}
+
+	/**
+	 * @param pBase MBTiles bounds, "west,south,east,north", or null
+	 * @param pDelta the same for the delta
+	 * @return bounds covering both, or whichever of them can be read, or null if neither can.
+	 */
+	private static String mergeBounds(final String pBase, final String pDelta) {
+		final double[] base = parseBounds(pBase);
+		final double[] delta = parseBounds(pDelta);
+		if (base == null || delta == null) {
+			return (base != null) ? pBase : (delta != null) ? pDelta : null;
+		}
+		return Math.min(base[0], delta[0]) + "," + Math.min(base[1], delta[1]) + "," + Math.max(base[2], delta[2])
+				+ "," + Math.max(base[3], delta[3]);
+	}
+
+	private static double[] parseBounds(final String pBounds) {
+		if (pBounds == null) {
+			return null;
+		}
+		final String[] parts = pBounds.split(",");
+		if (parts.length != 4) {
+			return null;
+		}
+		final double[] bounds = new double[4];
+		try {
+			for (int i = 0; i < 4; i++) {
+				bounds[i] = Double.parseDouble(parts[i].trim());
+			}
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+		return bounds;
+	}
+
+	/**
+	 * @param pBase a zoom level from the base's metadata, or null
+	 * @param pDelta the same from the delta's metadata
+	 * @param pTiles the same zoom level of the merged tiles, or -1 if there are none
+	 * @param pMax whether to take the highest rather than the lowest of them
+	 * @return the lowest or highest of the zoom levels that can be read, or null if none can.
+	 */
+	private static Integer mergeZoom(final String pBase, final String pDelta, final int pTiles, final boolean pMax) {
+		Integer zoom = (pTiles >= 0) ? Integer.valueOf(pTiles) : null;
+		for (final String value : new String[] { pBase, pDelta }) {
+			final Integer other;
+			try {
+				other = (value != null) ? Integer.valueOf(value.trim()) : null;
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			if (other != null && (zoom == null || (pMax ? other > zoom : other < zoom))) {
+				zoom = other;
+			}
+		}
+		return zoom;
+	}
+}
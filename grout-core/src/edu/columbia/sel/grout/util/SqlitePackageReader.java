@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Reads a SQLite tile store with osmdroid's tiles(key, provider, tile) table, as written by {@link DbCreator}.
+ */
+public class SqlitePackageReader extends TilePackageReader {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final Connection mConnection;
+	private final PreparedStatement mSelectTile;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public SqlitePackageReader(final File pFile) throws IOException {
+		super(pFile);
+		try {
+			Class.forName("org.sqlite.JDBC");
+			this.mConnection = DriverManager.getConnection("jdbc:sqlite:" + pFile);
+			this.mSelectTile = this.mConnection.prepareStatement("SELECT tile FROM tiles WHERE key = ?");
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("SQLite JDBC driver not available: " + e);
+		} catch (final SQLException e) {
+			throw new IOException("Could not open " + pFile + ": " + e);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the provider of the store's first tile, or null if it is empty.
+	 * @throws IOException
+	 */
+	public String getProvider() throws IOException {
+		try {
+			final Statement stat = this.mConnection.createStatement();
+			try {
+				final ResultSet rows = stat.executeQuery("SELECT provider FROM tiles LIMIT 1");
+				return rows.next() ? rows.getString(1) : null;
+			} finally {
+				stat.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not read " + this.mFile + ": " + e);
+		}
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Override
+	public TileSet getTiles() throws IOException {
+		final TileSet tiles = new TileSet();
+		try {
+			final Statement stat = this.mConnection.createStatement();
+			try {
+				final ResultSet rows = stat.executeQuery("SELECT key FROM tiles");
+				while (rows.next()) {
+					tiles.add(fromIndex(rows.getLong(1)));
+				}
+			} finally {
+				stat.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not list tiles of " + this.mFile + ": " + e);
+		}
+		return tiles;
+	}
+
+	@Override
+	public byte[] getTile(final long pKey) throws IOException {
+		try {
+			this.mSelectTile.setLong(1, toIndex(pKey));
+			final ResultSet rows = this.mSelectTile.executeQuery();
+			try {
+				return rows.next() ? rows.getBytes(1) : null;
+			} finally {
+				rows.close();
+			}
+		} catch (final SQLException e) {
+			throw new IOException("Could not read " + TileKey.toString(pKey) + ": " + e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.mSelectTile.close();
+			this.mConnection.close();
+		} catch (final SQLException e) {
+			throw new IOException("Could not close " + this.mFile + ": " + e);
+		}
+	}
+
+	/**
+	 * @return the store's key for a tile, computed the way {@link DbCreator} does.
+	 */
+	private static long toIndex(final long pKey) {
+		final int z = TileKey.zoom(pKey);
+		return (((z << z) + TileKey.x(pKey)) << z) + TileKey.y(pKey);
+	}
+
+	/**
+	 * @return the packed tile key for a store key: the zoom is the one whose key layout it fits.
+	 */
+	private static long fromIndex(final long pIndex) {
+		for (int z = 0; z <= TileKey.MAX_ZOOM; z++) {
+			if ((pIndex >>> (2 * z)) == z) {
+				final long mask = (1L << z) - 1;
+				return TileKey.pack(z, (int) ((pIndex >>> z) & mask), (int) (pIndex & mask));
+			}
+		}
+		throw new IllegalArgumentException("Not a tile key: " + pIndex);
+	}
+}
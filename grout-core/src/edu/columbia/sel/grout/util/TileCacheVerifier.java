@@ -0,0 +1,198 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a folder of tiles for files that were not completely written: leftover temporary files, empty files, and
+ * images whose trailer is missing (a PNG without its IEND chunk, a JPEG without its end-of-image marker, a GIF
+ * without its trailer byte).
+ *
+ * Only the first and last few bytes of each tile are read, and folders are scanned in parallel on a fork-join pool,
+ * so a large cache can be checked in about the time it takes to list it.
+ */
+public class TileCacheVerifier {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	/**
+	 * Suffix of the file a tile is written to before it is renamed into place.
+	 */
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	private static final byte[] PNG_TRAILER = { 0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82 };
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final boolean mRemove;
+	private final AtomicInteger mScanned = new AtomicInteger();
+	private final AtomicInteger mRemoved = new AtomicInteger();
+	private final List<File> mTorn = Collections.synchronizedList(new ArrayList<File>());
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	private TileCacheVerifier(final boolean pRemove) {
+		this.mRemove = pRemove;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Check every tile under a folder.
+	 *
+	 * @param pFolder
+	 * @param pRemove delete the files that are found to be torn
+	 * @return Result
+	 */
+	public static Result verify(final File pFolder, final boolean pRemove) {
+		return verify(pFolder, pRemove, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static Result verify(final File pFolder, final boolean pRemove, final int pThreads) {
+		final TileCacheVerifier verifier = new TileCacheVerifier(pRemove);
+		if (pFolder.isDirectory()) {
+			final ForkJoinPool pool = new ForkJoinPool(pThreads);
+			try {
+				pool.invoke(verifier.new FolderTask(pFolder));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return new Result(verifier.mScanned.get(), new ArrayList<File>(verifier.mTorn), verifier.mRemoved.get());
+	}
+
+	/**
+	 * @param pName file name
+	 * @return true if the file is a tile that was never moved into place.
+	 */
+	public static boolean isTempFile(final String pName) {
+		return pName.endsWith(TEMP_SUFFIX);
+	}
+
+	/**
+	 * @return true if the file looks completely written, judging from its first and last bytes.
+	 * @throws IOException
+	 */
+	public static boolean isComplete(final File pFile) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(pFile, "r");
+		try {
+			final long length = file.length();
+			if (length == 0) {
+				return false;
+			}
+			final byte[] head = new byte[(int) Math.min(4, length)];
+			file.readFully(head);
+			final byte[] tail = new byte[(int) Math.min(PNG_TRAILER.length, length)];
+			file.seek(length - tail.length);
+			file.readFully(tail);
+
+			if (head.length == 4 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+				return endsWith(tail, PNG_TRAILER);
+			} else if (head.length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8) {
+				return endsWith(tail, new byte[] { (byte) 0xFF, (byte) 0xD9 });
+			} else if (head.length == 4 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+				return endsWith(tail, new byte[] { 0x3B });
+			}
+			// some other format; without knowing its trailer, any content has to do
+			return true;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static boolean endsWith(final byte[] pData, final byte[] pSuffix) {
+		if (pData.length < pSuffix.length) {
+			return false;
+		}
+		final int offset = pData.length - pSuffix.length;
+		for (int i = 0; i < pSuffix.length; i++) {
+			if (pData[offset + i] != pSuffix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void check(final File pFile) {
+		this.mScanned.incrementAndGet();
+		boolean complete;
+		try {
+			complete = !isTempFile(pFile.getName()) && isComplete(pFile);
+		} catch (final IOException e) {
+			complete = false;
+		}
+		if (!complete) {
+			this.mTorn.add(pFile);
+			if (this.mRemove && pFile.delete()) {
+				this.mRemoved.incrementAndGet();
+			}
+		}
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * What a scan found.
+	 */
+	public static class Result {
+		public final int scanned;
+		public final List<File> torn;
+		public final int removed;
+
+		Result(final int pScanned, final List<File> pTorn, final int pRemoved) {
+			scanned = pScanned;
+			torn = pTorn;
+			removed = pRemoved;
+		}
+	}
+
+	private class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File mFolder;
+
+		FolderTask(final File pFolder) {
+			this.mFolder = pFolder;
+		}
+
+		@Override
+		protected void compute() {
+			final File[] children = this.mFolder.listFiles();
+			if (children == null) {
+				return;
+			}
+			final List<FolderTask> subtasks = new ArrayList<FolderTask>();
+			for (final File child : children) {
+				if (child.isDirectory()) {
+					subtasks.add(new FolderTask(child));
+				} else {
+					check(child);
+				}
+			}
+			invokeAll(subtasks);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Reads back the tiles of a package made by Grout: a zip, GEMF, MBTiles or SQLite file, told apart by extension the
+ * same way Grout picks the format to write.
+ *
+ * Not thread-safe.
+ */
+public abstract class TilePackageReader {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	protected final File mFile;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	protected TilePackageReader(final File pFile) {
+		this.mFile = pFile;
+	}
+
+	/**
+	 * @param pFile
+	 * @return a reader for the package, chosen by the file's extension.
+	 * @throws IOException if the package cannot be opened
+	 */
+	public static TilePackageReader open(final File pFile) throws IOException {
+		if (!pFile.isFile()) {
+			throw new IOException("No package at " + pFile);
+		}
+		final String name = pFile.getName();
+		if (name.endsWith(".zip")) {
+			return new ZipPackageReader(pFile);
+		} else if (name.endsWith(".gemf")) {
+			return new GemfPackageReader(pFile);
+		} else if (name.endsWith(".mbtiles")) {
+			return new MBTilesPackageReader(pFile);
+		} else {
+			return new SqlitePackageReader(pFile);
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public File getFile() {
+		return this.mFile;
+	}
+
+	/**
+	 * @return when the package was made, in milliseconds since the epoch; its tiles were fetched before then.
+	 */
+	public long getLastModified() {
+		return this.mFile.lastModified();
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * @return every tile in the package.
+	 * @throws IOException
+	 */
+	public abstract TileSet getTiles() throws IOException;
+
+	/**
+	 * @param pKey packed {@link TileKey}
+	 * @return the tile's data, or null if the package does not hold it.
+	 * @throws IOException
+	 */
+	public abstract byte[] getTile(long pKey) throws IOException;
+
+	public abstract void close() throws IOException;
+}
@@ -8,11 +8,12 @@
 package edu.columbia.sel.grout.util;
 
 import java.io.File;
-
-import org.apache.commons.io.FileUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import edu.columbia.sel.grout.OSMTileInfo;
-import android.util.Log;
+import edu.columbia.sel.grout.TileSet;
 
 public class TileUtils {
 	
@@ -101,13 +102,91 @@ public class TileUtils {
 		for(final File c : children){
 			if(c.isDirectory()){
 				tmpCnt += getTotalRecursiveFileCount(c);
-			}else{
+			}else if(!TileCacheVerifier.isTempFile(c.getName())){
 				tmpCnt++;
 			}
 		}
 		return tmpCnt;
 	}
 
+	/**
+	 * Collect the tiles in a folder laid out as folder/zoom/x/y.ext, without reading them.
+	 * @param pFolder
+	 * @return TileSet
+	 */
+	public static TileSet getTileSet(final File pFolder) {
+		final TileSet tiles = new TileSet();
+		for (final File zf : listTileDirs(pFolder)) {
+			final int z = Integer.parseInt(zf.getName());
+			for (final File xf : listTileDirs(zf)) {
+				final int x = Integer.parseInt(xf.getName());
+				final String[] names = xf.list();
+				if (names == null) {
+					continue;
+				}
+				final int[] ys = new int[names.length];
+				int count = 0;
+				for (final String name : names) {
+					final int y = parseTileName(name);
+					if (y >= 0) {
+						ys[count++] = y;
+					}
+				}
+				// add the column as runs of consecutive rows
+				Arrays.sort(ys, 0, count);
+				for (int i = 0; i < count;) {
+					int j = i;
+					while (j + 1 < count && ys[j + 1] <= ys[j] + 1) {
+						j++;
+					}
+					tiles.addRange(z, x, ys[i], ys[j]);
+					i = j + 1;
+				}
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * @return the subfolders named by a number, such as the zoom and x folders of a tile folder.
+	 */
+	static List<File> listTileDirs(final File pFolder) {
+		final List<File> dirs = new ArrayList<File>();
+		final File[] children = pFolder.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				if (child.isDirectory() && isNumber(child.getName())) {
+					dirs.add(child);
+				}
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * @return the y of a tile file name such as "123.png.tile", or -1 if it is not one.
+	 */
+	static int parseTileName(final String pName) {
+		if (TileCacheVerifier.isTempFile(pName)) {
+			return -1;
+		}
+		final int dot = pName.indexOf('.');
+		final String y = (dot < 0) ? pName : pName.substring(0, dot);
+		return isNumber(y) ? Integer.parseInt(y) : -1;
+	}
+
+	static boolean isNumber(final String pValue) {
+		if (pValue.length() == 0 || pValue.length() > 9) {
+			return false;
+		}
+		for (int i = 0; i < pValue.length(); i++) {
+			if (!Character.isDigit(pValue.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	// ===========================================================
 	// Inner and Anonymous Classes
 	// ===========================================================
@@ -0,0 +1,321 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive from entries that have already been compressed.
+ *
+ * java.util.zip.ZipOutputStream compresses on the thread that writes, which makes it impossible to deflate several
+ * entries at once. Here compression is split out: {@link #prepare(String, byte[], long)} is thread-safe and can run
+ * on any number of threads, while a single thread appends the prepared entries in order with
+ * {@link #write(Entry)}. Images that are already compressed (PNG, JPEG, GIF) are stored as they are rather than run
+ * through the deflater for nothing.
+ *
+ * Archives with more than 65535 entries, or larger than 4GB, are written with Zip64 records.
+ */
+public class ZipArchiveWriter {
+	// ===========================================================
+	// Constants
+	// ===========================================================
+
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final OutputStream mOut;
+	private long mOffset = 0;
+	private final List<CentralRecord> mCentral = new ArrayList<CentralRecord>();
+	private final byte[] mScratch = new byte[8];
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public ZipArchiveWriter(final OutputStream pOut) {
+		this.mOut = new BufferedOutputStream(pOut, BUFFER_SIZE);
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	public int getEntryCount() {
+		return this.mCentral.size();
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	/**
+	 * Compress an entry, unless its content is an image that is already compressed. Thread-safe.
+	 *
+	 * @param pName entry name
+	 * @param pContent uncompressed content
+	 * @param pTime modification time, in milliseconds since the epoch
+	 * @return Entry
+	 */
+	public static Entry prepare(final String pName, final byte[] pContent, final long pTime) {
+		final CRC32 crc = new CRC32();
+		crc.update(pContent);
+
+		if (!isCompressedImage(pContent)) {
+			final byte[] deflated = deflate(pContent);
+			if (deflated.length < pContent.length) {
+				return new Entry(pName, DEFLATED, deflated, crc.getValue(), pContent.length, pTime);
+			}
+		}
+		return new Entry(pName, STORED, pContent, crc.getValue(), pContent.length, pTime);
+	}
+
+	/**
+	 * Append a prepared entry. Entries appear in the archive in the order they are written.
+	 * @param pEntry
+	 * @throws IOException
+	 */
+	public void write(final Entry pEntry) throws IOException {
+		final CentralRecord record = new CentralRecord(pEntry, this.mOffset);
+
+		writeInt(LOCAL_HEADER);
+		writeShort(VERSION);
+		writeShort(FLAG_UTF8);
+		writeShort(pEntry.method);
+		writeInt(record.dosTime);
+		writeInt((int) pEntry.crc);
+		writeInt(pEntry.data.length);
+		writeInt((int) pEntry.size);
+		writeShort(record.name.length);
+		writeShort(0);
+		writeBytes(record.name);
+		writeBytes(pEntry.data);
+
+		this.mCentral.add(record);
+	}
+
+	/**
+	 * Write the central directory and close the underlying stream.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		final long centralOffset = this.mOffset;
+		for (final CentralRecord record : this.mCentral) {
+			final boolean zip64 = record.offset >= ZIP64_MAGIC;
+			writeInt(CENTRAL_HEADER);
+			writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+			writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+			writeShort(FLAG_UTF8);
+			writeShort(record.method);
+			writeInt(record.dosTime);
+			writeInt((int) record.crc);
+			writeInt((int) record.compressedSize);
+			writeInt((int) record.size);
+			writeShort(record.name.length);
+			writeShort(zip64 ? 12 : 0);
+			writeShort(0); // comment
+			writeShort(0); // disk number
+			writeShort(0); // internal attributes
+			writeInt(0); // external attributes
+			writeInt(zip64 ? (int) ZIP64_MAGIC : (int) record.offset);
+			writeBytes(record.name);
+			if (zip64) {
+				writeShort(0x0001);
+				writeShort(8);
+				writeLong(record.offset);
+			}
+		}
+		final long centralSize = this.mOffset - centralOffset;
+		final long count = this.mCentral.size();
+
+		final boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+		if (zip64) {
+			final long zip64EndOffset = this.mOffset;
+			writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+			writeLong(44);
+			writeShort(VERSION_ZIP64);
+			writeShort(VERSION_ZIP64);
+			writeInt(0);
+			writeInt(0);
+			writeLong(count);
+			writeLong(count);
+			writeLong(centralSize);
+			writeLong(centralOffset);
+
+			writeInt(ZIP64_LOCATOR);
+			writeInt(0);
+			writeLong(zip64EndOffset);
+			writeInt(1);
+		}
+
+		writeInt(END_OF_CENTRAL_DIRECTORY);
+		writeShort(0);
+		writeShort(0);
+		writeShort(zip64 ? ZIP64_MAGIC_COUNT : (int) count);
+		writeShort(zip64 ? ZIP64_MAGIC_COUNT : (int) count);
+		writeInt(zip64 ? (int) ZIP64_MAGIC : (int) centralSize);
+		writeInt(zip64 ? (int) ZIP64_MAGIC : (int) centralOffset);
+		writeShort(0);
+
+		this.mOut.close();
+	}
+
+	/**
+	 * PNG, JPEG and GIF data is already compressed; deflating it again costs CPU and saves nothing.
+	 */
+	public static boolean isCompressedImage(final byte[] pContent) {
+		if (pContent.length < 4) {
+			return false;
+		}
+		final int b0 = pContent[0] & 0xFF;
+		final int b1 = pContent[1] & 0xFF;
+		final int b2 = pContent[2] & 0xFF;
+		final int b3 = pContent[3] & 0xFF;
+		return (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G')
+				|| (b0 == 0xFF && b1 == 0xD8)
+				|| (b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8');
+	}
+
+	private static byte[] deflate(final byte[] pContent) {
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(pContent);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(pContent.length / 2 + 64);
+			final byte[] buffer = new byte[8 * 1024];
+			while (!deflater.finished()) {
+				final int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static int toDosTime(final long pTime) {
+		final Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(pTime);
+		final int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16)
+				| (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	private void writeShort(final int v) throws IOException {
+		this.mScratch[0] = (byte) v;
+		this.mScratch[1] = (byte) (v >>> 8);
+		this.mOut.write(this.mScratch, 0, 2);
+		this.mOffset += 2;
+	}
+
+	private void writeInt(final int v) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			this.mScratch[i] = (byte) (v >>> (8 * i));
+		}
+		this.mOut.write(this.mScratch, 0, 4);
+		this.mOffset += 4;
+	}
+
+	private void writeLong(final long v) throws IOException {
+		for (int i = 0; i < 8; i++) {
+			this.mScratch[i] = (byte) (v >>> (8 * i));
+		}
+		this.mOut.write(this.mScratch, 0, 8);
+		this.mOffset += 8;
+	}
+
+	private void writeBytes(final byte[] b) throws IOException {
+		this.mOut.write(b);
+		this.mOffset += b.length;
+	}
+
+	// ===========================================================
+	// Inner and Anonymous Classes
+	// ===========================================================
+
+	/**
+	 * An entry ready to be appended: its data is either stored or raw deflate output.
+	 */
+	public static class Entry {
+		final String name;
+		final int method;
+		final byte[] data;
+		final long crc;
+		final long size;
+		final long time;
+
+		Entry(final String pName, final int pMethod, final byte[] pData, final long pCrc, final long pSize,
+				final long pTime) {
+			this.name = pName;
+			this.method = pMethod;
+			this.data = pData;
+			this.crc = pCrc;
+			this.size = pSize;
+			this.time = pTime;
+		}
+
+		public int getMethod() {
+			return method;
+		}
+	}
+
+	/**
+	 * What the central directory needs to know about an entry once its data has been written.
+	 */
+	private static class CentralRecord {
+		final byte[] name;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final long offset;
+
+		CentralRecord(final Entry pEntry, final long pOffset) {
+			this.name = pEntry.name.getBytes(UTF8);
+			this.method = pEntry.method;
+			this.dosTime = toDosTime(pEntry.time);
+			this.crc = pEntry.crc;
+			this.compressedSize = pEntry.data.length;
+			this.size = pEntry.size;
+			this.offset = pOffset;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileSet;
+
+/**
+ * Reads a zip of tiles laid out as .../zoom/x/y.ext, as written by {@link FolderZipper} or
+ * {@link edu.columbia.sel.grout.sink.ZipTileSink}.
+ */
+public class ZipPackageReader extends TilePackageReader {
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final ZipFile mZip;
+
+	// Entries by packed tile key, and the entry name template they follow
+	private final Map<Long, ZipEntry> mEntries = new HashMap<Long, ZipEntry>();
+	private String mEntryTemplate;
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public ZipPackageReader(final File pFile) throws IOException {
+		super(pFile);
+		this.mZip = new ZipFile(pFile);
+		final Enumeration<? extends ZipEntry> entries = this.mZip.entries();
+		while (entries.hasMoreElements()) {
+			final ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory()) {
+				parse(entry);
+			}
+		}
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @return the name of the package's first tile entry with its zoom, x and y turned into %d placeholders, in that
+	 *         order, as {@link edu.columbia.sel.grout.sink.ZipTileSink} takes it; null if the zip holds no tiles.
+	 */
+	public String getEntryTemplate() {
+		return this.mEntryTemplate;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	@Override
+	public TileSet getTiles() {
+		final TileSet tiles = new TileSet();
+		for (final Long key : this.mEntries.keySet()) {
+			tiles.add(key);
+		}
+		return tiles;
+	}
+
+	@Override
+	public byte[] getTile(final long pKey) throws IOException {
+		final ZipEntry entry = this.mEntries.get(pKey);
+		if (entry == null) {
+			return null;
+		}
+		final byte[] data = new byte[(int) entry.getSize()];
+		final InputStream in = this.mZip.getInputStream(entry);
+		try {
+			int read = 0;
+			while (read < data.length) {
+				final int n = in.read(data, read, data.length - read);
+				if (n < 0) {
+					throw new IOException("Unexpected end of " + entry.getName());
+				}
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.mZip.close();
+	}
+
+	/**
+	 * Take the zoom, x and y from the last three parts of an entry's path, skipping entries that are not tiles.
+	 */
+	private void parse(final ZipEntry pEntry) {
+		final String name = pEntry.getName();
+		final int yStart = lastSeparator(name, name.length()) + 1;
+		final int xStart = lastSeparator(name, yStart - 1) + 1;
+		final int zStart = lastSeparator(name, xStart - 1) + 1;
+		if (xStart == 0 || yStart == 0) {
+			return;
+		}
+		final int y = TileUtils.parseTileName(name.substring(yStart));
+		final String x = name.substring(xStart, yStart - 1);
+		final String z = name.substring(zStart, xStart - 1);
+		if (y < 0 || TileUtils.parseTileName(x) < 0 || TileUtils.parseTileName(z) < 0 || x.indexOf('.') >= 0
+				|| z.indexOf('.') >= 0) {
+			return;
+		}
+		this.mEntries.put(TileKey.pack(Integer.parseInt(z), Integer.parseInt(x), y), pEntry);
+		if (this.mEntryTemplate == null) {
+			int yEnd = yStart;
+			while (yEnd < name.length() && Character.isDigit(name.charAt(yEnd))) {
+				yEnd++;
+			}
+			this.mEntryTemplate = escape(name.substring(0, zStart)) + "%d" + name.charAt(xStart - 1) + "%d"
+					+ name.charAt(yStart - 1) + "%d" + escape(name.substring(yEnd));
+		}
+	}
+
+	/**
+	 * @return the index of the last path separator before pEnd, or -1.
+	 */
+	private static int lastSeparator(final String pName, final int pEnd) {
+		for (int i = pEnd - 1; i >= 0; i--) {
+			if (pName.charAt(i) == '/' || pName.charAt(i) == '\\') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String escape(final String pText) {
+		return pText.replace("%", "%%");
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.columbia.sel.grout.event.CoalescingProgressDispatcher;
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+import edu.columbia.sel.grout.event.FetchingErrorEvent;
+import edu.columbia.sel.grout.event.FetchingProgressEvent;
+import edu.columbia.sel.grout.event.FetchingStartEvent;
+import edu.columbia.sel.grout.http.UrlConnectionTileClient;
+import edu.columbia.sel.grout.sink.AsyncTileSink;
+import edu.columbia.sel.grout.sink.TileSink;
+import edu.columbia.sel.grout.sink.ZipTileSink;
+import edu.columbia.sel.grout.util.TilePackageReader;
+import edu.columbia.sel.grout.util.TileUtils;
+
+public class DownloadManagerTest {
+
+	private File mRoot;
+	private StandInTileServer mServer;
+	private ExecutorEventDispatcher mDispatcher;
+
+	@Before
+	public void setUp() throws IOException {
+		this.mRoot = File.createTempFile("grout", "root");
+		this.mRoot.delete();
+		this.mRoot.mkdirs();
+		this.mServer = new StandInTileServer();
+		this.mDispatcher = new ExecutorEventDispatcher();
+	}
+
+	@After
+	public void tearDown() {
+		this.mDispatcher.shutdown();
+		this.mServer.stop();
+		TileUtils.deleteDirectory(this.mRoot);
+	}
+
+	@Test
+	public void failingToFinishTheSinkStopsTheDownload() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		final Grout grout = newGrout();
+		grout.setTileFetchingListener(listener);
+		final TileSink sink = new TileSink() {
+			public boolean contains(final long pKey) {
+				return false;
+			}
+
+			public void put(final long pKey, final byte[] pData) {
+			}
+
+			public void close() throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		final DownloadManager dm = new DownloadManager(grout, Collections.singletonList(this.mServer.getURL("fail")),
+				sink, 4, new UrlConnectionTileClient(4), this.mDispatcher,
+				CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS);
+		dm.addAll(TileRange.fromBoundingBox(41, 40, -73, -74, 8, 9));
+		dm.waitFinished();
+
+		assertTrue("no stop event", listener.mStopped.await(5, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList(FetchingErrorEvent.PACKAGING_FAILED), listener.mErrors);
+		assertEquals(0, listener.mCompleted);
+	}
+
+	@Test
+	public void failedArchiveWriterStopsTheDownload() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		final Grout grout = newGrout();
+		grout.setTileFetchingListener(listener);
+		// the archive's disk fills up on the 21st tile
+		final Map<Long, byte[]> stored = new ConcurrentHashMap<Long, byte[]>();
+		final TileSink failing = new TileSink() {
+			public boolean contains(final long pKey) {
+				return false;
+			}
+
+			public void put(final long pKey, final byte[] pData) throws IOException {
+				if (stored.size() == 20) {
+					throw new IOException("disk full");
+				}
+				stored.put(pKey, pData);
+			}
+
+			public void close() {
+			}
+		};
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 8, 12);
+		final DownloadManager dm = new DownloadManager(grout, Collections.singletonList(this.mServer.getURL("full")),
+				new AsyncTileSink(failing), 4, new UrlConnectionTileClient(4), this.mDispatcher,
+				CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS);
+		dm.addAll(range);
+		dm.waitFinished();
+
+		assertTrue("no stop event", listener.mStopped.await(5, TimeUnit.SECONDS));
+		assertTrue(listener.mErrors.contains(FetchingErrorEvent.PACKAGING_FAILED));
+		assertEquals(0, listener.mCompleted);
+		assertEquals(20, stored.size());
+		assertEquals(20, dm.getDownloadedCount());
+		assertTrue("fetched " + this.mServer.getRequestCount("full") + " tiles",
+				this.mServer.getRequestCount("full") < range.size());
+	}
+
+	@Test
+	public void ownDispatcherIsShutDownOnceFinished() throws Exception {
+		final int before = countEventThreads();
+		final RecordingListener listener = new RecordingListener();
+		final Grout grout = newGrout();
+		grout.setTileFetchingListener(listener);
+		// a tile left in the temp folder by an earlier download
+		final File tempFolder = new File(grout.getFullTempPath());
+		final File tile = new File(tempFolder, "8/75/96.png.tile");
+		tile.getParentFile().mkdirs();
+		tile.createNewFile();
+		final DownloadManager dm = new DownloadManager(grout, Collections.singletonList(this.mServer.getURL("own")),
+				new NullSink(), 4, new UrlConnectionTileClient(4));
+		dm.addAll(TileRange.fromBoundingBox(41, 40, -73, -74, 8, 9));
+		dm.waitFinished();
+
+		assertTrue("no stop event", listener.mStopped.await(5, TimeUnit.SECONDS));
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (countEventThreads() > before && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(before, countEventThreads());
+		assertEquals(1, listener.mCompleted);
+		// the tiles went to the test's own sink, so Grout has not inventoried its temp folder
+		assertEquals(Collections.<String>emptyList(), Arrays.asList(tempFolder.getParentFile().list(new FilenameFilter() {
+			public boolean accept(final File pFolder, final String pName) {
+				return !pName.equals(tempFolder.getName());
+			}
+		})));
+	}
+
+	@Test
+	public void deltaLeavesOutTilesTheBaseHoldsUnchanged() throws Exception {
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 8, 10);
+		// the base holds every other tile, half of them as the server still serves them and half out of date
+		final File baseFile = File.createTempFile("grout", "base.zip");
+		final Set<Long> expected = new HashSet<Long>();
+		int unchanged = 0;
+		final ZipTileSink base = new ZipTileSink(baseFile, "/tiles/%d/%d/%d.png.tile");
+		final TileCursor cursor = range.cursor();
+		while (cursor.hasNext()) {
+			final long ordinal = cursor.ordinal();
+			final long key = cursor.next();
+			if (ordinal % 4 == 0) {
+				base.put(key, ("/delta/" + TileKey.zoom(key) + "/" + TileKey.x(key) + "/" + TileKey.y(key) + ".png")
+						.getBytes("US-ASCII"));
+				unchanged++;
+			} else if (ordinal % 4 == 2) {
+				base.put(key, "stale".getBytes("US-ASCII"));
+				expected.add(key);
+			} else {
+				expected.add(key);
+			}
+		}
+		base.close();
+
+		// the stand-in server ignores If-Modified-Since, so every tile comes back in full
+		final MapSink sink = new MapSink();
+		final DownloadManager dm = new DownloadManager(newGrout(), Collections.singletonList(this.mServer
+				.getURL("delta")), sink, 4, new UrlConnectionTileClient(4), this.mDispatcher,
+				CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS);
+		final TilePackageReader reader = TilePackageReader.open(baseFile);
+		dm.setBase(reader, reader.getTiles());
+		dm.addAll(range);
+		dm.waitFinished();
+		baseFile.delete();
+
+		assertEquals(range.size(), this.mServer.getRequestCount("delta"));
+		assertEquals(expected, sink.mTiles.keySet());
+		assertEquals(unchanged, dm.getUnchangedCount());
+	}
+
+	/**
+	 * @return a Grout whose folders are in the test's own root rather than the user's home.
+	 */
+	private Grout newGrout() {
+		final Grout grout = new Grout();
+		grout.setRootDownloadDir(this.mRoot.getPath());
+		return grout;
+	}
+
+	private static int countEventThreads() {
+		int count = 0;
+		for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && "grout-events".equals(thread.getName())) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static class NullSink implements TileSink {
+		public boolean contains(final long pKey) {
+			return false;
+		}
+
+		public void put(final long pKey, final byte[] pData) {
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class MapSink implements TileSink {
+		final Map<Long, byte[]> mTiles = new ConcurrentHashMap<Long, byte[]>();
+
+		public boolean contains(final long pKey) {
+			return false;
+		}
+
+		public void put(final long pKey, final byte[] pData) {
+			this.mTiles.put(pKey, pData);
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class RecordingListener implements TileFetchingListener {
+		final List<Integer> mErrors = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch mStopped = new CountDownLatch(1);
+		volatile int mCompleted = 0;
+
+		public void onTileDownloaded() {
+		}
+
+		public void onFetchingStart(final FetchingStartEvent pEvent) {
+		}
+
+		public void onFetchingStop() {
+			this.mStopped.countDown();
+		}
+
+		public void onFetchingComplete() {
+			this.mCompleted++;
+		}
+
+		public void onFetchingProgress(final FetchingProgressEvent pEvent) {
+		}
+
+		public void onFetchingError(final FetchingErrorEvent pEvent) {
+			this.mErrors.add(pEvent.cause);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class HostPoolTest {
+
+	private static final long KEY = TileKey.pack(5, 0, 0);
+
+	@Test
+	public void waiterTakesAPermitOnceItIsGivenBack() throws Exception {
+		final HostPool pool = new HostPool(Collections.singletonList("http://a.example/%d/%d/%d.png"), 1);
+		final HostPool.Host busy = pool.acquire(KEY, 0);
+		assertNull(pool.tryAcquire(KEY, 0));
+
+		final AtomicReference<HostPool.Host> taken = new AtomicReference<HostPool.Host>();
+		final Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					taken.set(pool.acquire(KEY, 0));
+				} catch (final InterruptedException e) {
+					// the test fails on the null host
+				}
+			}
+		});
+		waiter.start();
+		Thread.sleep(50);
+		assertNull(taken.get());
+
+		final long released = System.nanoTime();
+		busy.release(0, null);
+		waiter.join(500);
+		assertSame(busy, taken.get());
+		// woken by the release, not by the fallback timeout
+		assertTrue((System.nanoTime() - released) / 1000000 < 500);
+	}
+
+	@Test
+	public void waiterSleepsUntilAPausedHostIsBack() throws Exception {
+		final HostPool pool = new HostPool(Arrays.asList("http://a.example/%d/%d/%d.png",
+				"http://b.example/%d/%d/%d.png"), 1);
+		for (final HostPool.Host host : pool.getHosts()) {
+			host.pause(200);
+		}
+		final long start = System.nanoTime();
+		final HostPool.Host host = pool.acquire(KEY, 0);
+		final long waited = (System.nanoTime() - start) / 1000000;
+		assertNotNull(host);
+		assertTrue("waited " + waited + " ms", waited >= 150 && waited < 1000);
+	}
+
+	@Test(expected = InterruptedException.class)
+	public void waiterGivesUpWhenInterrupted() throws Exception {
+		final HostPool pool = new HostPool(Collections.singletonList("http://a.example/%d/%d/%d.png"), 1);
+		pool.acquire(KEY, 0);
+		Thread.currentThread().interrupt();
+		pool.acquire(KEY, 0);
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RetrySchedulerTest {
+
+	@Test
+	public void refusedRetriesDoNotRunTheBudgetIntoDebt() {
+		final RetryScheduler retries = new RetryScheduler(3, 1, 1, 0.1, 2);
+		assertTrue(retries.schedule(TileKey.pack(5, 0, 0), FetchFailure.SERVER_ERROR));
+		assertTrue(retries.schedule(TileKey.pack(5, 0, 1), FetchFailure.SERVER_ERROR));
+		// an outage: a thousand more failures, all refused
+		for (int y = 2; y < 1002; y++) {
+			assertFalse(retries.schedule(TileKey.pack(5, 0, y), FetchFailure.SERVER_ERROR));
+		}
+		assertEquals(0, retries.getRemainingBudget());
+
+		// ten new tiles earn one retry again
+		for (int i = 0; i < 9; i++) {
+			retries.onTileAdded();
+		}
+		assertFalse(retries.schedule(TileKey.pack(5, 1, 0), FetchFailure.SERVER_ERROR));
+		retries.onTileAdded();
+		assertEquals(1, retries.getRemainingBudget());
+		assertTrue(retries.schedule(TileKey.pack(5, 1, 0), FetchFailure.SERVER_ERROR));
+	}
+
+	@Test
+	public void clientErrorsAndExhaustedTilesAreNotRetried() {
+		final RetryScheduler retries = new RetryScheduler(2, 1, 1, 0.1, 50);
+		final long key = TileKey.pack(5, 0, 0);
+		assertFalse(retries.schedule(key, FetchFailure.CLIENT_ERROR));
+		assertTrue(retries.schedule(key, FetchFailure.TIMEOUT));
+		assertFalse(retries.schedule(key, FetchFailure.TIMEOUT));
+		assertEquals(49, retries.getRemainingBudget());
+	}
+}
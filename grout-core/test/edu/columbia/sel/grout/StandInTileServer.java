@@ -0,0 +1,131 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local tile server for tests. Serves every path /job/z/x/y.png with the path itself as the tile, and keeps count,
+ * per job (the first part of the path), of the requests and of the distinct connections they came in on.
+ */
+public class StandInTileServer {
+	static {
+		// send headers and body without waiting for delayed ACKs, which would slow every request to ~40 ms
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	// ===========================================================
+	// Fields
+	// ===========================================================
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+	private final Map<String, Set<InetSocketAddress>> mConnections = new ConcurrentHashMap<String, Set<InetSocketAddress>>();
+	private final Map<String, AtomicInteger> mRequests = new ConcurrentHashMap<String, AtomicInteger>();
+
+	// ===========================================================
+	// Constructors
+	// ===========================================================
+
+	public StandInTileServer() throws IOException {
+		this.mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.mServer.createContext("/", new HttpHandler() {
+			public void handle(final HttpExchange pExchange) throws IOException {
+				serve(pExchange);
+			}
+		});
+		this.mServer.setExecutor(this.mExecutor);
+		this.mServer.start();
+	}
+
+	// ===========================================================
+	// Getter & Setter
+	// ===========================================================
+
+	/**
+	 * @param pJob
+	 * @return a tile URL template for DownloadManager, with the job as the first part of the path.
+	 */
+	public String getURL(final String pJob) {
+		return "http://127.0.0.1:" + this.mServer.getAddress().getPort() + "/" + pJob + "/%d/%d/%d.png";
+	}
+
+	/**
+	 * @return the number of distinct client connections the job's requests came in on.
+	 */
+	public int getConnectionCount(final String pJob) {
+		final Set<InetSocketAddress> connections = this.mConnections.get(pJob);
+		if (connections == null) {
+			return 0;
+		}
+		synchronized (connections) {
+			return connections.size();
+		}
+	}
+
+	/**
+	 * @return the client addresses, one per connection, the job's requests came in on.
+	 */
+	public Set<InetSocketAddress> getConnections(final String pJob) {
+		final Set<InetSocketAddress> connections = this.mConnections.get(pJob);
+		if (connections == null) {
+			return new HashSet<InetSocketAddress>();
+		}
+		synchronized (connections) {
+			return new HashSet<InetSocketAddress>(connections);
+		}
+	}
+
+	public int getRequestCount(final String pJob) {
+		final AtomicInteger requests = this.mRequests.get(pJob);
+		return (requests != null) ? requests.get() : 0;
+	}
+
+	// ===========================================================
+	// Methods
+	// ===========================================================
+
+	public void stop() {
+		this.mServer.stop(0);
+		this.mExecutor.shutdownNow();
+	}
+
+	private void serve(final HttpExchange pExchange) throws IOException {
+		final String path = pExchange.getRequestURI().getPath();
+		final String job = path.substring(1, Math.max(1, path.indexOf('/', 1)));
+		synchronized (this) {
+			if (!this.mConnections.containsKey(job)) {
+				this.mConnections.put(job, new HashSet<InetSocketAddress>());
+				this.mRequests.put(job, new AtomicInteger());
+			}
+		}
+		final Set<InetSocketAddress> connections = this.mConnections.get(job);
+		synchronized (connections) {
+			connections.add(pExchange.getRemoteAddress());
+		}
+		this.mRequests.get(job).incrementAndGet();
+
+		final byte[] tile = path.getBytes("US-ASCII");
+		pExchange.sendResponseHeaders(200, tile.length);
+		pExchange.getResponseBody().write(tile);
+		pExchange.close();
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TileRangeTest {
+
+	@Test
+	public void boundingBoxCursorVisitsEveryTileInOrdinalOrder() {
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 6, 10);
+		assertCursorMatches(range, null);
+	}
+
+	@Test
+	public void builtRangeHoldsTheUnionOfItsSpans() {
+		final Random random = new Random(21);
+		for (int round = 0; round < 50; round++) {
+			final TileRange.Builder builder = new TileRange.Builder(3, 6);
+			final Set<Long> expected = new HashSet<Long>();
+			for (int i = random.nextInt(40); i > 0; i--) {
+				final int zoom = 2 + random.nextInt(6);
+				final int x = random.nextInt(1 << zoom);
+				final int minY = random.nextInt(1 << zoom) - 2;
+				final int maxY = minY + random.nextInt(12) - 2;
+				builder.addSpan(zoom, x, minY, maxY);
+				if (zoom >= 3 && zoom <= 6) {
+					for (int y = Math.max(0, minY); y <= Math.min(maxY, (1 << zoom) - 1); y++) {
+						expected.add(TileKey.pack(zoom, x, y));
+					}
+				}
+			}
+			final TileRange range = builder.build();
+			assertEquals(expected.size(), range.size());
+			assertCursorMatches(range, expected);
+		}
+	}
+
+	@Test
+	public void splitPartsCoverTheRangeInOrder() {
+		final TileRange range = new TileRange.Builder(4, 5).addSpan(4, 3, 0, 9).addSpan(4, 7, 2, 4)
+				.addSpan(5, 1, 5, 30).build();
+		long next = 0;
+		for (final TileRange part : range.split(7)) {
+			final TileCursor cursor = part.cursor();
+			while (cursor.hasNext()) {
+				assertEquals(next, cursor.ordinal());
+				final long key = cursor.next();
+				assertEquals(next, part.indexOf(key));
+				assertEquals(key, range.keyAt(next));
+				next++;
+			}
+		}
+		assertEquals(range.size(), next);
+	}
+
+	/**
+	 * Walk the range with its cursor and check that ordinals, keyAt, indexOf and contains agree with each other and,
+	 * if given, with the expected tiles.
+	 */
+	private static void assertCursorMatches(final TileRange pRange, final Set<Long> pExpected) {
+		final Set<Long> seen = new HashSet<Long>();
+		final TileCursor cursor = pRange.cursor();
+		long ordinal = 0;
+		while (cursor.hasNext()) {
+			assertEquals(ordinal, cursor.ordinal());
+			final long key = cursor.next();
+			assertTrue("duplicate " + TileKey.toString(key), seen.add(key));
+			assertEquals(key, pRange.keyAt(ordinal));
+			assertEquals(ordinal, pRange.indexOf(key));
+			assertTrue(pRange.contains(key));
+			if (pExpected != null) {
+				assertTrue("unexpected " + TileKey.toString(key), pExpected.contains(key));
+			}
+			ordinal++;
+		}
+		assertEquals(pRange.size(), ordinal);
+		if (pExpected != null) {
+			assertEquals(pExpected, seen);
+			// neighbours of the tiles that were not added are not in the range
+			for (final long key : pExpected) {
+				final long below = TileKey.pack(TileKey.zoom(key), TileKey.x(key), TileKey.y(key) + 1);
+				assertEquals(pExpected.contains(below), pRange.contains(below));
+			}
+		}
+		assertFalse(pRange.contains(TileKey.pack(pRange.getMaxZoom() + 1, 0, 0)));
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class TileSetTest {
+
+	// Rows of one column cover two blocks, so the tests cross a block boundary
+	private static final int ZOOM = 17;
+	private static final int ROWS = 1 << 17;
+
+	@Test
+	public void inOrderRangesMatchATreeSet() {
+		final Random random = new Random(22);
+		for (int round = 0; round < 20; round++) {
+			final TileSet set = new TileSet();
+			final TreeSet<Long> expected = new TreeSet<Long>();
+			// scattered tiles, short runs and long runs, so each block passes through every form
+			int y = random.nextInt(100);
+			while (y < ROWS) {
+				final int length = (random.nextInt(3) == 0) ? 1 + random.nextInt(200) : 1 + random.nextInt(3);
+				final int maxY = Math.min(ROWS - 1, y + length - 1);
+				set.addRange(ZOOM, 3, y, maxY);
+				addAll(expected, 3, y, maxY);
+				y = maxY + 2 + random.nextInt((round % 4 + 1) * 8);
+			}
+			assertSame(expected, set);
+		}
+	}
+
+	@Test
+	public void randomChangesMatchATreeSet() {
+		final Random random = new Random(2201);
+		final TileSet set = new TileSet();
+		final TreeSet<Long> expected = new TreeSet<Long>();
+		for (int i = 0; i < 20000; i++) {
+			final int x = random.nextInt(3);
+			final int y = random.nextInt(ROWS);
+			switch (random.nextInt(4)) {
+			case 0:
+				final int maxY = Math.min(ROWS - 1, y + random.nextInt(300));
+				set.addRange(ZOOM, x, y, maxY);
+				addAll(expected, x, y, maxY);
+				break;
+			case 1:
+				set.add(TileKey.pack(ZOOM, x, y));
+				expected.add(TileKey.pack(ZOOM, x, y));
+				break;
+			default:
+				// remove near existing tiles, so removals hit runs, arrays and bitmaps
+				final Long near = expected.ceiling(TileKey.pack(ZOOM, x, y));
+				if (near != null) {
+					set.remove(near);
+					expected.remove(near);
+				}
+			}
+		}
+		assertSame(expected, set);
+	}
+
+	@Test
+	public void setOperationsMatchATreeSet() {
+		final Random random = new Random(2202);
+		final TileSet a = new TileSet();
+		final TileSet b = new TileSet();
+		final TreeSet<Long> expectedA = new TreeSet<Long>();
+		final TreeSet<Long> expectedB = new TreeSet<Long>();
+		for (int i = 0; i < 3000; i++) {
+			final int x = random.nextInt(2);
+			final int y = random.nextInt(ROWS);
+			final int maxY = Math.min(ROWS - 1, y + ((i % 2 == 0) ? random.nextInt(400) : 0));
+			if (random.nextBoolean()) {
+				a.addRange(ZOOM, x, y, maxY);
+				addAll(expectedA, x, y, maxY);
+			} else {
+				b.addRange(ZOOM, x, y, maxY);
+				addAll(expectedB, x, y, maxY);
+			}
+		}
+
+		final TreeSet<Long> union = new TreeSet<Long>(expectedA);
+		union.addAll(expectedB);
+		final TreeSet<Long> intersection = new TreeSet<Long>(expectedA);
+		intersection.retainAll(expectedB);
+		final TreeSet<Long> difference = new TreeSet<Long>(expectedA);
+		difference.removeAll(expectedB);
+		assertSame(union, a.union(b));
+		assertSame(intersection, a.intersection(b));
+		assertSame(difference, a.difference(b));
+
+		// the results are copies: changing one leaves the operands alone
+		a.union(b).addRange(ZOOM, 0, 0, ROWS - 1);
+		assertSame(expectedA, a);
+		assertSame(expectedB, b);
+	}
+
+	@Test
+	public void rangeRoundTrips() {
+		final TileRange range = new TileRange.Builder(15, 17).addSpan(15, 1, 0, 9).addSpan(16, 2, 3, 3)
+				.addSpan(16, 2, 5, 70000).addSpan(17, 3, 65530, 65541).build();
+		final TileSet set = TileSet.of(range);
+		assertEquals(range.size(), set.cardinality());
+		final TileRange back = set.toTileRange();
+		assertEquals(range.size(), back.size());
+		final TileCursor cursor = range.cursor();
+		final TileSet.Cursor setCursor = set.cursor();
+		while (cursor.hasNext()) {
+			assertEquals(cursor.next(), setCursor.next());
+		}
+		assertTrue(!setCursor.hasNext());
+		for (final TileRange part : range.split(5)) {
+			assertEquals(part.size(), TileSet.of(part).cardinality());
+		}
+	}
+
+	private static void addAll(final TreeSet<Long> pSet, final int pX, final int pMinY, final int pMaxY) {
+		for (int y = pMinY; y <= pMaxY; y++) {
+			pSet.add(TileKey.pack(ZOOM, pX, y));
+		}
+	}
+
+	private static void assertSame(final TreeSet<Long> pExpected, final TileSet pSet) {
+		assertEquals(pExpected.size(), pSet.cardinality());
+		final List<Long> walked = new ArrayList<Long>();
+		final TileSet.Cursor cursor = pSet.cursor();
+		while (cursor.hasNext()) {
+			walked.add(cursor.next());
+		}
+		assertEquals(new ArrayList<Long>(pExpected), walked);
+		for (final long key : pExpected) {
+			assertTrue(pSet.contains(key));
+			final long next = TileKey.pack(ZOOM, TileKey.x(key), TileKey.y(key) + 1);
+			assertEquals(pExpected.contains(next), pSet.contains(next));
+		}
+	}
+}
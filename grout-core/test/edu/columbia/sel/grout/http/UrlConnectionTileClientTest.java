@@ -0,0 +1,127 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.columbia.sel.grout.DownloadManager;
+import edu.columbia.sel.grout.Grout;
+import edu.columbia.sel.grout.StandInTileServer;
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.TileRange;
+import edu.columbia.sel.grout.event.CoalescingProgressDispatcher;
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+import edu.columbia.sel.grout.sink.TileSink;
+import edu.columbia.sel.grout.util.TileUtils;
+
+/**
+ * Checks that downloads keep their connections alive: a job of many tiles should come in on no more connections than
+ * the client allows per host, and a second job on the same client should reuse them.
+ */
+public class UrlConnectionTileClientTest {
+
+	private static final int MAX_CONNECTIONS = 4;
+
+	private File mRoot;
+	private StandInTileServer mServer;
+	private ExecutorEventDispatcher mDispatcher;
+	private UrlConnectionTileClient mClient;
+
+	@Before
+	public void setUp() throws IOException {
+		this.mRoot = File.createTempFile("grout", "root");
+		this.mRoot.delete();
+		this.mRoot.mkdirs();
+		this.mServer = new StandInTileServer();
+		this.mDispatcher = new ExecutorEventDispatcher();
+		this.mClient = new UrlConnectionTileClient(MAX_CONNECTIONS);
+	}
+
+	@After
+	public void tearDown() {
+		this.mClient.close();
+		this.mDispatcher.shutdown();
+		this.mServer.stop();
+		TileUtils.deleteDirectory(this.mRoot);
+	}
+
+	@Test
+	public void jobUsesAtMostOneConnectionPerPermit() throws Exception {
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 8, 12);
+		final MemorySink sink = download("first", range);
+
+		assertEquals(range.size(), sink.mTiles.size());
+		assertEquals(range.size(), this.mServer.getRequestCount("first"));
+		final int connections = this.mServer.getConnectionCount("first");
+		assertTrue("job used " + connections + " connections", connections >= 1 && connections <= MAX_CONNECTIONS);
+	}
+
+	@Test
+	public void secondJobReusesConnections() throws Exception {
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 8, 11);
+		download("first", range);
+		download("second", range);
+
+		assertEquals(range.size(), this.mServer.getRequestCount("second"));
+		final Set<InetSocketAddress> first = this.mServer.getConnections("first");
+		final Set<InetSocketAddress> second = this.mServer.getConnections("second");
+		assertTrue("second job opened new connections: " + second + " after " + first, first.containsAll(second));
+	}
+
+	@Test
+	public void tileIsServedBody() throws Exception {
+		final TileRange range = TileRange.fromBoundingBox(41, 40, -73, -74, 10, 10);
+		final MemorySink sink = download("body", range);
+
+		for (final Map.Entry<Long, byte[]> tile : sink.mTiles.entrySet()) {
+			final long key = tile.getKey();
+			assertEquals("/body/" + TileKey.zoom(key) + "/" + TileKey.x(key) + "/" + TileKey.y(key) + ".png",
+					new String(tile.getValue(), "US-ASCII"));
+		}
+	}
+
+	private MemorySink download(final String pJob, final TileRange pRange) throws InterruptedException {
+		final MemorySink sink = new MemorySink();
+		final Grout grout = new Grout();
+		grout.setRootDownloadDir(this.mRoot.getPath());
+		final DownloadManager dm = new DownloadManager(grout, Collections.singletonList(this.mServer
+				.getURL(pJob)), sink, 2 * MAX_CONNECTIONS, this.mClient, this.mDispatcher,
+				CoalescingProgressDispatcher.DEFAULT_INTERVAL_MILLIS);
+		dm.addAll(pRange);
+		dm.waitFinished();
+		return sink;
+	}
+
+	private static class MemorySink implements TileSink {
+		final Map<Long, byte[]> mTiles = new ConcurrentHashMap<Long, byte[]>();
+
+		public boolean contains(final long pKey) {
+			return false;
+		}
+
+		public void put(final long pKey, final byte[] pData) {
+			this.mTiles.put(pKey, pData);
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.columbia.sel.grout.TileKey;
+import edu.columbia.sel.grout.util.TileUtils;
+
+public class DirectoryTileSinkTest {
+
+	private File mFolder;
+	private final List<Long> mCommitted = Collections.synchronizedList(new ArrayList<Long>());
+	private final List<Long> mFailed = Collections.synchronizedList(new ArrayList<Long>());
+
+	@Before
+	public void setUp() throws IOException {
+		this.mFolder = File.createTempFile("grout", "tiles");
+		this.mFolder.delete();
+		this.mFolder.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		TileUtils.deleteDirectory(this.mFolder);
+	}
+
+	@Test
+	public void tilesAreInPlaceOnceCommitted() throws IOException {
+		final DirectoryTileSink sink = createSink(3);
+		for (int y = 0; y < 10; y++) {
+			sink.put(TileKey.pack(5, 7, y), new byte[] { (byte) y });
+		}
+		assertEquals(9, this.mCommitted.size());
+		sink.close();
+
+		assertEquals(10, this.mCommitted.size());
+		assertEquals(10, TileUtils.getTotalRecursiveFileCount(this.mFolder));
+		for (int y = 0; y < 10; y++) {
+			assertTrue(sink.contains(TileKey.pack(5, 7, y)));
+			assertEquals(1, sink.getFile(TileKey.pack(5, 7, y)).length());
+		}
+	}
+
+	@Test
+	public void unsyncedTilesAreNeverReportedCommitted() throws IOException {
+		final DirectoryTileSink sink = createSink(3);
+		sink.setSyncData(false);
+		for (int y = 0; y < 10; y++) {
+			sink.put(TileKey.pack(5, 7, y), new byte[] { (byte) y });
+		}
+		sink.close();
+
+		assertTrue(this.mCommitted.isEmpty());
+		assertEquals(10, TileUtils.getTotalRecursiveFileCount(this.mFolder));
+	}
+
+	@Test
+	public void failureIsReportedAgainstTheFailingTile() throws IOException {
+		final DirectoryTileSink sink = createSink(2);
+		final long blocked = TileKey.pack(5, 7, 1);
+		final long other = TileKey.pack(5, 7, 2);
+		blockPath(sink, blocked);
+
+		sink.put(blocked, new byte[] { 1 });
+		// commits the batch, which includes the blocked tile of another caller
+		sink.put(other, new byte[] { 2 });
+
+		assertEquals(Collections.singletonList(blocked), this.mFailed);
+		assertEquals(Collections.singletonList(other), this.mCommitted);
+	}
+
+	@Test
+	public void callerHearsOfItsOwnTile() throws IOException {
+		final DirectoryTileSink sink = createSink(2);
+		final long other = TileKey.pack(5, 7, 1);
+		final long blocked = TileKey.pack(5, 7, 2);
+		blockPath(sink, blocked);
+
+		sink.put(other, new byte[] { 1 });
+		try {
+			sink.put(blocked, new byte[] { 2 });
+			fail("put of a tile that cannot be moved into place should throw");
+		} catch (final IOException e) {
+			// expected
+		}
+		assertTrue(this.mFailed.isEmpty());
+		assertEquals(Collections.singletonList(other), this.mCommitted);
+		assertFalse(new File(sink.getFile(blocked).getPath() + ".tmp").exists());
+	}
+
+	private DirectoryTileSink createSink(final int pBatchSize) {
+		final DirectoryTileSink sink = new DirectoryTileSink(this.mFolder + "/%d/%d/%d.png.tile", pBatchSize);
+		sink.setCommitListener(new DirectoryTileSink.CommitListener() {
+			public void onCommitted(final long pKey) {
+				mCommitted.add(pKey);
+			}
+
+			public void onCommitFailed(final long pKey, final IOException pError) {
+				mFailed.add(pKey);
+			}
+		});
+		return sink;
+	}
+
+	/**
+	 * Put a non-empty folder where the tile's file should go, so it cannot be renamed into place.
+	 */
+	private static void blockPath(final DirectoryTileSink pSink, final long pKey) throws IOException {
+		final File path = pSink.getFile(pKey);
+		path.mkdirs();
+		new File(path, "x").createNewFile();
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
+ *
+ * See the file LICENSE for copying permission.
+ *
+ */
+package edu.columbia.sel.grout.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.columbia.sel.grout.event.ExecutorEventDispatcher;
+
+public class FolderDeleterTest {
+
+	private File mRoot;
+	private ExecutorEventDispatcher mDispatcher;
+
+	@Before
+	public void setUp() throws IOException {
+		this.mRoot = File.createTempFile("grout", "deleter");
+		this.mRoot.delete();
+		this.mRoot.mkdirs();
+		this.mDispatcher = new ExecutorEventDispatcher();
+	}
+
+	@After
+	public void tearDown() {
+		this.mDispatcher.shutdown();
+		TileUtils.deleteDirectory(this.mRoot);
+	}
+
+	@Test
+	public void deletesTheFolderAndLeftoversOfEarlierDeletions() throws Exception {
+		final File tiles = createTiles("tiles", 3, 1000);
+		final File leftover = new File(this.mRoot, "tiles.deleting-1");
+		createFile(new File(leftover, "5/7/9.png.tile"), 1000);
+		final Listener listener = new Listener();
+
+		new FolderDeleter(tiles, listener, this.mDispatcher).start();
+
+		assertTrue("not finished", listener.mDone.await(5, TimeUnit.SECONDS));
+		assertTrue(listener.mCompleted);
+		assertFalse(tiles.exists());
+		assertFalse(leftover.exists());
+		assertEquals(14, listener.mFiles);
+		assertEquals(14000, listener.mBytes);
+	}
+
+	@Test
+	public void cancelDoesNotWaitOutTheRateLimit() throws Exception {
+		final File tiles = createTiles("tiles", 2, 1 << 20);
+		final Listener listener = new Listener();
+		final FolderDeleter deleter = new FolderDeleter(tiles, listener, this.mDispatcher);
+		// each file runs up twenty seconds of debt
+		deleter.setRateLimit(0, 50 << 10);
+		deleter.start();
+
+		Thread.sleep(300);
+		final long cancelled = System.nanoTime();
+		deleter.cancel();
+
+		assertTrue("not finished", listener.mDone.await(5, TimeUnit.SECONDS));
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelled);
+		assertTrue("took " + millis + " ms to cancel", millis < 4 * FolderDeleter.CANCEL_CHECK_MILLIS);
+		assertTrue(listener.mCancelled);
+		assertTrue(deleter.getDeletedFileCount() < 8);
+	}
+
+	/**
+	 * @return a folder of pLevels zoom levels holding 1, 3, 9... files of pBytes each.
+	 */
+	private File createTiles(final String pName, final int pLevels, final int pBytes) throws IOException {
+		final File folder = new File(this.mRoot, pName);
+		int count = 1;
+		for (int z = 0; z < pLevels; z++) {
+			for (int i = 0; i < count; i++) {
+				createFile(new File(folder, z + "/" + i + "/" + i + ".png.tile"), pBytes);
+			}
+			count *= 3;
+		}
+		return folder;
+	}
+
+	private static void createFile(final File pFile, final int pBytes) throws IOException {
+		pFile.getParentFile().mkdirs();
+		final RandomAccessFile file = new RandomAccessFile(pFile, "rw");
+		try {
+			file.setLength(pBytes);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static class Listener implements DeleterProgressListener {
+		final CountDownLatch mDone = new CountDownLatch(1);
+		volatile boolean mCompleted;
+		volatile boolean mCancelled;
+		volatile long mFiles;
+		volatile long mBytes;
+
+		public void onDeleteStart() {
+		}
+
+		public void onDeleteComplete() {
+			this.mCompleted = true;
+			this.mDone.countDown();
+		}
+
+		public void onDeleteError() {
+			this.mDone.countDown();
+		}
+
+		public void onDeleteProgress(final long pFiles, final long pBytes) {
+			this.mFiles = pFiles;
+			this.mBytes = pBytes;
+		}
+
+		public void onDeleteCancelled() {
+			this.mCancelled = true;
+			this.mDone.countDown();
+		}
+	}
+}
@@ -1,14 +0,0 @@
-/**
- * 
- * Copyright (c) 2014 Jonathan Wohl, Sustainable Engineering Lab, Columbia University
- * 
- * See the file LICENSE for copying permission.
- * 
- */
-package edu.columbia.sel.grout.event;
-
-public class FetchingProgressEvent {
-	public int total;
-	public int completed;
-	public float percent;
-}